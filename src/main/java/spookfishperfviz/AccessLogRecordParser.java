@@ -0,0 +1,487 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses access logs of nginx and Apache httpd, in the common or the combined
+ * log format, followed by the request processing time, for e.g.
+ * 
+ * <pre>
+ * 10.0.0.1 - - [02/Nov/2014:10:15:32 +0530] "GET /users/42?full=1 HTTP/1.1" 200 512 "-" "curl/7.38" 0.012
+ * </pre>
+ * 
+ * A line is split into fields by a tokenizer that treats a field enclosed in
+ * double quotes or in square brackets as a single field, even if it has
+ * spaces. Fields are not copied.
+ * 
+ * <ul>
+ * <li>The timestamp is the <code>[...]</code> field, i.e. nginx
+ * <code>$time_local</code> or Apache <code>%t</code>, which includes the
+ * offset from UTC.</li>
+ * <li>The event name is the method and the normalized path of the request,
+ * for e.g. <code>GET /users/{id}</code>. The query string is removed, and the
+ * path segments that look like ids, i.e. numbers, UUIDs and long hexadecimal
+ * strings, are replaced by <code>{id}</code>.</li>
+ * <li>The latency is the field at the latency column, by default the first
+ * field after the fields of the log format. This is typically nginx
+ * <code>$request_time</code>, in seconds, or Apache <code>%D</code>, in
+ * microseconds. A prefix ending with <code>=</code>, for e.g. in
+ * <code>rt=0.012</code>, is ignored.</li>
+ * </ul>
+ * 
+ * Thread-safe.
+ * 
+ * @author Rahul Bakale
+ * @since Nov, 2014
+ */
+public final class AccessLogRecordParser extends RecordParser {
+
+	public static enum Format {
+
+		/**
+		 * <code>host ident user [time] "request" status bytes</code>
+		 */
+		COMMON(7),
+
+		/**
+		 * Common format followed by <code>"referer" "user-agent"</code>
+		 */
+		COMBINED(9);
+
+		final int fieldCount;
+
+		private Format(final int fieldCount) {
+			this.fieldCount = fieldCount;
+		}
+	}
+
+	/**
+	 * @param latencyColumn
+	 *            zero based index of the field holding the latency. If
+	 *            <code>null</code>, the first field after the fields of the
+	 *            format.
+	 */
+	public static RecordParser create(final String ignorePattern, final Format format, final Integer latencyColumn) {
+		return new AccessLogRecordParser(ignorePattern, latencyColumn == null ? format.fieldCount : latencyColumn.intValue());
+	}
+
+	/**
+	 * Provides parsers <code>nginx</code> and <code>apache</code>, which are
+	 * the same.
+	 */
+	abstract static class AbstractProvider implements RecordParserProvider {
+
+		@Override
+		public final String[] getOptionNames() {
+			return new String[] { "ignorePattern", "logFormat", "latencyColumn" };
+		}
+
+		@Override
+		public final RecordParser create(final Options options) throws BadOptionsException {
+
+			final String ignorePattern = options.getOptional("ignorePattern", String.class, null);
+			final String logFormat = options.getOptional("logFormat", String.class, "combined");
+			final Integer latencyColumn = options.getOptional("latencyColumn", Integer.class, null);
+
+			final Format format;
+			switch (logFormat) {
+			case "common":
+				format = Format.COMMON;
+				break;
+			case "combined":
+				format = Format.COMBINED;
+				break;
+			default:
+				throw BadOptionsException.illegalValue("logFormat", "<" + logFormat + ">. Must be common or combined.", null);
+			}
+
+			try {
+				return AccessLogRecordParser.create(ignorePattern, format, latencyColumn);
+			} catch (final IllegalArgumentException e) {
+				throw BadOptionsException.illegalValue("latencyColumn", e.getMessage(), e);
+			}
+		}
+	}
+
+	public static final class NginxProvider extends AbstractProvider {
+
+		@Override
+		public String getName() {
+			return "nginx";
+		}
+	}
+
+	public static final class ApacheProvider extends AbstractProvider {
+
+		@Override
+		public String getName() {
+			return "apache";
+		}
+	}
+
+	private static final int TIME_COLUMN = 3;
+	private static final int REQUEST_COLUMN = 4;
+
+	private static final String ID = "{id}";
+
+	private static final String MONTHS = "JanFebMarAprMayJunJulAugSepOctNovDec";
+
+	private static final long MILLIS_IN_A_DAY = TimeUnit.DAYS.toMillis(1);
+
+	private final PrefilteredPattern ignorePattern;
+	private final int latencyColumn;
+	private final int lastColumn;
+
+	private final ThreadLocal<Fields> fields;
+
+	private AccessLogRecordParser(final String ignorePattern, final int latencyColumn) {
+
+		if (latencyColumn < 0) {
+			throw new IllegalArgumentException("Latency column can not be negative. Latency column = <" + latencyColumn + ">");
+		}
+
+		this.ignorePattern = ignorePattern == null ? null : PrefilteredPattern.compile(ignorePattern);
+		this.latencyColumn = latencyColumn;
+		this.lastColumn = Math.max(latencyColumn, REQUEST_COLUMN);
+
+		final int fieldCount = this.lastColumn + 1;
+
+		this.fields = new ThreadLocal<Fields>() {
+			@Override
+			protected Fields initialValue() {
+				return new Fields(fieldCount);
+			}
+		};
+	}
+
+	@Override
+	protected final boolean isIgnore(final String line) {
+		return isIgnore((CharSequence) line);
+	}
+
+	@Override
+	protected final Record parse(final String line) {
+		return parse((CharSequence) line);
+	}
+
+	@Override
+	protected final boolean isIgnore(final CharSequence line) {
+		final PrefilteredPattern pattern = this.ignorePattern;
+		return pattern != null && pattern.matches(line);
+	}
+
+	@Override
+	protected final Record parse(final CharSequence line) {
+		return RecordBatch.parseRecord(this, line);
+	}
+
+	@Override
+	protected final boolean isThreadSafe() {
+		return true;
+	}
+
+	@Override
+	protected final void parse(final CharSequence line, final RecordBatch batch) {
+
+		final Fields f = this.fields.get();
+
+		if (split(line, f) <= this.lastColumn) {
+			throw new RecordParseException(line, RecordParseException.TOO_FEW_COLUMNS, null);
+		}
+
+		final long timestamp;
+		try {
+			timestamp = parseTime(line, f.start[TIME_COLUMN], f.end[TIME_COLUMN]);
+		} catch (final RuntimeException e) {
+			throw new RecordParseException(line, RecordParseException.INVALID_TIMESTAMP, e);
+		}
+
+		final double latency;
+		try {
+			final int column = this.latencyColumn;
+			final int end = f.end[column];
+
+			int start = f.start[column];
+			for (int i = start; i < end; i++) {
+				if (line.charAt(i) == '=') {
+					start = i + 1;
+					break;
+				}
+			}
+
+			latency = RecordBatch.checkLatency(DecimalParser.parse(line, start, end));
+
+		} catch (final RuntimeException e) {
+			throw new RecordParseException(line, RecordParseException.INVALID_LATENCY, e);
+		}
+
+		final StringBuilder eventName = f.eventName;
+
+		if (!appendEventName(line, f.start[REQUEST_COLUMN], f.end[REQUEST_COLUMN], eventName)) {
+			throw new RecordParseException(line, RecordParseException.MALFORMED_LINE, null);
+		}
+
+		batch.add(eventName, 0, eventName.length(), timestamp, latency);
+	}
+
+	/**
+	 * Records, in <code>f</code>, the ranges of the fields of the line, up to
+	 * the last field of interest. The range of a quoted or a bracketed field
+	 * excludes the quotes or the brackets.
+	 * 
+	 * @return number of fields found
+	 */
+	private int split(final CharSequence line, final Fields f) {
+
+		final int length = line.length();
+		final int lastColumn = this.lastColumn;
+
+		int column = 0;
+		int i = 0;
+
+		while (column <= lastColumn) {
+
+			while ((i < length) && (line.charAt(i) == ' ')) {
+				i++;
+			}
+
+			if (i == length) {
+				break;
+			}
+
+			final char first = line.charAt(i);
+
+			if ((first == '"') || (first == '[')) {
+
+				final char close = (first == '"') ? '"' : ']';
+				final int start = i + 1;
+
+				i = start;
+				while ((i < length) && (line.charAt(i) != close)) {
+					// nginx escapes quotes as \x22, Apache as \"
+					i += (line.charAt(i) == '\\') ? 2 : 1;
+				}
+
+				if (i >= length) {
+					break;
+				}
+
+				f.start[column] = start;
+				f.end[column] = i;
+				i++;
+
+			} else {
+
+				final int start = i;
+				while ((i < length) && (line.charAt(i) != ' ')) {
+					i++;
+				}
+
+				f.start[column] = start;
+				f.end[column] = i;
+			}
+
+			column++;
+		}
+
+		return column;
+	}
+
+	/**
+	 * Appends the method and the normalized path of a request line like
+	 * <code>GET /users/42?full=1 HTTP/1.1</code> to <code>eventName</code>,
+	 * after clearing it.
+	 * 
+	 * @return <code>false</code> if the request line is malformed
+	 */
+	private static boolean appendEventName(final CharSequence line, final int start, final int end, final StringBuilder eventName) {
+
+		eventName.setLength(0);
+
+		int i = start;
+		while ((i < end) && (line.charAt(i) != ' ')) {
+			i++;
+		}
+
+		if ((i == start) || (i == end)) {
+			return false;
+		}
+
+		final int pathStart = i + 1;
+
+		int pathEnd = pathStart;
+		while ((pathEnd < end) && (line.charAt(pathEnd) != ' ') && (line.charAt(pathEnd) != '?') && (line.charAt(pathEnd) != '#')) {
+			pathEnd++;
+		}
+
+		if (pathEnd == pathStart) {
+			return false;
+		}
+
+		// method
+		for (int k = start; k < i; k++) {
+			eventName.append(line.charAt(k));
+		}
+
+		eventName.append(' ');
+
+		// path, one segment at a time
+		int segmentStart = pathStart;
+
+		for (int k = pathStart; k <= pathEnd; k++) {
+
+			if ((k == pathEnd) || (line.charAt(k) == '/')) {
+
+				if (isId(line, segmentStart, k)) {
+					eventName.append(ID);
+				} else {
+					for (int m = segmentStart; m < k; m++) {
+						eventName.append(line.charAt(m));
+					}
+				}
+
+				if (k < pathEnd) {
+					eventName.append('/');
+				}
+
+				segmentStart = k + 1;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return whether the path segment is a number, a UUID or a hexadecimal
+	 *         string of at least 16 characters having a digit
+	 */
+	private static boolean isId(final CharSequence line, final int start, final int end) {
+
+		final int length = end - start;
+
+		if (length == 0) {
+			return false;
+		}
+
+		boolean allDigits = true;
+		boolean hasDigit = false;
+		int dashes = 0;
+
+		for (int i = start; i < end; i++) {
+
+			final char ch = line.charAt(i);
+
+			if ((ch >= '0') && (ch <= '9')) {
+				hasDigit = true;
+			} else if (((ch >= 'a') && (ch <= 'f')) || ((ch >= 'A') && (ch <= 'F'))) {
+				allDigits = false;
+			} else if ((ch == '-') && (length == 36)) {
+				allDigits = false;
+				dashes++;
+			} else {
+				return false;
+			}
+		}
+
+		if (allDigits) {
+			return true;
+		}
+
+		if (length == 36) {
+			return (dashes == 4) && (line.charAt(start + 8) == '-') && (line.charAt(start + 13) == '-') && (line.charAt(start + 18) == '-')
+					&& (line.charAt(start + 23) == '-');
+		}
+
+		return hasDigit && (length >= 16);
+	}
+
+	/**
+	 * Parses a time like <code>02/Nov/2014:10:15:32 +0530</code>.
+	 */
+	private static long parseTime(final CharSequence text, final int start, final int end) {
+
+		if (((end - start) != 26) || (text.charAt(start + 2) != '/') || (text.charAt(start + 6) != '/') || (text.charAt(start + 11) != ':')
+				|| (text.charAt(start + 14) != ':') || (text.charAt(start + 17) != ':') || (text.charAt(start + 20) != ' ')) {
+			throw newTimeFormatException(text, start, end);
+		}
+
+		final int day = TimestampParser.parseDigits(text, start, start + 2);
+		final int month = month(text, start + 3);
+		final int year = TimestampParser.parseDigits(text, start + 7, start + 11);
+		final int hour = TimestampParser.parseDigits(text, start + 12, start + 14);
+		final int minute = TimestampParser.parseDigits(text, start + 15, start + 17);
+		final int second = TimestampParser.parseDigits(text, start + 18, start + 20);
+
+		final char sign = text.charAt(start + 21);
+		final int offsetHours = TimestampParser.parseDigits(text, start + 22, start + 24);
+		final int offsetMinutes = TimestampParser.parseDigits(text, start + 24, start + 26);
+
+		if ((day < 1) || (day > 31) || (month < 1) || (year < 0) || (hour < 0) || (hour > 23) || (minute < 0) || (minute > 59) || (second < 0)
+				|| (second > 60) || ((sign != '+') && (sign != '-')) || (offsetHours < 0) || (offsetMinutes < 0)) {
+			throw newTimeFormatException(text, start, end);
+		}
+
+		final long offsetMillis = ((offsetHours * 60L) + offsetMinutes) * 60000L * (sign == '-' ? -1 : 1);
+
+		final long localMillis = (TimestampParser.daysSinceEpoch(year, month, day) * MILLIS_IN_A_DAY) + ((((hour * 60L) + minute) * 60L) + second) * 1000L;
+
+		return localMillis - offsetMillis;
+	}
+
+	/**
+	 * @return 1 to 12, or -1 if the three characters are not an abbreviated
+	 *         month name
+	 */
+	private static int month(final CharSequence text, final int start) {
+
+		final char c0 = text.charAt(start);
+		final char c1 = text.charAt(start + 1);
+		final char c2 = text.charAt(start + 2);
+
+		for (int m = 0; m < 12; m++) {
+			final int k = m * 3;
+			if ((MONTHS.charAt(k) == c0) && (MONTHS.charAt(k + 1) == c1) && (MONTHS.charAt(k + 2) == c2)) {
+				return m + 1;
+			}
+		}
+
+		return -1;
+	}
+
+	private static IllegalArgumentException newTimeFormatException(final CharSequence text, final int start, final int end) {
+		return new IllegalArgumentException("Time <" + text.subSequence(start, end) + "> is not in format dd/MMM/yyyy:HH:mm:ss Z");
+	}
+
+	/**
+	 * Re-used for all the lines parsed by a thread.
+	 */
+	private static final class Fields {
+
+		final int[] start;
+		final int[] end;
+		final StringBuilder eventName;
+
+		Fields(final int fieldCount) {
+			this.start = new int[fieldCount];
+			this.end = new int[fieldCount];
+			this.eventName = new StringBuilder();
+		}
+	}
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+/**
+ * Distribution of a number of values that are not held, hence each value read
+ * from it is approximate. The values are read by their rank, for the median and
+ * the percentiles, and as a sequence of buckets in ascending order of their
+ * values, for the histogram.
+ *
+ * The count, the minimum and the maximum are exact.
+ *
+ * @author Rahul Bakale
+ * @since Nov, 2014
+ */
+interface ApproximateDistribution {
+
+	long getTotalCount();
+
+	double getMin();
+
+	double getMax();
+
+	/**
+	 * @param rank
+	 *            0 based index of a value in the ascending order of the values
+	 * @throws IndexOutOfBoundsException
+	 *             if there is no value at <code>rank</code>
+	 */
+	double getValueAtRank(long rank);
+
+	/**
+	 * @return a value not greater than the actual value at <code>rank</code>,
+	 *         within the error bound of the distribution
+	 */
+	double getLowerBoundAtRank(long rank);
+
+	/**
+	 * @return a value not less than the actual value at <code>rank</code>,
+	 *         within the error bound of the distribution
+	 */
+	double getUpperBoundAtRank(long rank);
+
+	/**
+	 * @return number of buckets, some of which may be empty
+	 */
+	int getBucketCount();
+
+	long getCount(int bucket);
+
+	/**
+	 * @return value that represents all the values counted in the bucket
+	 */
+	double getValue(int bucket);
+}
@@ -0,0 +1,265 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * Keeps account of the lines that could not be parsed, so that ingestion can
+ * continue past them instead of failing.
+ *
+ * Bad lines are counted by the reason of failure and, optionally, the first
+ * few of them are written to a quarantine file, one per line, as
+ * <code>source &lt;TAB&gt; line number &lt;TAB&gt; byte offset &lt;TAB&gt; reason &lt;TAB&gt; line</code>.
+ * Source is <code>-</code>, and line number or byte offset is -1, if it is
+ * not known.
+ *
+ * If the ratio of bad lines to all parsed lines exceeds the maximum allowed
+ * ratio, the ingestion is aborted by throwing an exception. The ratio is
+ * checked only after enough lines have been parsed, and once more when the
+ * ingestion is {@linkplain #finish() finished}.
+ *
+ * Thread-safe.
+ *
+ * @author Rahul Bakale
+ * @since Nov, 2014
+ */
+final class BadLineCollector implements AutoCloseable {
+
+	/**
+	 * A few bad lines at the beginning of a file should not abort the
+	 * ingestion, hence the ratio is not checked till these many lines have
+	 * been parsed.
+	 */
+	private static final long MIN_LINES_FOR_RATIO_CHECK = 1000;
+
+	static final int DEFAULT_MAX_QUARANTINED_LINES = 1000;
+
+	/**
+	 * @param maxBadLineRatio
+	 *            <code>null</code> if any number of bad lines is allowed
+	 * @param quarantineFile
+	 *            <code>null</code> if bad lines must not be written to a file
+	 */
+	static BadLineCollector create(final Double maxBadLineRatio, final Path quarantineFile, final int maxQuarantinedLines) throws IOException {
+
+		final BufferedWriter quarantine = (quarantineFile == null) ? null : Files.newBufferedWriter(quarantineFile, Charset.defaultCharset());
+
+		return new BadLineCollector(maxBadLineRatio == null ? 1 : maxBadLineRatio.doubleValue(), quarantineFile, quarantine, maxQuarantinedLines);
+	}
+
+	private final double maxBadLineRatio;
+	private final Path quarantineFile;
+	private final BufferedWriter quarantine;
+	private final int maxQuarantinedLines;
+
+	private final TreeMap<String, long[]> countsByReason;
+	private long goodLineCount;
+	private long badLineCount;
+	private int quarantinedLineCount;
+
+	private BadLineCollector(final double maxBadLineRatio, final Path quarantineFile, final BufferedWriter quarantine, final int maxQuarantinedLines) {
+		this.maxBadLineRatio = maxBadLineRatio;
+		this.quarantineFile = quarantineFile;
+		this.quarantine = quarantine;
+		this.maxQuarantinedLines = maxQuarantinedLines;
+		this.countsByReason = new TreeMap<>();
+	}
+
+	/**
+	 * Callers count the lines parsed successfully on their own and report
+	 * them in batches, so that there is no contention for every line.
+	 */
+	synchronized void goodLines(final long count) {
+		this.goodLineCount += count;
+	}
+
+	/**
+	 * @param source
+	 *            name of the source, for e.g. the file, of the line, or
+	 *            <code>null</code> if not known
+	 * @param lineNumber
+	 *            one-based line number, or -1 if not known
+	 * @param byteOffset
+	 *            offset of the line in the input, or -1 if not known
+	 */
+	synchronized void badLine(final String source, final long lineNumber, final long byteOffset, final CharSequence line, final RuntimeException error) {
+
+		final String reason = (error instanceof RecordParseException) ? ((RecordParseException) error).getReason() : error.getClass().getSimpleName();
+
+		long[] count = this.countsByReason.get(reason);
+		if (count == null) {
+			count = new long[1];
+			this.countsByReason.put(reason, count);
+		}
+		count[0]++;
+
+		this.badLineCount++;
+
+		if ((this.quarantine != null) && (this.quarantinedLineCount < this.maxQuarantinedLines)) {
+
+			this.quarantinedLineCount++;
+
+			try {
+				this.quarantine.append(source == null ? "-" : source).append('\t').append(String.valueOf(lineNumber)).append('\t').append(String.valueOf(byteOffset)).append('\t').append(reason).append('\t')
+						.append(line);
+				this.quarantine.newLine();
+			} catch (final IOException e) {
+				throw new RuntimeException("Error while writing to quarantine file <" + this.quarantineFile + ">", e);
+			}
+		}
+
+		if ((this.goodLineCount + this.badLineCount) >= MIN_LINES_FOR_RATIO_CHECK) {
+			checkBadLineRatio();
+		}
+	}
+
+	/**
+	 * Must be called after all the lines have been parsed.
+	 */
+	synchronized void finish() {
+		checkBadLineRatio();
+	}
+
+	/**
+	 * @return the counts of good and bad lines, in a form that can be saved
+	 *         and later {@linkplain #addCounts(byte[]) added} to another
+	 *         instance
+	 */
+	synchronized byte[] countsToBytes() throws IOException {
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try (final DataOutputStream out = new DataOutputStream(bytes);) {
+
+			out.writeLong(this.goodLineCount);
+			out.writeLong(this.badLineCount);
+			out.writeInt(this.countsByReason.size());
+
+			for (final Entry<String, long[]> entry : this.countsByReason.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeLong(entry.getValue()[0]);
+			}
+		}
+
+		return bytes.toByteArray();
+	}
+
+	synchronized void addCounts(final byte[] counts) throws IOException {
+
+		try (final DataInputStream in = new DataInputStream(new ByteArrayInputStream(counts));) {
+
+			this.goodLineCount += in.readLong();
+			this.badLineCount += in.readLong();
+
+			final int reasonCount = in.readInt();
+
+			for (int i = 0; i < reasonCount; i++) {
+
+				final String reason = in.readUTF();
+
+				long[] count = this.countsByReason.get(reason);
+				if (count == null) {
+					count = new long[1];
+					this.countsByReason.put(reason, count);
+				}
+				count[0] += in.readLong();
+			}
+		}
+	}
+
+	synchronized long getBadLineCount() {
+		return this.badLineCount;
+	}
+
+	synchronized long getLineCount() {
+		return this.goodLineCount + this.badLineCount;
+	}
+
+	private void checkBadLineRatio() {
+
+		final long lineCount = this.goodLineCount + this.badLineCount;
+
+		if ((lineCount > 0) && (((double) this.badLineCount / lineCount) > this.maxBadLineRatio)) {
+			throw new RuntimeException("Aborting since too many lines could not be parsed. Bad lines = <" + this.badLineCount + ">, parsed lines = <" + lineCount
+					+ ">, maximum allowed ratio = <" + this.maxBadLineRatio + ">, bad lines by reason = " + countsByReasonToString());
+		}
+	}
+
+	private String countsByReasonToString() {
+
+		final StringBuilder sb = new StringBuilder("{");
+
+		for (final Entry<String, long[]> entry : this.countsByReason.entrySet()) {
+			if (sb.length() > 1) {
+				sb.append(", ");
+			}
+			sb.append(entry.getKey()).append('=').append(entry.getValue()[0]);
+		}
+
+		return sb.append('}').toString();
+	}
+
+	synchronized String toHtml() {
+
+		final String NL = System.lineSeparator();
+
+		final StringBuilder html = new StringBuilder();
+
+		html.append("<b>Lines that could not be parsed: ").append(this.badLineCount).append(" of ").append(this.goodLineCount + this.badLineCount).append("</b>");
+
+		if (!this.countsByReason.isEmpty()) {
+
+			html.append(NL);
+			html.append("<table style=\"border:1px solid black; font-size: 14px;\">").append(NL);
+			html.append("<tr><th>Reason</th><th>Line count</th></tr>").append(NL);
+
+			for (final Entry<String, long[]> entry : this.countsByReason.entrySet()) {
+				html.append("<tr><td>").append(entry.getKey()).append("</td><td>").append(entry.getValue()[0]).append("</td></tr>").append(NL);
+			}
+
+			html.append("</table>");
+
+			if (this.quarantine != null) {
+				html.append(NL);
+				html.append("First ").append(this.quarantinedLineCount).append(" bad lines were written to ").append(this.quarantineFile);
+			}
+		}
+
+		html.append("<br></br>");
+
+		return html.toString();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (this.quarantine != null) {
+			this.quarantine.close();
+		}
+	}
+}
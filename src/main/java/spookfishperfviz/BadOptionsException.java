@@ -21,7 +21,7 @@ package spookfishperfviz;
  * @author Rahul Bakale
  * @since Nov, 2014
  */
-final class BadOptionsException extends Exception {
+public final class BadOptionsException extends Exception {
 
 	private static final long serialVersionUID = 7736583174452576492L;
 
@@ -37,7 +37,7 @@ final class BadOptionsException extends Exception {
 		return new BadOptionsException("Value is not specified for option <" + optionName + ">");
 	}
 
-	static BadOptionsException illegalValue(final String optionName, final String message, final Throwable cause) {
+	public static BadOptionsException illegalValue(final String optionName, final String message, final Throwable cause) {
 		return new BadOptionsException("Option <" + optionName + "> has illegal value. " + message, cause);
 	}
 
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A re-usable {@linkplain CharSequence} view of a range of bytes. Every byte is
+ * treated as one character, hence the view must only be used for bytes that
+ * are known to be ASCII.
+ *
+ * The view does not copy the bytes, so its contents change whenever the
+ * underlying buffer is modified or the view is {@linkplain #set(ByteBuffer, int, int) re-pointed}.
+ *
+ * @author Rahul Bakale
+ * @since Nov, 2014
+ */
+final class ByteCharSequence implements CharSequence {
+
+	private ByteBuffer buffer;
+	private int offset;
+	private int length;
+
+	ByteCharSequence() {
+		this.buffer = ByteBuffer.allocate(0);
+	}
+
+	ByteCharSequence set(final ByteBuffer buffer, final int offset, final int length) {
+		this.buffer = buffer;
+		this.offset = offset;
+		this.length = length;
+		return this;
+	}
+
+	@Override
+	public int length() {
+		return this.length;
+	}
+
+	@Override
+	public char charAt(final int index) {
+		if ((index < 0) || (index >= this.length)) {
+			throw new IndexOutOfBoundsException("index = <" + index + ">, length = <" + this.length + ">");
+		}
+
+		return (char) (this.buffer.get(this.offset + index) & 0xFF);
+	}
+
+	@Override
+	public CharSequence subSequence(final int start, final int end) {
+		if ((start < 0) || (end > this.length) || (start > end)) {
+			throw new IndexOutOfBoundsException("start = <" + start + ">, end = <" + end + ">, length = <" + this.length + ">");
+		}
+
+		return toString(start, end);
+	}
+
+	@Override
+	public String toString() {
+		return toString(0, this.length);
+	}
+
+	private String toString(final int start, final int end) {
+
+		final ByteBuffer buffer = this.buffer;
+		final int offset = this.offset;
+
+		final char[] chars = new char[end - start];
+
+		for (int i = start, k = 0; i < end; i++, k++) {
+			chars[k] = (char) (buffer.get(offset + i) & 0xFF);
+		}
+
+		return new String(chars);
+	}
+}
@@ -0,0 +1,249 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Splits bytes into lines without creating a {@linkplain String} per line.
+ *
+ * Lines are separated by <code>\n</code>, <code>\r\n</code> or
+ * <code>\r</code>. The {@linkplain CharSequence} returned by
+ * {@linkplain #next()} is a view of the internal buffer and is valid only till
+ * the next call to {@linkplain #next()}. Lines consisting only of ASCII
+ * characters are not decoded at all; other lines are decoded using the charset
+ * of the reader.
+ *
+ * Only charsets that encode ASCII characters as single bytes of same value,
+ * such as UTF-8 and ISO-8859-1, are supported.
+ *
+ * @author Rahul Bakale
+ * @since Nov, 2014
+ */
+final class ByteLineReader implements AutoCloseable {
+
+	static final int DEFAULT_BUFFER_SIZE = 1 << 20; // 1 MB
+
+	private static final byte LF = '\n';
+	private static final byte CR = '\r';
+
+	/**
+	 * Reads lines from a channel.
+	 */
+	static ByteLineReader create(final ReadableByteChannel channel, final int bufferSize, final Charset charset) {
+
+		final ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+		buffer.flip();
+
+		return new ByteLineReader(channel, buffer, charset);
+	}
+
+	/**
+	 * Reads lines from the bytes between the position and the limit of the
+	 * buffer.
+	 */
+	static ByteLineReader create(final ByteBuffer buffer, final Charset charset) {
+		return new ByteLineReader(null, buffer.duplicate(), charset);
+	}
+
+	static boolean isAsciiCompatible(final Charset charset) {
+
+		final byte[] ascii = new byte[128];
+		for (int i = 0; i < ascii.length; i++) {
+			ascii[i] = (byte) i;
+		}
+
+		final byte[] encoded = new String(ascii, 0, ascii.length, Charset.forName("US-ASCII")).getBytes(charset);
+
+		return Arrays.equals(ascii, encoded);
+	}
+
+	private final ReadableByteChannel channel;
+	private final Charset charset;
+	private final ByteCharSequence asciiLine;
+
+	/**
+	 * Unconsumed bytes are between the position and the limit.
+	 */
+	private ByteBuffer buffer;
+
+	/**
+	 * Offset, in the input, of the byte at index 0 of the buffer.
+	 */
+	private long bufferOffset;
+
+	private long lineOffset = -1;
+
+	private boolean endOfInput;
+	private boolean skipLeadingLF;
+
+	private ByteLineReader(final ReadableByteChannel channel, final ByteBuffer buffer, final Charset charset) {
+
+		if (!isAsciiCompatible(charset)) {
+			throw new IllegalArgumentException("Charset <" + charset + "> is not supported");
+		}
+
+		this.channel = channel;
+		this.buffer = buffer;
+		this.charset = charset;
+		this.asciiLine = new ByteCharSequence();
+		this.endOfInput = (channel == null);
+		this.bufferOffset = -buffer.position();
+	}
+
+	/**
+	 * @return next line, or <code>null</code> if there are no more lines.
+	 */
+	CharSequence next() throws IOException {
+
+		int scanFrom = 0;
+		int nonAscii = 0;
+
+		while (true) {
+
+			ByteBuffer buf = this.buffer;
+
+			if (this.skipLeadingLF && buf.hasRemaining()) {
+				if (buf.get(buf.position()) == LF) {
+					buf.position(buf.position() + 1);
+				}
+				this.skipLeadingLF = false;
+			}
+
+			final int start = buf.position();
+			final int limit = buf.limit();
+
+			for (int i = start + scanFrom; i < limit; i++) {
+
+				final byte b = buf.get(i);
+
+				if ((b == LF) || (b == CR)) {
+
+					int next = i + 1;
+
+					if (b == CR) {
+						if (next < limit) {
+							if (buf.get(next) == LF) {
+								next++;
+							}
+						} else {
+							this.skipLeadingLF = true;
+						}
+					}
+
+					buf.position(next);
+					this.lineOffset = this.bufferOffset + start;
+
+					return toLine(buf, start, i, nonAscii);
+				}
+
+				nonAscii |= b;
+			}
+
+			if (this.endOfInput) {
+
+				if (start < limit) {
+					buf.position(limit);
+					this.lineOffset = this.bufferOffset + start;
+
+					return toLine(buf, start, limit, -1);
+				}
+
+				return null;
+			}
+
+			scanFrom = limit - start;
+
+			buf = fill(buf);
+			this.buffer = buf;
+		}
+	}
+
+	/**
+	 * @return offset, in bytes, of the start of the line last returned by
+	 *         {@linkplain #next()}, counted from the start of the input, or -1
+	 *         if no line has been returned yet.
+	 */
+	long lineOffset() {
+		return this.lineOffset;
+	}
+
+	/**
+	 * Moves the unconsumed bytes to the beginning of the buffer and then reads
+	 * more bytes from the channel. Grows the buffer if it is full.
+	 */
+	private ByteBuffer fill(final ByteBuffer buf) throws IOException {
+
+		this.bufferOffset += buf.position();
+		buf.compact();
+
+		ByteBuffer b = buf;
+
+		if (!b.hasRemaining()) {
+			final ByteBuffer bigger = ByteBuffer.allocate(b.capacity() * 2);
+			b.flip();
+			bigger.put(b);
+			b = bigger;
+		}
+
+		int n;
+		do {
+			n = this.channel.read(b);
+		} while (n == 0);
+
+		if (n < 0) {
+			this.endOfInput = true;
+		}
+
+		b.flip();
+
+		return b;
+	}
+
+	/**
+	 * @param nonAscii
+	 *            has the sign bit set if the line may contain non-ASCII bytes
+	 */
+	private CharSequence toLine(final ByteBuffer buf, final int start, final int end, final int nonAscii) {
+
+		if (nonAscii >= 0) {
+			return this.asciiLine.set(buf, start, end - start);
+		}
+
+		for (int i = start; i < end; i++) {
+			if (buf.get(i) < 0) {
+				final ByteBuffer dup = buf.duplicate();
+				dup.limit(end).position(start);
+				return this.charset.decode(dup);
+			}
+		}
+
+		return this.asciiLine.set(buf, start, end - start);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (this.channel != null) {
+			this.channel.close();
+		}
+	}
+}
@@ -0,0 +1,391 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Opens input files that may be compressed. The format is detected from the
+ * first bytes of the file, not from its name.
+ *
+ * Compressed files are decompressed by a background thread, which hands the
+ * decompressed bytes to the reader through a small, fixed set of buffers.
+ * Hence decompression of the next buffer overlaps with parsing of the current
+ * one, and nothing is written to disk.
+ *
+ * All the files in a zip archive are read, one after another, as if they were
+ * a single file.
+ *
+ * @author Rahul Bakale
+ * @since Nov, 2014
+ */
+final class CompressedInput {
+
+	enum Format {
+		NONE, GZIP, ZIP
+	}
+
+	private static final int BUFFER_SIZE = 1 << 18; // 256 KB
+
+	/**
+	 * Number of buffers that the decompressing thread can fill ahead of the
+	 * reader.
+	 */
+	private static final int BUFFER_COUNT = 4;
+
+	static Format detectFormat(final Path file) throws IOException {
+
+		final byte[] magic = new byte[4];
+		int n = 0;
+
+		try (final InputStream in = Files.newInputStream(file);) {
+			int r;
+			while ((n < magic.length) && ((r = in.read(magic, n, magic.length - n)) > 0)) {
+				n += r;
+			}
+		}
+
+		if ((n >= 2) && (magic[0] == (byte) 0x1f) && (magic[1] == (byte) 0x8b)) {
+			return Format.GZIP;
+		}
+
+		if ((n >= 4) && (magic[0] == 'P') && (magic[1] == 'K') && (magic[2] == 3) && (magic[3] == 4)) {
+			return Format.ZIP;
+		}
+
+		return Format.NONE;
+	}
+
+	/**
+	 * @return a channel that reads the decompressed contents of the file
+	 */
+	static ReadableByteChannel open(final Path file) throws IOException {
+
+		final Format format = detectFormat(file);
+
+		if (format == Format.NONE) {
+			return FileChannel.open(file, StandardOpenOption.READ);
+		}
+
+		final InputStream in = Files.newInputStream(file);
+
+		try {
+			final InputStream decompressed = (format == Format.GZIP) ? new GZIPInputStream(in, BUFFER_SIZE) : new ZipEntriesInputStream(new ZipInputStream(in));
+
+			final DecompressingChannel channel = new DecompressingChannel(decompressed);
+			channel.start("Decompressor-" + file.getFileName());
+
+			return channel;
+
+		} catch (final IOException | RuntimeException e) {
+
+			try {
+				in.close();
+			} catch (final IOException e2) {
+				e.addSuppressed(e2);
+			}
+
+			throw e;
+		}
+	}
+
+	private CompressedInput() {
+		//
+	}
+
+	/**
+	 * Reads the bytes decompressed by a background thread.
+	 */
+	private static final class DecompressingChannel implements ReadableByteChannel, Runnable {
+
+		/**
+		 * Put in the queue after the last buffer.
+		 */
+		private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+		private final InputStream source;
+
+		private final BlockingQueue<ByteBuffer> filled;
+		private final BlockingQueue<ByteBuffer> free;
+
+		private Thread thread;
+
+		/**
+		 * Set by the decompressing thread before it puts {@linkplain #END} in
+		 * the queue.
+		 */
+		private volatile Throwable error;
+
+		private ByteBuffer current;
+		private boolean endReached;
+		private boolean closed;
+
+		DecompressingChannel(final InputStream source) {
+
+			this.source = source;
+			this.filled = new ArrayBlockingQueue<>(BUFFER_COUNT + 1);
+			this.free = new ArrayBlockingQueue<>(BUFFER_COUNT);
+
+			for (int i = 0; i < BUFFER_COUNT; i++) {
+				this.free.add(ByteBuffer.allocate(BUFFER_SIZE));
+			}
+		}
+
+		void start(final String threadName) {
+
+			final Thread t = new Thread(this, threadName);
+			t.setDaemon(true);
+			t.start();
+
+			this.thread = t;
+		}
+
+		/**
+		 * Runs in the decompressing thread.
+		 */
+		@Override
+		public void run() {
+
+			try {
+				final InputStream source = this.source;
+
+				while (true) {
+
+					final ByteBuffer buffer = this.free.take();
+					buffer.clear();
+
+					final byte[] array = buffer.array();
+
+					int n = 0;
+					int r = 0;
+
+					while ((n < array.length) && ((r = source.read(array, n, array.length - n)) >= 0)) {
+						n += r;
+					}
+
+					if (n > 0) {
+						buffer.limit(n);
+						this.filled.put(buffer);
+					}
+
+					if (r < 0) {
+						break;
+					}
+				}
+
+			} catch (final InterruptedException e) {
+				// closed by the reader
+				return;
+
+			} catch (final Throwable t) {
+				this.error = t;
+			}
+
+			// There is always room for END, since the queue can hold all the buffers and END.
+			this.filled.add(END);
+		}
+
+		@Override
+		public int read(final ByteBuffer dst) throws IOException {
+
+			if (this.closed) {
+				throw new ClosedChannelException();
+			}
+
+			ByteBuffer buf = this.current;
+
+			while ((buf == null) || !buf.hasRemaining()) {
+
+				if (this.endReached) {
+					return -1;
+				}
+
+				if (buf != null) {
+					this.free.add(buf);
+					this.current = null;
+				}
+
+				try {
+					buf = this.filled.take();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for decompressed data");
+				}
+
+				if (buf == END) {
+
+					this.endReached = true;
+
+					final Throwable t = this.error;
+					if (t != null) {
+						throw new IOException("Error while decompressing input", t);
+					}
+
+					return -1;
+				}
+
+				this.current = buf;
+			}
+
+			final int n = Math.min(buf.remaining(), dst.remaining());
+
+			final int limit = buf.limit();
+			buf.limit(buf.position() + n);
+			dst.put(buf);
+			buf.limit(limit);
+
+			return n;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return !this.closed;
+		}
+
+		@Override
+		public void close() throws IOException {
+
+			if (this.closed) {
+				return;
+			}
+
+			this.closed = true;
+
+			final Thread t = this.thread;
+
+			if (t != null) {
+
+				t.interrupt();
+
+				boolean interrupted = false;
+
+				while (true) {
+					try {
+						t.join();
+						break;
+					} catch (final InterruptedException e) {
+						interrupted = true;
+					}
+				}
+
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			this.source.close();
+		}
+	}
+
+	/**
+	 * Reads all the files in a zip archive one after another. If a file does
+	 * not end with a line separator, one is added, so that its last line is
+	 * not joined with the first line of the next file.
+	 */
+	private static final class ZipEntriesInputStream extends InputStream {
+
+		private final ZipInputStream zip;
+
+		private boolean inEntry;
+		private boolean endReached;
+		private int lastByte = '\n';
+		private boolean pendingNewLine;
+
+		ZipEntriesInputStream(final ZipInputStream zip) {
+			this.zip = zip;
+		}
+
+		@Override
+		public int read() throws IOException {
+
+			final byte[] b = new byte[1];
+			final int n = read(b, 0, 1);
+
+			return (n < 0) ? -1 : (b[0] & 0xFF);
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+
+			if (len == 0) {
+				return 0;
+			}
+
+			while (true) {
+
+				if (this.pendingNewLine) {
+					this.pendingNewLine = false;
+					this.lastByte = '\n';
+					b[off] = '\n';
+					return 1;
+				}
+
+				if (this.endReached) {
+					return -1;
+				}
+
+				if (!this.inEntry) {
+
+					final ZipEntry entry = this.zip.getNextEntry();
+
+					if (entry == null) {
+						this.endReached = true;
+						return -1;
+					}
+
+					if (!entry.isDirectory()) {
+						this.inEntry = true;
+					}
+
+					continue;
+				}
+
+				final int n = this.zip.read(b, off, len);
+
+				if (n > 0) {
+					this.lastByte = b[(off + n) - 1];
+					return n;
+				}
+
+				if (n < 0) {
+					this.inEntry = false;
+					this.pendingNewLine = (this.lastByte != '\n') && (this.lastByte != '\r');
+				}
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.zip.close();
+		}
+	}
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+/**
+ * Parses decimal numbers, such as latencies, directly from a range of
+ * characters of a line, without creating a {@linkplain String}.
+ *
+ * Numbers made of an optional sign, digits and an optional decimal point,
+ * having at most 15 significant digits and at most 22 digits after the
+ * decimal point, are parsed by a fast path. Such a number is an integer
+ * <code>m &lt; 10<sup>15</sup></code> divided by
+ * <code>10<sup>k</sup></code>, <code>k &lt;= 22</code>. Both are exactly
+ * representable as doubles, hence a single division gives the correctly
+ * rounded result, same as {@linkplain Double#parseDouble(String)}.
+ *
+ * Other numbers, for e.g. those having an exponent, and <code>NaN</code> are
+ * parsed by {@linkplain Double#parseDouble(String)}.
+ *
+ * @author Rahul Bakale
+ * @since Nov, 2014
+ */
+final class DecimalParser {
+
+	private static final int MAX_FAST_PATH_DIGITS = 15;
+
+	/**
+	 * Powers of 10 that are exactly representable as doubles.
+	 */
+	private static final double[] POWERS_OF_TEN = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+			1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20,
+			1e21, 1e22 };
+
+	/**
+	 * Parses the characters of <code>text</code> from <code>start</code>
+	 * (inclusive) to <code>end</code> (exclusive).
+	 *
+	 * @throws NumberFormatException
+	 *             same as {@linkplain Double#parseDouble(String)}
+	 */
+	static double parse(final CharSequence text, final int start, final int end) {
+
+		int i = start;
+		boolean negative = false;
+
+		if (i < end) {
+			final char first = text.charAt(i);
+			if (first == '-') {
+				negative = true;
+				i++;
+			} else if (first == '+') {
+				i++;
+			}
+		}
+
+		long significand = 0;
+		int significantDigits = 0;
+		int fractionDigits = 0;
+		boolean hasDigits = false;
+		boolean hasPoint = false;
+
+		for (; i < end; i++) {
+
+			final char ch = text.charAt(i);
+
+			if ((ch >= '0') && (ch <= '9')) {
+
+				hasDigits = true;
+
+				if ((significantDigits > 0) || (ch != '0')) {
+
+					if (significantDigits == MAX_FAST_PATH_DIGITS) {
+						return parseSlow(text, start, end);
+					}
+
+					significand = (significand * 10) + (ch - '0');
+					significantDigits++;
+				}
+
+				if (hasPoint) {
+					fractionDigits++;
+				}
+
+			} else if ((ch == '.') && !hasPoint) {
+				hasPoint = true;
+
+			} else {
+				return parseSlow(text, start, end);
+			}
+		}
+
+		if (!hasDigits || (fractionDigits >= POWERS_OF_TEN.length)) {
+			return parseSlow(text, start, end);
+		}
+
+		final double value = significand / POWERS_OF_TEN[fractionDigits];
+
+		return negative ? -value : value;
+	}
+
+	private static double parseSlow(final CharSequence text, final int start, final int end) {
+		return Double.parseDouble(text.subSequence(start, end).toString());
+	}
+
+	private DecimalParser() {
+		//
+	}
+}
@@ -0,0 +1,238 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.util.TimeZone;
+
+/**
+ * Parses lines made of fields separated by a delimiter character, for e.g.
+ * tab or pipe separated lines. The fields holding the timestamp, the event
+ * name and the latency are identified by their (zero based) column index.
+ *
+ * A line is split in a single pass, without using regular expressions. Spaces
+ * around the fields are ignored.
+ *
+ * Thread-safe.
+ *
+ * @author Rahul Bakale
+ * @since Nov, 2014
+ */
+public final class DelimitedRecordParser extends RecordParser {
+
+	public static RecordParser create(	final String ignorePattern,
+										final char delimiter,
+										final int timestampColumn,
+										final int eventNameColumn,
+										final int latencyColumn,
+										final String timestampPattern,
+										final TimeZone timeZone) {
+
+		return new DelimitedRecordParser(ignorePattern, delimiter, timestampColumn, eventNameColumn, latencyColumn, timestampPattern, timeZone);
+	}
+
+	/**
+	 * Provides parser <code>delimited</code>.
+	 */
+	public static final class Provider implements RecordParserProvider {
+
+		@Override
+		public String getName() {
+			return "delimited";
+		}
+
+		@Override
+		public String[] getOptionNames() {
+			return new String[] { "ignorePattern", "delimiter", "columns", "timestampPattern", "inputTimeZone" };
+		}
+
+		@Override
+		public RecordParser create(final Options options) throws BadOptionsException {
+
+			final String ignorePattern = options.getOptional("ignorePattern", String.class, null);
+			final String timestampPattern = options.getMandatory("timestampPattern", String.class);
+			final TimeZone inputTimeZone = options.getOptional("inputTimeZone", TimeZone.class, TimeZone.getDefault());
+			final String delimiterStr = options.getMandatory("delimiter", String.class);
+			final char delimiter;
+
+			if ("\\t".equals(delimiterStr)) {
+				delimiter = '\t';
+			} else if (delimiterStr.length() == 1) {
+				delimiter = delimiterStr.charAt(0);
+			} else {
+				throw BadOptionsException.illegalValue("delimiter", "Must be a single character or \\t.", null);
+			}
+
+			final int[] columns = options.getMandatory("columns", int[].class);
+			if (columns.length != 3) {
+				throw BadOptionsException.illegalValue("columns", "Must specify columns of timestamp, event name and latency, in that order.", null);
+			}
+
+			try {
+				return DelimitedRecordParser.create(ignorePattern, delimiter, columns[0], columns[1], columns[2], timestampPattern, inputTimeZone);
+			} catch (final IllegalArgumentException e) {
+				throw BadOptionsException.illegalValue("columns", e.getMessage(), e);
+			}
+		}
+	}
+
+	private final PrefilteredPattern ignorePattern;
+	private final char delimiter;
+	private final int timestampColumn;
+	private final int eventNameColumn;
+	private final int latencyColumn;
+	private final int lastColumn;
+
+	private final TimestampParser timestampParser;
+
+	private DelimitedRecordParser(	final String ignorePattern,
+									final char delimiter,
+									final int timestampColumn,
+									final int eventNameColumn,
+									final int latencyColumn,
+									final String timestampPattern,
+									final TimeZone timeZone) {
+
+		if ((timestampColumn < 0) || (eventNameColumn < 0) || (latencyColumn < 0)) {
+			throw new IllegalArgumentException("Column index can not be negative. Timestamp column = <" + timestampColumn + ">, event name column = <"
+					+ eventNameColumn + ">, latency column = <" + latencyColumn + ">");
+		}
+
+		this.ignorePattern = ignorePattern == null ? null : PrefilteredPattern.compile(ignorePattern);
+		this.delimiter = delimiter;
+		this.timestampColumn = timestampColumn;
+		this.eventNameColumn = eventNameColumn;
+		this.latencyColumn = latencyColumn;
+		this.lastColumn = Math.max(timestampColumn, Math.max(eventNameColumn, latencyColumn));
+
+		this.timestampParser = TimestampParser.create(timestampPattern, timeZone);
+	}
+
+	@Override
+	protected final boolean isIgnore(final String line) {
+		return isIgnore((CharSequence) line);
+	}
+
+	@Override
+	protected final Record parse(final String line) {
+		return parse((CharSequence) line);
+	}
+
+	@Override
+	protected final boolean isIgnore(final CharSequence line) {
+		final PrefilteredPattern pattern = this.ignorePattern;
+		return pattern != null && pattern.matches(line);
+	}
+
+	@Override
+	protected final Record parse(final CharSequence line) {
+		return RecordBatch.parseRecord(this, line);
+	}
+
+	@Override
+	protected final boolean isThreadSafe() {
+		return true;
+	}
+
+	@Override
+	protected final void parse(final CharSequence line, final RecordBatch batch) {
+
+		final char delimiter = this.delimiter;
+		final int lastColumn = this.lastColumn;
+		final int length = line.length();
+
+		// start and end of the fields of interest
+		int tsStart = -1, tsEnd = -1;
+		int enStart = -1, enEnd = -1;
+		int lStart = -1, lEnd = -1;
+
+		int column = 0;
+		int fieldStart = 0;
+		boolean lastColumnFound = false;
+
+		for (int i = 0; i <= length; i++) {
+
+			if ((i == length) || (line.charAt(i) == delimiter)) {
+
+				if (column == this.timestampColumn) {
+					tsStart = fieldStart;
+					tsEnd = i;
+				}
+
+				if (column == this.eventNameColumn) {
+					enStart = fieldStart;
+					enEnd = i;
+				}
+
+				if (column == this.latencyColumn) {
+					lStart = fieldStart;
+					lEnd = i;
+				}
+
+				if (column == lastColumn) {
+					lastColumnFound = true;
+					break;
+				}
+
+				column++;
+				fieldStart = i + 1;
+			}
+		}
+
+		if (!lastColumnFound) {
+			throw new RecordParseException(line, RecordParseException.TOO_FEW_COLUMNS, null);
+		}
+
+		final long timestamp;
+		try {
+			timestamp = this.timestampParser.parse(line, trimStart(line, tsStart, tsEnd), trimEnd(line, tsStart, tsEnd));
+		} catch (final RuntimeException e) {
+			throw new RecordParseException(line, RecordParseException.INVALID_TIMESTAMP, e);
+		}
+
+		final double latency;
+		try {
+			latency = RecordBatch.checkLatency(DecimalParser.parse(line, trimStart(line, lStart, lEnd), trimEnd(line, lStart, lEnd)));
+		} catch (final RuntimeException e) {
+			throw new RecordParseException(line, RecordParseException.INVALID_LATENCY, e);
+		}
+
+		batch.add(line, trimStart(line, enStart, enEnd), trimEnd(line, enStart, enEnd), timestamp, latency);
+	}
+
+	private static int trimStart(final CharSequence line, final int start, final int end) {
+
+		int s = start;
+
+		while ((s < end) && (line.charAt(s) == ' ')) {
+			s++;
+		}
+
+		return s;
+	}
+
+	private static int trimEnd(final CharSequence line, final int start, final int end) {
+
+		int e = end;
+
+		while ((e > start) && (line.charAt(e - 1) == ' ')) {
+			e--;
+		}
+
+		return e;
+	}
+}
@@ -0,0 +1,473 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Latency samples grouped by event. The samples of an event are held in
+ * {@linkplain LatencySamples}, or, in bucketed and sketch modes, only their
+ * {@linkplain LatencyBuckets buckets} are, so that the memory used does not
+ * depend on the number of samples.
+ *
+ * Events are identified by the ids assigned to their names by an
+ * {@linkplain EventNameDictionary}. The names are looked up only when the data
+ * is viewed {@linkplain #asMap() by name}, for e.g. to render the report.
+ *
+ * Not thread-safe. When records are ingested concurrently, each thread fills
+ * its own {@linkplain #newEmpty() instance} and the partial results are
+ * combined using {@linkplain #merge(EventLatencyData)}.
+ *
+ * @author Rahul Bakale
+ * @since Nov, 2014
+ */
+final class EventLatencyData {
+
+	private final EventNameDictionary eventNames;
+
+	/**
+	 * Samples by event id. An element is <code>null</code> if there are no
+	 * samples of the event. Empty in bucketed and sketch modes.
+	 */
+	private final List<LatencySamples> samplesByEventId;
+
+	/**
+	 * Buckets by event id, in bucketed and sketch modes. An element is
+	 * <code>null</code> if there are no samples of the event.
+	 */
+	private final List<LatencyBuckets> bucketsByEventId;
+
+	/**
+	 * Significant digits of the buckets in bucketed mode, else 0.
+	 */
+	private final int significantDigits;
+
+	/**
+	 * Size of the quantile sketches of the buckets in sketch mode, else 0.
+	 */
+	private final int sketchSize;
+
+	/**
+	 * If not <code>null</code>, only the samples in this range are added.
+	 */
+	private final TimeRange timeRange;
+
+	/**
+	 * Holds the samples.
+	 */
+	EventLatencyData() {
+		this(0, 0, null);
+	}
+
+	/**
+	 * Holds the samples that are in <code>timeRange</code>. Samples outside
+	 * it are not added, so that they do not take memory till they are
+	 * {@linkplain #subRange(TimeRange) removed}.
+	 */
+	EventLatencyData(final TimeRange timeRange) {
+		this(0, 0, timeRange);
+	}
+
+	/**
+	 * Holds only the buckets of the samples.
+	 * 
+	 * @param timeRange
+	 *            if not <code>null</code>, samples outside it are not added,
+	 *            since they can not be {@linkplain #subRange(TimeRange)
+	 *            removed} later
+	 */
+	EventLatencyData(final int significantDigits, final TimeRange timeRange) {
+		this(significantDigits, 0, timeRange);
+	}
+
+	/**
+	 * Holds only the buckets of the samples, with a quantile sketch of size
+	 * <code>sketchSize</code> instead of a histogram of all the latencies. See
+	 * {@linkplain LatencyBuckets}.
+	 * 
+	 * @param timeRange
+	 *            same as in {@linkplain #EventLatencyData(int, TimeRange)}
+	 */
+	static EventLatencyData withSketches(final int sketchSize, final TimeRange timeRange) {
+		return new EventLatencyData(0, sketchSize, timeRange);
+	}
+
+	private EventLatencyData(final int significantDigits, final int sketchSize, final TimeRange timeRange) {
+		this.eventNames = new EventNameDictionary();
+		this.samplesByEventId = new ArrayList<>();
+		this.bucketsByEventId = new ArrayList<>();
+		this.significantDigits = significantDigits;
+		this.sketchSize = sketchSize;
+		this.timeRange = timeRange;
+	}
+
+	/**
+	 * @return new empty instance that holds the samples in the same way as
+	 *         this one
+	 */
+	EventLatencyData newEmpty() {
+		return new EventLatencyData(this.significantDigits, this.sketchSize, this.timeRange);
+	}
+
+	/**
+	 * @return <code>true</code> in bucketed and sketch modes, i.e. if the
+	 *         samples are not held
+	 */
+	boolean isBucketed() {
+		return (this.significantDigits != 0) || (this.sketchSize != 0);
+	}
+
+	/**
+	 * @return the range outside which samples are not added, or
+	 *         <code>null</code> if all the samples are added
+	 */
+	TimeRange getTimeRange() {
+		return this.timeRange;
+	}
+
+	/**
+	 * @return significant digits of the buckets in bucketed mode, else 0
+	 */
+	int getSignificantDigits() {
+		return this.significantDigits;
+	}
+
+	/**
+	 * @return size of the quantile sketches in sketch mode, else 0
+	 */
+	int getSketchSize() {
+		return this.sketchSize;
+	}
+
+	/**
+	 * @return a batch that shares the event ids of this instance, and hence is
+	 *         added to it without translating the ids
+	 */
+	RecordBatch newBatch() {
+		return new RecordBatch(this.eventNames);
+	}
+
+	void add(final Record record) {
+		add(record.getEventName(), record.getTimestamp(), record.getLatency());
+	}
+
+	void add(final String eventName, final long timestamp, final double latency) {
+
+		final int eventId = this.eventNames.idOf(eventName);
+
+		if ((this.timeRange != null) && !this.timeRange.contains(timestamp)) {
+			return;
+		}
+
+		if (!isBucketed()) {
+			samples(eventId).add(timestamp, latency);
+		} else {
+			buckets(eventId).add(timestamp, latency);
+		}
+	}
+
+	/**
+	 * Adds the samples of <code>buckets</code> to those of the event, in
+	 * bucketed and sketch modes. The samples are not checked against the time
+	 * range.
+	 */
+	void add(final String eventName, final LatencyBuckets buckets) {
+		buckets(this.eventNames.idOf(eventName)).addAll(buckets);
+	}
+
+	/**
+	 * Adds all the records of <code>batch</code>. If the batch does not share
+	 * the event ids of this instance, each event id of the batch is translated
+	 * only once per call.
+	 */
+	void add(final RecordBatch batch) {
+
+		final int size = batch.size();
+		if (size == 0) {
+			return;
+		}
+
+		if (isBucketed()) {
+			addToBuckets(batch);
+			return;
+		}
+
+		final long[] timestamps = batch.timestamps();
+		final double[] latencies = batch.latencies();
+		final int[] eventIds = batch.eventIds();
+
+		final EventNameDictionary batchEventNames = batch.eventNames();
+
+		final LatencySamples[] samplesByBatchEventId = new LatencySamples[batchEventNames.size()];
+
+		final boolean sameIds = (batchEventNames == this.eventNames);
+		final TimeRange timeRange = this.timeRange;
+
+		for (int i = 0; i < size; i++) {
+
+			final long timestamp = timestamps[i];
+
+			if ((timeRange != null) && !timeRange.contains(timestamp)) {
+				continue;
+			}
+
+			final int eventId = eventIds[i];
+
+			LatencySamples samples = samplesByBatchEventId[eventId];
+			if (samples == null) {
+				samples = samples(sameIds ? eventId : this.eventNames.idOf(batchEventNames.name(eventId)));
+				samplesByBatchEventId[eventId] = samples;
+			}
+
+			samples.add(timestamp, latencies[i]);
+		}
+	}
+
+	private void addToBuckets(final RecordBatch batch) {
+
+		final int size = batch.size();
+		final long[] timestamps = batch.timestamps();
+		final double[] latencies = batch.latencies();
+		final int[] eventIds = batch.eventIds();
+
+		final EventNameDictionary batchEventNames = batch.eventNames();
+
+		final LatencyBuckets[] bucketsByBatchEventId = new LatencyBuckets[batchEventNames.size()];
+
+		final boolean sameIds = (batchEventNames == this.eventNames);
+		final TimeRange timeRange = this.timeRange;
+
+		for (int i = 0; i < size; i++) {
+
+			final long timestamp = timestamps[i];
+
+			if ((timeRange != null) && !timeRange.contains(timestamp)) {
+				continue;
+			}
+
+			final int eventId = eventIds[i];
+
+			LatencyBuckets buckets = bucketsByBatchEventId[eventId];
+			if (buckets == null) {
+				buckets = buckets(sameIds ? eventId : this.eventNames.idOf(batchEventNames.name(eventId)));
+				bucketsByBatchEventId[eventId] = buckets;
+			}
+
+			buckets.add(timestamp, latencies[i]);
+		}
+	}
+
+	/**
+	 * @return samples of the event, created if needed
+	 */
+	private LatencySamples samples(final int eventId) {
+
+		final List<LatencySamples> samplesByEventId = this.samplesByEventId;
+
+		while (samplesByEventId.size() <= eventId) {
+			samplesByEventId.add(null);
+		}
+
+		LatencySamples samples = samplesByEventId.get(eventId);
+		if (samples == null) {
+			samples = new LatencySamples();
+			samplesByEventId.set(eventId, samples);
+		}
+
+		return samples;
+	}
+
+	/**
+	 * @return buckets of the event, created if needed
+	 */
+	private LatencyBuckets buckets(final int eventId) {
+
+		final List<LatencyBuckets> bucketsByEventId = this.bucketsByEventId;
+
+		while (bucketsByEventId.size() <= eventId) {
+			bucketsByEventId.add(null);
+		}
+
+		LatencyBuckets buckets = bucketsByEventId.get(eventId);
+		if (buckets == null) {
+			buckets = (this.sketchSize == 0) ? new LatencyBuckets(this.significantDigits) : LatencyBuckets.withSketch(this.sketchSize);
+			bucketsByEventId.set(eventId, buckets);
+		}
+
+		return buckets;
+	}
+
+	/**
+	 * Moves all samples of <code>other</code>, which must hold the samples in
+	 * the same way, into this instance.
+	 */
+	void merge(final EventLatencyData other) {
+
+		if ((other.significantDigits != this.significantDigits) || (other.sketchSize != this.sketchSize)) {
+			throw new IllegalArgumentException("significantDigits = <" + this.significantDigits + ">, sketchSize = <" + this.sketchSize + ">, other = <"
+					+ other.significantDigits + ", " + other.sketchSize + ">");
+		}
+
+		final List<LatencySamples> otherSamplesByEventId = other.samplesByEventId;
+
+		for (int otherId = 0; otherId < otherSamplesByEventId.size(); otherId++) {
+
+			final LatencySamples otherSamples = otherSamplesByEventId.get(otherId);
+			if (otherSamples == null) {
+				continue;
+			}
+
+			final int eventId = this.eventNames.idOf(other.eventNames.name(otherId));
+
+			while (this.samplesByEventId.size() <= eventId) {
+				this.samplesByEventId.add(null);
+			}
+
+			final LatencySamples samples = this.samplesByEventId.get(eventId);
+			if (samples == null) {
+				this.samplesByEventId.set(eventId, otherSamples);
+			} else {
+				samples.moveAll(otherSamples);
+			}
+		}
+
+		otherSamplesByEventId.clear();
+
+		final List<LatencyBuckets> otherBucketsByEventId = other.bucketsByEventId;
+
+		for (int otherId = 0; otherId < otherBucketsByEventId.size(); otherId++) {
+
+			final LatencyBuckets otherBuckets = otherBucketsByEventId.get(otherId);
+			if (otherBuckets != null) {
+				buckets(this.eventNames.idOf(other.eventNames.name(otherId))).addAll(otherBuckets);
+			}
+		}
+
+		otherBucketsByEventId.clear();
+	}
+
+	/**
+	 * @return new instance having only the samples of this instance whose
+	 *         timestamps are in <code>timeRange</code>. Events having no such
+	 *         samples are left out.
+	 * @throws IllegalStateException
+	 *             in bucketed and sketch modes, since the samples are not held
+	 */
+	EventLatencyData subRange(final TimeRange timeRange) {
+
+		if (isBucketed()) {
+			throw new IllegalStateException("Samples are not held in bucketed and sketch modes");
+		}
+
+		final EventLatencyData result = new EventLatencyData();
+
+		for (int eventId = 0; eventId < this.samplesByEventId.size(); eventId++) {
+
+			final LatencySamples samples = this.samplesByEventId.get(eventId);
+			if (samples == null) {
+				continue;
+			}
+
+			LatencySamples resultSamples = null;
+
+			for (int chunk = 0, n = samples.chunkCount(); chunk < n; chunk++) {
+
+				final long[] timestamps = samples.timestampChunk(chunk);
+				final double[] latencies = samples.latencyChunk(chunk);
+
+				for (int i = 0, len = samples.chunkSize(chunk); i < len; i++) {
+
+					final long timestamp = timestamps[i];
+
+					if (timeRange.contains(timestamp)) {
+
+						if (resultSamples == null) {
+							resultSamples = result.samples(result.eventNames.idOf(this.eventNames.name(eventId)));
+						}
+
+						resultSamples.add(timestamp, latencies[i]);
+					}
+				}
+			}
+		}
+
+		return result;
+	}
+
+	boolean isEmpty() {
+
+		for (final LatencySamples samples : this.samplesByEventId) {
+			if (samples != null) {
+				return false;
+			}
+		}
+
+		for (final LatencyBuckets buckets : this.bucketsByEventId) {
+			if (buckets != null) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return unmodifiable map, sorted by event name. The samples are not
+	 *         copied, hence must not be modified.
+	 */
+	Map<String, LatencySamples> asMap() {
+
+		final Map<String, LatencySamples> map = new TreeMap<>();
+
+		for (int eventId = 0; eventId < this.samplesByEventId.size(); eventId++) {
+
+			final LatencySamples samples = this.samplesByEventId.get(eventId);
+
+			if (samples != null) {
+				map.put(this.eventNames.name(eventId), samples);
+			}
+		}
+
+		return Collections.unmodifiableMap(map);
+	}
+
+	/**
+	 * @return unmodifiable map, sorted by event name, of the buckets held in
+	 *         bucketed and sketch modes. The buckets are not copied, hence must
+	 *         not be modified.
+	 */
+	Map<String, LatencyBuckets> asBucketsMap() {
+
+		final Map<String, LatencyBuckets> map = new TreeMap<>();
+
+		for (int eventId = 0; eventId < this.bucketsByEventId.size(); eventId++) {
+
+			final LatencyBuckets buckets = this.bucketsByEventId.get(eventId);
+
+			if (buckets != null) {
+				map.put(this.eventNames.name(eventId), buckets);
+			}
+		}
+
+		return Collections.unmodifiableMap(map);
+	}
+}
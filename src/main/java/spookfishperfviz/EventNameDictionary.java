@@ -0,0 +1,191 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.util.Arrays;
+
+/**
+ * Assigns small integer ids to event names, in the order the names are first
+ * seen, starting from 0.
+ *
+ * A name can be looked up by a range of characters of a line, for e.g. the
+ * characters matched by a group of a regular expression. A {@linkplain String}
+ * is created only the first time a name is seen, hence looking up a known
+ * name does not allocate anything.
+ *
+ * Names are held in an open addressing hash table, with linear probing. The
+ * hash of a name is same as {@linkplain String#hashCode()}.
+ *
+ * Not thread-safe.
+ *
+ * @author Rahul Bakale
+ * @since Nov, 2014
+ */
+final class EventNameDictionary {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * Names by id.
+	 */
+	private String[] names;
+
+	/**
+	 * Hashes of the names, by id.
+	 */
+	private int[] hashes;
+
+	private int size;
+
+	/**
+	 * Hash table of <code>id + 1</code>. 0 denotes an empty slot. Length is a
+	 * power of 2 and at least twice the number of names.
+	 */
+	private int[] table;
+
+	EventNameDictionary() {
+		this.names = new String[INITIAL_CAPACITY];
+		this.hashes = new int[INITIAL_CAPACITY];
+		this.table = new int[INITIAL_CAPACITY * 2];
+	}
+
+	int idOf(final CharSequence name) {
+		return idOf(name, 0, name.length());
+	}
+
+	/**
+	 * @return id of the name made of the characters of <code>text</code>
+	 *         from <code>start</code> (inclusive) to <code>end</code>
+	 *         (exclusive). If the name has not been seen before, a new id is
+	 *         assigned to it.
+	 */
+	int idOf(final CharSequence text, final int start, final int end) {
+
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = (31 * hash) + text.charAt(i);
+		}
+
+		final int[] table = this.table;
+		final int mask = table.length - 1;
+
+		int slot = spread(hash) & mask;
+
+		while (true) {
+
+			final int entry = table[slot];
+
+			if (entry == 0) {
+				return add(text.subSequence(start, end).toString(), hash, slot);
+			}
+
+			final int id = entry - 1;
+
+			if ((this.hashes[id] == hash) && regionEquals(this.names[id], text, start, end)) {
+				return id;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * @throws IndexOutOfBoundsException
+	 *             if no name has the id
+	 */
+	String name(final int id) {
+
+		if ((id < 0) || (id >= this.size)) {
+			throw new IndexOutOfBoundsException("id = <" + id + ">, size = <" + this.size + ">");
+		}
+
+		return this.names[id];
+	}
+
+	/**
+	 * @return number of names. Ids are from 0 to one less than this number.
+	 */
+	int size() {
+		return this.size;
+	}
+
+	private int add(final String name, final int hash, final int slot) {
+
+		final int id = this.size;
+
+		if (id == this.names.length) {
+			this.names = Arrays.copyOf(this.names, id * 2);
+			this.hashes = Arrays.copyOf(this.hashes, id * 2);
+		}
+
+		this.names[id] = name;
+		this.hashes[id] = hash;
+		this.table[slot] = id + 1;
+		this.size = id + 1;
+
+		if ((this.size * 2) > this.table.length) {
+			rehash(this.table.length * 2);
+		}
+
+		return id;
+	}
+
+	private void rehash(final int capacity) {
+
+		final int[] table = new int[capacity];
+		final int mask = capacity - 1;
+
+		for (int id = 0; id < this.size; id++) {
+
+			int slot = spread(this.hashes[id]) & mask;
+
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+
+			table[slot] = id + 1;
+		}
+
+		this.table = table;
+	}
+
+	/**
+	 * Spreads the higher bits of the hash to the lower bits, which are used
+	 * to select the slot.
+	 */
+	private static int spread(final int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	private static boolean regionEquals(final String name, final CharSequence text, final int start, final int end) {
+
+		final int len = end - start;
+
+		if (name.length() != len) {
+			return false;
+		}
+
+		for (int i = 0; i < len; i++) {
+			if (name.charAt(i) != text.charAt(start + i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Parses a file that is still being written, a bit at a time, like
+ * <code>tail -f</code>.
+ *
+ * The follower remembers the offset up to which the file has been parsed. Each
+ * {@linkplain #poll(EventLatencyData) poll} parses only the lines appended
+ * since the previous one. A line is parsed only once it is complete, i.e.
+ * once its <code>\n</code>, <code>\r\n</code> or <code>\r</code> has been
+ * written. A line that ends with a <code>\r</code> at the end of the file is
+ * taken to be complete only once more data is written, since the
+ * <code>\r</code> may be followed by a <code>\n</code>.
+ *
+ * If the file shrinks or is replaced by another file (for e.g. when it is
+ * rotated), it is parsed again from the beginning. The records parsed earlier
+ * are retained.
+ *
+ * Not thread-safe.
+ *
+ * @author Rahul Bakale
+ * @since Nov, 2014
+ */
+final class FileFollower {
+
+	private static final byte LF = '\n';
+	private static final byte CR = '\r';
+
+	private final Path file;
+	private final RecordParser parser;
+	private final int threadCount;
+	private final BadLineCollector badLines;
+
+	private long offset;
+	private Object fileKey;
+
+	/**
+	 * @param threadCount
+	 *            number of threads used to parse the data available in a poll
+	 * @param badLines
+	 *            may be <code>null</code>
+	 */
+	FileFollower(final Path file, final RecordParser parser, final int threadCount, final BadLineCollector badLines) {
+		this(file, parser, threadCount, badLines, 0);
+	}
+
+	/**
+	 * @param offset
+	 *            offset, at the start of a line, from which to start parsing
+	 */
+	FileFollower(final Path file, final RecordParser parser, final int threadCount, final BadLineCollector badLines, final long offset) {
+		this.file = file;
+		this.parser = parser;
+		this.threadCount = threadCount;
+		this.badLines = badLines;
+		this.offset = offset;
+	}
+
+	/**
+	 * Parses the complete lines appended to the file since the last poll and
+	 * adds their records to <code>data</code>.
+	 *
+	 * @return number of bytes parsed
+	 */
+	long poll(final EventLatencyData data) throws IOException {
+
+		final Path file = this.file;
+
+		final long start;
+		final long end;
+
+		try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);) {
+
+			final Object fileKey = Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+			final long size = channel.size();
+
+			if ((size < this.offset) || ((this.fileKey != null) && !this.fileKey.equals(fileKey))) {
+				System.out.println("File <" + file + "> has been truncated or replaced, hence it will be read again from the beginning.");
+				this.offset = 0;
+			}
+
+			this.fileKey = fileKey;
+
+			start = this.offset;
+			end = findLastLineEnd(channel, start, size);
+		}
+
+		if (end <= start) {
+			return 0;
+		}
+
+		ParallelFileIngester.ingest(file, start, end, this.parser, this.threadCount, this.badLines, data);
+
+		this.offset = end;
+
+		return end - start;
+	}
+
+	/**
+	 * Parses the last line of the file, if it is not yet complete, and adds
+	 * its record to <code>data</code>. Does not change the offset, hence the
+	 * line is parsed again, once complete, by the next
+	 * {@linkplain #poll(EventLatencyData) poll}.
+	 *
+	 * A line that is still being written may not be parseable yet. Such a
+	 * line is skipped, and is not reported as a bad line.
+	 *
+	 * @return <code>false</code> if there is an incomplete line and it could
+	 *         not be parsed
+	 */
+	boolean pollIncompleteLine(final EventLatencyData data) throws IOException {
+
+		final long size;
+		try (final FileChannel channel = FileChannel.open(this.file, StandardOpenOption.READ);) {
+			size = channel.size();
+		}
+
+		if (size > this.offset) {
+			try {
+				ParallelFileIngester.ingest(this.file, this.offset, size, this.parser, 1, null, data);
+			} catch (final RuntimeException e) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return offset just after the last complete line parsed
+	 */
+	long getOffset() {
+		return this.offset;
+	}
+
+	/**
+	 * @return position just after the last line separator between
+	 *         <code>from</code> and <code>to</code>, or <code>from</code> if
+	 *         there is none. A <code>\r</code> at <code>to - 1</code> is not
+	 *         taken to be a line separator.
+	 */
+	private static long findLastLineEnd(final FileChannel channel, final long from, final long to) throws IOException {
+
+		final ByteBuffer buf = ByteBuffer.allocate(8192);
+
+		long pos = to;
+
+		while (pos > from) {
+
+			final int len = (int) Math.min(buf.capacity(), pos - from);
+			final long blockStart = pos - len;
+
+			buf.clear();
+			buf.limit(len);
+
+			int n = 0;
+			while (n < len) {
+				final int r = channel.read(buf, blockStart + n);
+				if (r < 0) {
+					break;
+				}
+				n += r;
+			}
+
+			for (int i = n - 1; i >= 0; i--) {
+
+				final byte b = buf.get(i);
+
+				if ((b == LF) || ((b == CR) && ((blockStart + i + 1) < to))) {
+					return blockStart + i + 1;
+				}
+			}
+
+			pos = blockStart;
+		}
+
+		return from;
+	}
+}
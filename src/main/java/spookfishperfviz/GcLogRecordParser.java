@@ -0,0 +1,479 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses the GC pauses logged by the unified logging of the JVM
+ * (<code>-Xlog:gc</code>, JDK 9 and later), for e.g.
+ * 
+ * <pre>
+ * [2014-11-02T10:15:32.123+0530][12.345s][info][gc] GC(7) Pause Young (Normal) (G1 Evacuation Pause) 24M-&gt;4M(256M) 3.456ms
+ * </pre>
+ * 
+ * <ul>
+ * <li>The event name is the type of the pause, for e.g.
+ * <code>Pause Young (Normal)</code>. The last parenthesized part, which is the
+ * cause of the pause, for e.g. <code>(G1 Evacuation Pause)</code> or
+ * <code>(Allocation Failure)</code>, is left out.</li>
+ * <li>The latency is the duration of the pause, in milliseconds.</li>
+ * <li>The timestamp is taken from the <code>time</code> or
+ * <code>utctime</code> decoration if present. Else from the
+ * <code>timemillis</code> decoration, or from the <code>uptime</code>,
+ * <code>uptimemillis</code> or <code>uptimenanos</code> decoration, added
+ * to the start time of the JVM. A decoration in milliseconds is taken as
+ * <code>timemillis</code> if it is more than
+ * {@linkplain #MIN_TIME_MILLIS}.</li>
+ * </ul>
+ * 
+ * Lines other than those of pauses, for e.g. those of the start of a pause,
+ * of concurrent phases or of heap usage, are ignored.
+ * 
+ * Thread-safe.
+ * 
+ * @author Rahul Bakale
+ * @since Nov, 2014
+ */
+public final class GcLogRecordParser extends RecordParser {
+
+	/**
+	 * @param jvmStartTime
+	 *            start time of the JVM, in milliseconds since epoch. Added to
+	 *            uptime decorations.
+	 */
+	public static RecordParser create(final String ignorePattern, final long jvmStartTime) {
+		return new GcLogRecordParser(ignorePattern, jvmStartTime);
+	}
+
+	/**
+	 * Provides parser <code>gc</code>.
+	 */
+	public static final class Provider implements RecordParserProvider {
+
+		@Override
+		public String getName() {
+			return "gc";
+		}
+
+		@Override
+		public String[] getOptionNames() {
+			return new String[] { "ignorePattern", "jvmStartTime", "inputTimeZone" };
+		}
+
+		@Override
+		public RecordParser create(final Options options) throws BadOptionsException {
+
+			final String ignorePattern = options.getOptional("ignorePattern", String.class, null);
+			final TimeZone inputTimeZone = options.getOptional("inputTimeZone", TimeZone.class, TimeZone.getDefault());
+			final Long jvmStartTime = options.getOptionalTime("jvmStartTime", inputTimeZone);
+
+			return GcLogRecordParser.create(ignorePattern, jvmStartTime == null ? 0 : jvmStartTime.longValue());
+		}
+	}
+
+	private static final String PAUSE = "Pause ";
+	private static final String GC_ID = "GC(";
+	private static final String MILLIS_SUFFIX = "ms";
+
+	/**
+	 * 1973-03-03. A <code>ms</code> decoration of more than this is taken as
+	 * time since epoch and not as uptime, since JVMs do not run that long.
+	 */
+	private static final long MIN_TIME_MILLIS = 100000000000L;
+
+	private static final long MILLIS_IN_A_DAY = TimeUnit.DAYS.toMillis(1);
+
+	private final PrefilteredPattern ignorePattern;
+	private final long jvmStartTime;
+
+	private GcLogRecordParser(final String ignorePattern, final long jvmStartTime) {
+		this.ignorePattern = ignorePattern == null ? null : PrefilteredPattern.compile(ignorePattern);
+		this.jvmStartTime = jvmStartTime;
+	}
+
+	@Override
+	protected final boolean isIgnore(final String line) {
+		return isIgnore((CharSequence) line);
+	}
+
+	@Override
+	protected final Record parse(final String line) {
+		return parse((CharSequence) line);
+	}
+
+	@Override
+	protected final boolean isIgnore(final CharSequence line) {
+
+		final PrefilteredPattern pattern = this.ignorePattern;
+
+		if ((pattern != null) && pattern.matches(line)) {
+			return true;
+		}
+
+		final int end = trimEnd(line);
+
+		return (findPause(line) < 0) || !endsWithMillis(line, end);
+	}
+
+	@Override
+	protected final Record parse(final CharSequence line) {
+		return RecordBatch.parseRecord(this, line);
+	}
+
+	@Override
+	protected final boolean isThreadSafe() {
+		return true;
+	}
+
+	@Override
+	protected final void parse(final CharSequence line, final RecordBatch batch) {
+
+		final int pauseStart = findPause(line);
+		final int end = trimEnd(line);
+
+		if ((pauseStart < 0) || !endsWithMillis(line, end)) {
+			throw new RecordParseException(line, RecordParseException.MALFORMED_LINE, null);
+		}
+
+		final long timestamp;
+		try {
+			timestamp = parseDecorations(line, pauseStart);
+		} catch (final RuntimeException e) {
+			throw new RecordParseException(line, RecordParseException.INVALID_TIMESTAMP, e);
+		}
+
+		// duration is the last word
+		int durationStart = end;
+		while ((durationStart > pauseStart) && (line.charAt(durationStart - 1) != ' ')) {
+			durationStart--;
+		}
+
+		final double latency;
+		try {
+			latency = RecordBatch.checkLatency(DecimalParser.parse(line, durationStart, end - MILLIS_SUFFIX.length()));
+		} catch (final RuntimeException e) {
+			throw new RecordParseException(line, RecordParseException.INVALID_LATENCY, e);
+		}
+
+		batch.add(line, pauseStart, pauseTypeEnd(line, pauseStart, durationStart), timestamp, latency);
+	}
+
+	/**
+	 * @return start of <code>Pause </code> in the message, which follows the
+	 *         decorations and an optional GC id, or -1 if the message is not
+	 *         of a pause
+	 */
+	private static int findPause(final CharSequence line) {
+
+		final int length = line.length();
+
+		int i = 0;
+
+		// decorations
+		while ((i < length) && (line.charAt(i) == '[')) {
+			i = indexOf(line, ']', i, length) + 1;
+		}
+
+		i = skipSpaces(line, i);
+
+		if (startsWith(line, i, GC_ID)) {
+			i = skipSpaces(line, indexOf(line, ')', i, length) + 1);
+		}
+
+		return startsWith(line, i, PAUSE) ? i : -1;
+	}
+
+	/**
+	 * @return end of the type of the pause starting at
+	 *         <code>pauseStart</code>. The type ends before the first word,
+	 *         outside parentheses, that starts with a digit, i.e. the heap
+	 *         usage or the duration. The last parenthesized part, the cause,
+	 *         is then left out.
+	 */
+	private static int pauseTypeEnd(final CharSequence line, final int pauseStart, final int limit) {
+
+		int end = limit;
+		int depth = 0;
+
+		for (int i = pauseStart; i < limit; i++) {
+
+			final char ch = line.charAt(i);
+
+			if (ch == '(') {
+				depth++;
+			} else if (ch == ')') {
+				depth--;
+			} else if ((depth == 0) && (ch >= '0') && (ch <= '9') && (line.charAt(i - 1) == ' ')) {
+				end = i;
+				break;
+			}
+		}
+
+		end = trimEnd(line, pauseStart, end);
+
+		if ((end > pauseStart) && (line.charAt(end - 1) == ')')) {
+
+			// start of the cause
+			depth = 0;
+
+			for (int i = end - 1; i > pauseStart; i--) {
+
+				final char ch = line.charAt(i);
+
+				if (ch == ')') {
+					depth++;
+				} else if (ch == '(') {
+					depth--;
+					if (depth == 0) {
+						end = trimEnd(line, pauseStart, i);
+						break;
+					}
+				}
+			}
+		}
+
+		return end;
+	}
+
+	/**
+	 * @return timestamp given by the decorations before <code>limit</code>
+	 */
+	private long parseDecorations(final CharSequence line, final int limit) {
+
+		long uptimeMillis = -1;
+
+		int i = 0;
+
+		while ((i < limit) && (line.charAt(i) == '[')) {
+
+			final int start = i + 1;
+			final int end = indexOf(line, ']', start, limit);
+
+			if (isWallClockTime(line, start, end)) {
+				return parseWallClockTime(line, start, end);
+			}
+
+			final long millis = parseDurationMillis(line, start, end);
+
+			if (millis >= MIN_TIME_MILLIS) {
+				return millis;
+			}
+
+			if ((millis >= 0) && (uptimeMillis < 0)) {
+				uptimeMillis = millis;
+			}
+
+			i = end + 1;
+		}
+
+		if (uptimeMillis < 0) {
+			throw new IllegalArgumentException("No time or uptime decoration");
+		}
+
+		return this.jvmStartTime + uptimeMillis;
+	}
+
+	private static boolean isWallClockTime(final CharSequence line, final int start, final int end) {
+		return ((end - start) >= 19) && (line.charAt(start + 4) == '-') && (line.charAt(start + 10) == 'T');
+	}
+
+	/**
+	 * Parses a time like <code>2014-11-02T10:15:32.123+0530</code>. The
+	 * offset may also be like <code>+05:30</code> or <code>Z</code>.
+	 */
+	private static long parseWallClockTime(final CharSequence text, final int start, final int end) {
+
+		final int year = TimestampParser.parseDigits(text, start, start + 4);
+		final int month = TimestampParser.parseDigits(text, start + 5, start + 7);
+		final int day = TimestampParser.parseDigits(text, start + 8, start + 10);
+		final int hour = TimestampParser.parseDigits(text, start + 11, start + 13);
+		final int minute = TimestampParser.parseDigits(text, start + 14, start + 16);
+		final int second = TimestampParser.parseDigits(text, start + 17, start + 19);
+
+		if ((year < 0) || (month < 1) || (month > 12) || (day < 1) || (day > 31) || (hour < 0) || (hour > 23) || (minute < 0) || (minute > 59)
+				|| (second < 0) || (second > 60) || (text.charAt(start + 7) != '-') || (text.charAt(start + 13) != ':')
+				|| (text.charAt(start + 16) != ':')) {
+			throw newTimeFormatException(text, start, end);
+		}
+
+		int i = start + 19;
+
+		int millis = 0;
+
+		if ((i < end) && (text.charAt(i) == '.')) {
+
+			final int fractionStart = i + 1;
+
+			i = fractionStart;
+			while ((i < end) && (text.charAt(i) >= '0') && (text.charAt(i) <= '9')) {
+				i++;
+			}
+
+			// only milliseconds are used
+			final int fractionEnd = Math.min(i, fractionStart + 3);
+			millis = TimestampParser.parseDigits(text, fractionStart, fractionEnd);
+
+			for (int k = fractionEnd - fractionStart; k < 3; k++) {
+				millis *= 10;
+			}
+		}
+
+		final long offsetMillis;
+
+		if ((i == (end - 1)) && (text.charAt(i) == 'Z')) {
+			offsetMillis = 0;
+
+		} else {
+
+			final int signIndex = i;
+
+			if ((signIndex >= end) || ((text.charAt(signIndex) != '+') && (text.charAt(signIndex) != '-'))) {
+				throw newTimeFormatException(text, start, end);
+			}
+
+			final int minutesStart = ((end - signIndex) == 6) ? signIndex + 4 : signIndex + 3;
+
+			if (((end - signIndex) != 5) && (((end - signIndex) != 6) || (text.charAt(signIndex + 3) != ':'))) {
+				throw newTimeFormatException(text, start, end);
+			}
+
+			final int offsetHours = TimestampParser.parseDigits(text, signIndex + 1, signIndex + 3);
+			final int offsetMinutes = TimestampParser.parseDigits(text, minutesStart, minutesStart + 2);
+
+			if ((offsetHours < 0) || (offsetMinutes < 0)) {
+				throw newTimeFormatException(text, start, end);
+			}
+
+			offsetMillis = ((offsetHours * 60L) + offsetMinutes) * 60000L * (text.charAt(signIndex) == '-' ? -1 : 1);
+		}
+
+		final long localMillis = (TimestampParser.daysSinceEpoch(year, month, day) * MILLIS_IN_A_DAY)
+				+ (((((hour * 60L) + minute) * 60L) + second) * 1000L) + millis;
+
+		return localMillis - offsetMillis;
+	}
+
+	/**
+	 * Parses decorations like <code>12.345s</code>, <code>12345ms</code> and
+	 * <code>12345000000ns</code>.
+	 * 
+	 * @return the duration in milliseconds, or -1 if the decoration is not a
+	 *         duration
+	 */
+	private static long parseDurationMillis(final CharSequence text, final int start, final int end) {
+
+		int digitsEnd = start;
+		while ((digitsEnd < end) && (((text.charAt(digitsEnd) >= '0') && (text.charAt(digitsEnd) <= '9')) || (text.charAt(digitsEnd) == '.'))) {
+			digitsEnd++;
+		}
+
+		if (digitsEnd == start) {
+			return -1;
+		}
+
+		final int unitLength = end - digitsEnd;
+
+		final double value;
+		try {
+			value = DecimalParser.parse(text, start, digitsEnd);
+		} catch (final NumberFormatException e) {
+			return -1;
+		}
+
+		if ((unitLength == 1) && (text.charAt(digitsEnd) == 's')) {
+			return Math.round(value * 1000);
+		}
+
+		if ((unitLength == 2) && (text.charAt(digitsEnd) == 'm') && (text.charAt(digitsEnd + 1) == 's')) {
+			return Math.round(value);
+		}
+
+		if ((unitLength == 2) && (text.charAt(digitsEnd) == 'n') && (text.charAt(digitsEnd + 1) == 's')) {
+			return Math.round(value / 1000000);
+		}
+
+		return -1;
+	}
+
+	private static boolean endsWithMillis(final CharSequence line, final int end) {
+		final int suffixStart = end - MILLIS_SUFFIX.length();
+		return (suffixStart > 0) && startsWith(line, suffixStart, MILLIS_SUFFIX) && (line.charAt(suffixStart - 1) >= '0') && (line.charAt(suffixStart - 1) <= '9');
+	}
+
+	private static boolean startsWith(final CharSequence line, final int start, final String prefix) {
+
+		final int length = prefix.length();
+
+		if ((start + length) > line.length()) {
+			return false;
+		}
+
+		for (int i = 0; i < length; i++) {
+			if (line.charAt(start + i) != prefix.charAt(i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return index of the first <code>ch</code> between <code>start</code>
+	 *         and <code>end</code>, or <code>end</code> if there is none
+	 */
+	private static int indexOf(final CharSequence line, final char ch, final int start, final int end) {
+
+		for (int i = start; i < end; i++) {
+			if (line.charAt(i) == ch) {
+				return i;
+			}
+		}
+
+		return end;
+	}
+
+	private static int skipSpaces(final CharSequence line, final int start) {
+
+		int i = start;
+		while ((i < line.length()) && (line.charAt(i) == ' ')) {
+			i++;
+		}
+
+		return i;
+	}
+
+	private static int trimEnd(final CharSequence line) {
+		return trimEnd(line, 0, line.length());
+	}
+
+	private static int trimEnd(final CharSequence line, final int start, final int end) {
+
+		int e = end;
+		while ((e > start) && (line.charAt(e - 1) == ' ')) {
+			e--;
+		}
+
+		return e;
+	}
+
+	private static IllegalArgumentException newTimeFormatException(final CharSequence text, final int start, final int end) {
+		return new IllegalArgumentException("Time <" + text.subSequence(start, end) + "> is not in format yyyy-MM-ddTHH:mm:ss.SSSZ");
+	}
+}
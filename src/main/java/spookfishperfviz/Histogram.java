@@ -34,6 +34,14 @@ abstract class Histogram<C extends Comparable<C>> {
 		return Histogram2.newInstance(data, intervalPoints, false);
 	}
 
+	static Histogram<Double> createFromSorted(final double[] sortedData, final double[] intervalPoints) {
+		return Histogram2.newInstanceFromSorted(sortedData, intervalPoints);
+	}
+
+	static Histogram<Double> create(final ApproximateDistribution data, final double[] intervalPoints) {
+		return Histogram2.newInstance(data, intervalPoints);
+	}
+
 	static Histogram<Double> create(final double[] data, final int nIntervalPoints) {
 		return Histogram2.newInstance(data, nIntervalPoints, false);
 	}
@@ -58,6 +58,131 @@ final class Histogram2<C extends Comparable<C>> extends Histogram<C> {
 		return new Histogram2<>(data, intervalPoints, ignoreEmptyIntervals);
 	}
 
+	/**
+	 * Builds the same histogram as {@link #newInstance(double[], double[], boolean)} with empty intervals
+	 * included, but counts each interval with two binary searches instead of testing every datum against
+	 * every interval. The data must be sorted in the order of {@link Double#compare(double, double)}.
+	 */
+	static Histogram2<Double> newInstanceFromSorted(final double[] sortedData, final double[] intervalPoints) {
+
+		final double[] points = sortDistinct(intervalPoints);
+		final long[] intervalCounts = new long[points.length + 1];
+
+		int lowIndex = 0;
+
+		for (int i = 0; i < points.length; i++) {
+			final int highIndex = lowerBound(sortedData, points[i]);
+			intervalCounts[i] = highIndex - lowIndex;
+			lowIndex = highIndex;
+		}
+
+		intervalCounts[points.length] = sortedData.length - lowIndex;
+
+		return newInstance(points, intervalCounts);
+	}
+
+	/**
+	 * Builds the histogram, with empty intervals included, of the values of
+	 * <code>data</code>. Each bucket of <code>data</code> is counted in the
+	 * interval that holds the value of the bucket, hence a value close to an
+	 * interval point may be counted in the adjacent interval.
+	 */
+	static Histogram2<Double> newInstance(final ApproximateDistribution data, final double[] intervalPoints) {
+
+		final double[] points = sortDistinct(intervalPoints);
+		final long[] intervalCounts = new long[points.length + 1];
+
+		for (int bucket = 0, n = data.getBucketCount(); bucket < n; bucket++) {
+
+			final long count = data.getCount(bucket);
+
+			if (count != 0) {
+				intervalCounts[upperBound(points, data.getValue(bucket))] += count;
+			}
+		}
+
+		return newInstance(points, intervalCounts);
+	}
+
+	/**
+	 * @param intervalCounts
+	 *            count of each interval, from the one below the first point to
+	 *            the one above the last point
+	 */
+	private static Histogram2<Double> newInstance(final double[] sortedPoints, final long[] intervalCounts) {
+
+		final SortedMap<Interval<Double>, Integer> hist = new TreeMap<>();
+
+		DataPoint<Double> low = DataPoint.createNegativeInfinite();
+
+		for (int i = 0; i <= sortedPoints.length; i++) {
+
+			final DataPoint<Double> high = (i < sortedPoints.length) ? DataPoint.createFinite(Double.valueOf(sortedPoints[i])) : DataPoint.<Double> createPositiveInfinite();
+			final long count = intervalCounts[i];
+
+			if (count > Integer.MAX_VALUE) {
+				throw new ArithmeticException("Count of an interval exceeds " + Integer.MAX_VALUE + ": <" + count + ">");
+			}
+
+			hist.put(new Interval<>(low, high), Integer.valueOf((int) count));
+
+			low = high;
+		}
+
+		return new Histogram2<>(hist);
+	}
+
+	private static double[] sortDistinct(final double[] intervalPoints) {
+
+		final Set<Double> sorted = new TreeSet<>(Utils.toHashSet(intervalPoints));
+		final double[] points = new double[sorted.size()];
+
+		int i = 0;
+		for (final Double point : sorted) {
+			points[i++] = point.doubleValue();
+		}
+
+		return points;
+	}
+
+	/**
+	 * @return index of the first element of <code>sortedData</code> that is not less than <code>key</code>.
+	 */
+	private static int lowerBound(final double[] sortedData, final double key) {
+		int low = 0;
+		int high = sortedData.length;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (Double.compare(sortedData[mid], key) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return index of the first element of <code>sortedData</code> that is greater than <code>key</code>.
+	 */
+	private static int upperBound(final double[] sortedData, final double key) {
+		int low = 0;
+		int high = sortedData.length;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (Double.compare(sortedData[mid], key) <= 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private Histogram2(final SortedMap<Interval<C>, Integer> histogram) {
+		this.histogram = histogram;
+	}
+
 	private Histogram2(final Collection<C> data, final Set<C> intervalPoints, final boolean ignoreEmptyIntervals) {
 		
 		final Set<Interval<C>> intervals = new HashSet<>();
@@ -0,0 +1,408 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * State of the ingestion of a file, saved at the end of a run so that the
+ * next run can parse only the data appended to the file since then.
+ *
+ * A checkpoint holds
+ * <ul>
+ * <li>the identity of the file: its path, file key (i.e. inode, where
+ * available), last modified time and hashes of the first and the last few KB
+ * before the offset</li>
+ * <li>the byte offset up to which the file was parsed</li>
+ * <li>the records parsed up to the offset, or only their buckets in bucketed
+ * and sketch modes, and the bad line counts</li>
+ * <li>a description of the parser options, since records parsed with other
+ * options can not be reused</li>
+ * </ul>
+ *
+ * A checkpoint is used only if the file appears to have been appended to
+ * since it was saved. If the file was truncated, rotated or modified in any
+ * other detectable way, it is parsed from the beginning.
+ *
+ * @author Rahul Bakale
+ * @since Nov, 2014
+ */
+final class IngestionCheckpoint {
+
+	private static final int MAGIC = 0x53504b43; // "SPKC"
+	private static final int VERSION = 1;
+
+	/**
+	 * Size of the regions at the beginning and at the end of the parsed data
+	 * that are hashed to identify the file.
+	 */
+	private static final int HASHED_REGION_SIZE = 4096;
+
+	/**
+	 * @return the checkpoint, or <code>null</code> if the checkpoint file does
+	 *         not exist or can not be read
+	 */
+	static IngestionCheckpoint load(final Path checkpointFile) {
+
+		try (final InputStream is = Files.newInputStream(checkpointFile);
+				final DataInputStream in = new DataInputStream(new BufferedInputStream(is));) {
+
+			final int magic = in.readInt();
+			final int version = in.readInt();
+
+			if ((magic != MAGIC) || (version != VERSION)) {
+				System.out.println("Checkpoint file <" + checkpointFile + "> has unknown format, hence it is ignored.");
+				return null;
+			}
+
+			final String filePath = in.readUTF();
+			final String fileKey = in.readUTF();
+			final long lastModified = in.readLong();
+			final long offset = in.readLong();
+			final byte[] headHash = readBytes(in);
+			final byte[] tailHash = readBytes(in);
+			final String parserDescription = in.readUTF();
+
+			final EventLatencyData data = readData(in);
+
+			final boolean hasBadLineCounts = in.readBoolean();
+			final byte[] badLineCounts = hasBadLineCounts ? readBytes(in) : null;
+
+			return new IngestionCheckpoint(filePath, fileKey, lastModified, offset, headHash, tailHash, parserDescription, data, badLineCounts);
+
+		} catch (final NoSuchFileException e) {
+			return null;
+
+		} catch (final IOException e) {
+			System.out.println("Checkpoint file <" + checkpointFile + "> could not be read, hence it is ignored. " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * Saves the state of ingestion of the first <code>offset</code> bytes of
+	 * <code>file</code>. The checkpoint file is replaced atomically, where
+	 * supported.
+	 *
+	 * @param badLines
+	 *            may be <code>null</code>
+	 */
+	static void save(	final Path checkpointFile,
+						final Path file,
+						final long offset,
+						final String parserDescription,
+						final EventLatencyData data,
+						final BadLineCollector badLines) throws IOException {
+
+		final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+
+		final byte[] headHash;
+		final byte[] tailHash;
+
+		try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);) {
+			headHash = hash(channel, 0, Math.min(offset, HASHED_REGION_SIZE));
+			tailHash = hash(channel, Math.max(0, offset - HASHED_REGION_SIZE), offset);
+		}
+
+		final Path tmpFile = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+
+		try (final OutputStream os = Files.newOutputStream(tmpFile);
+				final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));) {
+
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+
+			out.writeUTF(file.toAbsolutePath().toString());
+			out.writeUTF(String.valueOf(attributes.fileKey()));
+			out.writeLong(attributes.lastModifiedTime().toMillis());
+			out.writeLong(offset);
+			writeBytes(out, headHash);
+			writeBytes(out, tailHash);
+			out.writeUTF(parserDescription);
+
+			writeData(out, data);
+
+			out.writeBoolean(badLines != null);
+			if (badLines != null) {
+				writeBytes(out, badLines.countsToBytes());
+			}
+		}
+
+		try {
+			Files.move(tmpFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (final AtomicMoveNotSupportedException e) {
+			Files.move(tmpFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private final String filePath;
+	private final String fileKey;
+	private final long lastModified;
+	private final long offset;
+	private final byte[] headHash;
+	private final byte[] tailHash;
+	private final String parserDescription;
+	private final EventLatencyData data;
+	private final byte[] badLineCounts;
+
+	private IngestionCheckpoint(final String filePath,
+								final String fileKey,
+								final long lastModified,
+								final long offset,
+								final byte[] headHash,
+								final byte[] tailHash,
+								final String parserDescription,
+								final EventLatencyData data,
+								final byte[] badLineCounts) {
+
+		this.filePath = filePath;
+		this.fileKey = fileKey;
+		this.lastModified = lastModified;
+		this.offset = offset;
+		this.headHash = headHash;
+		this.tailHash = tailHash;
+		this.parserDescription = parserDescription;
+		this.data = data;
+		this.badLineCounts = badLineCounts;
+	}
+
+	/**
+	 * @return the reason why ingestion of <code>file</code> can not be resumed
+	 *         from this checkpoint, or <code>null</code> if it can be
+	 */
+	String checkResumable(final Path file, final String parserDescription, final boolean lenient) throws IOException {
+
+		if (!this.filePath.equals(file.toAbsolutePath().toString())) {
+			return "checkpoint is of another file <" + this.filePath + ">";
+		}
+
+		if (!this.parserDescription.equals(parserDescription)) {
+			return "parser or statistics options have changed";
+		}
+
+		if (lenient != (this.badLineCounts != null)) {
+			return "option <lenient> has changed";
+		}
+
+		final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+
+		if (!this.fileKey.equals(String.valueOf(attributes.fileKey()))) {
+			return "file has been replaced";
+		}
+
+		final long size = attributes.size();
+
+		if (size < this.offset) {
+			return "file has been truncated";
+		}
+
+		if ((size == this.offset) && (attributes.lastModifiedTime().toMillis() != this.lastModified)) {
+			return "file has been modified";
+		}
+
+		try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);) {
+
+			final long offset = this.offset;
+
+			if (!Arrays.equals(this.headHash, hash(channel, 0, Math.min(offset, HASHED_REGION_SIZE)))
+					|| !Arrays.equals(this.tailHash, hash(channel, Math.max(0, offset - HASHED_REGION_SIZE), offset))) {
+				return "file has been modified";
+			}
+		}
+
+		return null;
+	}
+
+	long getOffset() {
+		return this.offset;
+	}
+
+	/**
+	 * @return records parsed up to the offset. Has no time range, even if the
+	 *         records were filtered by one.
+	 */
+	EventLatencyData getData() {
+		return this.data;
+	}
+
+	/**
+	 * Adds the bad line counts saved in this checkpoint to
+	 * <code>badLines</code>.
+	 */
+	void restoreBadLineCounts(final BadLineCollector badLines) throws IOException {
+		if ((badLines != null) && (this.badLineCounts != null)) {
+			badLines.addCounts(this.badLineCounts);
+		}
+	}
+
+	private static byte[] hash(final FileChannel channel, final long start, final long end) throws IOException {
+
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (final NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+
+		final ByteBuffer buf = ByteBuffer.allocate((int) (end - start));
+
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, start + buf.position()) < 0) {
+				break;
+			}
+		}
+
+		buf.flip();
+		digest.update(buf);
+
+		return digest.digest();
+	}
+
+	private static void writeData(final DataOutputStream out, final EventLatencyData data) throws IOException {
+
+		if (data.isBucketed()) {
+
+			final Map<String, LatencyBuckets> bucketsByEvent = data.asBucketsMap();
+
+			out.writeInt(data.getSignificantDigits());
+			out.writeInt(data.getSketchSize());
+			out.writeInt(bucketsByEvent.size());
+
+			for (final Entry<String, LatencyBuckets> entry : bucketsByEvent.entrySet()) {
+				out.writeUTF(entry.getKey());
+				entry.getValue().writeTo(out);
+			}
+
+			return;
+		}
+
+		out.writeInt(0);
+		out.writeInt(0);
+		out.writeInt(data.asMap().size());
+
+		for (final Entry<String, LatencySamples> entry : data.asMap().entrySet()) {
+
+			final LatencySamples samples = entry.getValue();
+			final int count = samples.size();
+
+			out.writeUTF(entry.getKey());
+			out.writeInt(count);
+
+			for (int chunk = 0, n = samples.chunkCount(); chunk < n; chunk++) {
+
+				final long[] timestamps = samples.timestampChunk(chunk);
+				final double[] latencies = samples.latencyChunk(chunk);
+
+				for (int i = 0, len = samples.chunkSize(chunk); i < len; i++) {
+					out.writeLong(timestamps[i]);
+					out.writeDouble(latencies[i]);
+				}
+			}
+		}
+	}
+
+	private static EventLatencyData readData(final DataInputStream in) throws IOException {
+
+		final int significantDigits = in.readInt();
+		final int sketchSize = in.readInt();
+
+		if ((significantDigits != 0) || (sketchSize != 0)) {
+
+			final EventLatencyData data;
+
+			if (sketchSize != 0) {
+
+				if ((significantDigits != 0) || (sketchSize < KllSketch.MIN_K) || (sketchSize > KllSketch.MAX_K)) {
+					throw new IOException("significantDigits = <" + significantDigits + ">, sketchSize = <" + sketchSize + ">");
+				}
+
+				data = EventLatencyData.withSketches(sketchSize, null);
+
+			} else {
+
+				if ((significantDigits < 1) || (significantDigits > LogLinearHistogram.MAX_SIGNIFICANT_DIGITS)) {
+					throw new IOException("significantDigits = <" + significantDigits + ">");
+				}
+
+				data = new EventLatencyData(significantDigits, null);
+			}
+
+			final int eventCount = in.readInt();
+
+			for (int i = 0; i < eventCount; i++) {
+				try {
+					data.add(in.readUTF(), LatencyBuckets.readFrom(in, sketchSize != 0));
+				} catch (final IllegalArgumentException e) {
+					throw new IOException("Buckets do not match the mode", e); // e.g. sketches of another size
+				}
+			}
+
+			return data;
+		}
+
+		final EventLatencyData data = new EventLatencyData();
+
+		final int eventCount = in.readInt();
+
+		for (int i = 0; i < eventCount; i++) {
+
+			final String eventName = in.readUTF();
+			final int count = in.readInt();
+
+			for (int k = 0; k < count; k++) {
+				final long timestamp = in.readLong();
+				final double latency = in.readDouble();
+
+				data.add(eventName, timestamp, latency);
+			}
+		}
+
+		return data;
+	}
+
+	private static void writeBytes(final DataOutputStream out, final byte[] bytes) throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static byte[] readBytes(final DataInputStream in) throws IOException {
+		final byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return bytes;
+	}
+}
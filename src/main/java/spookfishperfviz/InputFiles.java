@@ -0,0 +1,230 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Resolves the value of the <code>inFile</code> option to a list of files.
+ *
+ * The value is a comma separated list of elements. Commas within the braces
+ * of a glob, for e.g. <code>logs/{app,web}.log</code>, do not separate
+ * elements. Each element is one of
+ * <ul>
+ * <li>a file</li>
+ * <li>a directory, which stands for all the files directly under it</li>
+ * <li>a glob, for e.g. <code>logs/app-*.log.gz</code> or
+ * <code>logs/&#42;&#42;/access.log</code>, as described in
+ * {@linkplain java.nio.file.FileSystem#getPathMatcher(String)}</li>
+ * </ul>
+ *
+ * An element that names an existing file or directory is taken literally,
+ * even if it has glob characters.
+ *
+ * The files matched by a directory or a glob are sorted by path. A file that
+ * is matched by more than one element is included only once.
+ *
+ * @author Rahul Bakale
+ * @since Nov, 2014
+ */
+final class InputFiles {
+
+	private static final String GLOB_CHARS = "*?[{";
+
+	static List<Path> resolve(final String spec) throws IOException {
+
+		final Set<Path> files = new LinkedHashSet<>();
+
+		for (final String element : split(spec)) {
+
+			if (element.isEmpty()) {
+				continue;
+			}
+
+			final Path path = existingPath(element);
+
+			if ((path == null) && isGlob(element)) {
+				files.addAll(resolveGlob(element));
+			} else {
+				final Path p = (path == null) ? Paths.get(element) : path;
+
+				if (Files.isDirectory(p)) {
+					files.addAll(listDirectory(p));
+				} else {
+					files.add(p);
+				}
+			}
+		}
+
+		return new ArrayList<>(files);
+	}
+
+	/**
+	 * Splits <code>spec</code> at the commas that are not within braces, and
+	 * trims the elements.
+	 */
+	private static List<String> split(final String spec) {
+
+		final List<String> elements = new ArrayList<>();
+
+		int start = 0;
+		int braceDepth = 0;
+
+		for (int i = 0; i < spec.length(); i++) {
+
+			final char ch = spec.charAt(i);
+
+			if (ch == '{') {
+				braceDepth++;
+			} else if ((ch == '}') && (braceDepth > 0)) {
+				braceDepth--;
+			} else if ((ch == ',') && (braceDepth == 0)) {
+				elements.add(spec.substring(start, i).trim());
+				start = i + 1;
+			}
+		}
+
+		elements.add(spec.substring(start).trim());
+
+		return elements;
+	}
+
+	/**
+	 * @return the path named by <code>element</code> if it exists, otherwise
+	 *         <code>null</code>. An existing file such as
+	 *         <code>app[1].log</code> is used as is, even though its name has
+	 *         glob characters.
+	 */
+	private static Path existingPath(final String element) {
+
+		final Path path;
+		try {
+			path = Paths.get(element);
+		} catch (final InvalidPathException e) {
+			return null; // for e.g. '*' on Windows
+		}
+
+		return Files.exists(path) ? path : null;
+	}
+
+	private static boolean isGlob(final String element) {
+
+		for (int i = 0; i < element.length(); i++) {
+			if (GLOB_CHARS.indexOf(element.charAt(i)) >= 0) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static List<Path> listDirectory(final Path dir) throws IOException {
+
+		final List<Path> files = new ArrayList<>();
+
+		try (final DirectoryStream<Path> stream = Files.newDirectoryStream(dir);) {
+			for (final Path p : stream) {
+				if (Files.isRegularFile(p)) {
+					files.add(p);
+				}
+			}
+		}
+
+		Collections.sort(files);
+
+		return files;
+	}
+
+	private static List<Path> resolveGlob(final String glob) throws IOException {
+
+		// The directory to search in is made of the path elements before the
+		// first one having a glob character.
+		final String separator = FileSystems.getDefault().getSeparator();
+		final String[] names = glob.split("[/" + ("\\".equals(separator) ? "\\\\" : "") + "]", -1);
+
+		final StringBuilder base = new StringBuilder();
+		int firstGlobName = 0;
+
+		for (; firstGlobName < (names.length - 1); firstGlobName++) {
+
+			final String name = names[firstGlobName];
+
+			if (isGlob(name)) {
+				break;
+			}
+
+			base.append(name).append('/');
+		}
+
+		final Path baseDir = Paths.get(base.length() == 0 ? "." : base.toString());
+
+		if (!Files.isDirectory(baseDir)) {
+			return Collections.emptyList();
+		}
+
+		final boolean recursive = glob.contains("**");
+		final int maxDepth = recursive ? Integer.MAX_VALUE : names.length - firstGlobName;
+
+		// Paths found by walking "." start with "./", hence they are matched
+		// after removing it.
+		final boolean relativeToCurrentDir = (base.length() == 0);
+		final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+
+		final List<Path> files = new ArrayList<>();
+
+		Files.walkFileTree(baseDir, EnumSet.noneOf(FileVisitOption.class), maxDepth, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+
+				final Path toMatch = relativeToCurrentDir ? baseDir.relativize(file) : file;
+
+				// symbolic links are followed
+				if (matcher.matches(toMatch) && Files.isRegularFile(file)) {
+					files.add(file);
+				}
+
+				return FileVisitResult.CONTINUE;
+			}
+		});
+
+		Collections.sort(files);
+
+		return files;
+	}
+
+	private InputFiles() {
+		//
+	}
+}
@@ -0,0 +1,582 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.util.TimeZone;
+
+/**
+ * Parses lines that are JSON objects, one per line, as written by structured
+ * loggers, for e.g.
+ * 
+ * <pre>
+ * {"time":"2014-11-02 10:15:32.123","op":{"name":"getUser","ms":12.5},"level":"INFO"}
+ * </pre>
+ * 
+ * The fields holding the timestamp, the event name and the latency are
+ * identified by their paths, i.e. the names of the enclosing objects' fields
+ * and of the field itself, separated by dots, for e.g. <code>op.name</code>.
+ * The fields may appear in any order. If a field appears more than once, the
+ * first one is used.
+ * 
+ * A line is scanned once, from the start, only till all three fields are
+ * found. Other fields are skipped without being parsed. Nothing is allocated
+ * for a line, except for strings having escape sequences and event names not
+ * seen before.
+ * 
+ * The value of a field may be a string or a number. Timestamps are parsed as
+ * per the timestamp pattern, which may be for e.g.
+ * {@linkplain TimestampParser#EPOCH_MILLIS epochMillis} for numeric
+ * timestamps.
+ * 
+ * Thread-safe.
+ * 
+ * @author Rahul Bakale
+ * @since Nov, 2014
+ */
+public final class JsonRecordParser extends RecordParser {
+
+	public static RecordParser create(	final String ignorePattern,
+										final String timestampField,
+										final String eventNameField,
+										final String latencyField,
+										final String timestampPattern,
+										final TimeZone timeZone) {
+
+		return new JsonRecordParser(ignorePattern, timestampField, eventNameField, latencyField, timestampPattern, timeZone);
+	}
+
+	/**
+	 * Provides parser <code>json</code>.
+	 */
+	public static final class Provider implements RecordParserProvider {
+
+		@Override
+		public String getName() {
+			return "json";
+		}
+
+		@Override
+		public String[] getOptionNames() {
+			return new String[] { "ignorePattern", "timestampField", "eventNameField", "latencyField", "timestampPattern", "inputTimeZone" };
+		}
+
+		@Override
+		public RecordParser create(final Options options) throws BadOptionsException {
+
+			final String ignorePattern = options.getOptional("ignorePattern", String.class, null);
+			final String timestampPattern = options.getMandatory("timestampPattern", String.class);
+			final TimeZone inputTimeZone = options.getOptional("inputTimeZone", TimeZone.class, TimeZone.getDefault());
+			final String timestampField = options.getMandatory("timestampField", String.class);
+			final String eventNameField = options.getMandatory("eventNameField", String.class);
+			final String latencyField = options.getMandatory("latencyField", String.class);
+
+			try {
+				return JsonRecordParser.create(ignorePattern, timestampField, eventNameField, latencyField, timestampPattern, inputTimeZone);
+			} catch (final IllegalArgumentException e) {
+				throw BadOptionsException.illegalValue("timestampField, eventNameField, latencyField", e.getMessage(), e);
+			}
+		}
+	}
+
+	private static final int TIMESTAMP = 0;
+	private static final int EVENT_NAME = 1;
+	private static final int LATENCY = 2;
+
+	private static final int ALL_FIELDS = (1 << TIMESTAMP) | (1 << EVENT_NAME) | (1 << LATENCY);
+
+	/**
+	 * Returned by {@linkplain #scanObject(CharSequence, int, int, int, FieldRanges)}
+	 * when all the fields have been found, and hence the rest of the line need
+	 * not be scanned.
+	 */
+	private static final int ALL_FOUND = -1;
+
+	private final PrefilteredPattern ignorePattern;
+
+	/**
+	 * Names in the path of each field, by field.
+	 */
+	private final String[][] paths;
+
+	/**
+	 * Bit mask, by depth, of the fields whose path ends at that depth.
+	 */
+	private final int[] leafFieldsByDepth;
+
+	private final TimestampParser timestampParser;
+
+	private JsonRecordParser(	final String ignorePattern,
+								final String timestampField,
+								final String eventNameField,
+								final String latencyField,
+								final String timestampPattern,
+								final TimeZone timeZone) {
+
+		this.ignorePattern = ignorePattern == null ? null : PrefilteredPattern.compile(ignorePattern);
+
+		final String[][] paths = new String[3][];
+		paths[TIMESTAMP] = splitPath(timestampField);
+		paths[EVENT_NAME] = splitPath(eventNameField);
+		paths[LATENCY] = splitPath(latencyField);
+		this.paths = paths;
+
+		final int[] leafFieldsByDepth = new int[Math.max(paths[TIMESTAMP].length, Math.max(paths[EVENT_NAME].length, paths[LATENCY].length))];
+		for (int field = TIMESTAMP; field <= LATENCY; field++) {
+			leafFieldsByDepth[paths[field].length - 1] |= 1 << field;
+		}
+		this.leafFieldsByDepth = leafFieldsByDepth;
+
+		this.timestampParser = TimestampParser.create(timestampPattern, timeZone);
+	}
+
+	private static String[] splitPath(final String path) {
+
+		final String[] names = path.split("\\.", -1);
+
+		for (final String name : names) {
+			if (name.isEmpty()) {
+				throw new IllegalArgumentException("Invalid field path <" + path + ">");
+			}
+		}
+
+		return names;
+	}
+
+	@Override
+	protected final boolean isIgnore(final String line) {
+		return isIgnore((CharSequence) line);
+	}
+
+	@Override
+	protected final Record parse(final String line) {
+		return parse((CharSequence) line);
+	}
+
+	@Override
+	protected final boolean isIgnore(final CharSequence line) {
+		final PrefilteredPattern pattern = this.ignorePattern;
+		return pattern != null && pattern.matches(line);
+	}
+
+	@Override
+	protected final Record parse(final CharSequence line) {
+		return RecordBatch.parseRecord(this, line);
+	}
+
+	@Override
+	protected final boolean isThreadSafe() {
+		return true;
+	}
+
+	@Override
+	protected final void parse(final CharSequence line, final RecordBatch batch) {
+
+		final FieldRanges f = fieldRangesOf(batch);
+		f.found = 0;
+
+		final int start = skipWhitespace(line, 0);
+
+		if ((start >= line.length()) || (line.charAt(start) != '{')) {
+			throw new RecordParseException(line, RecordParseException.MALFORMED_LINE, null);
+		}
+
+		scanObject(line, start, 0, ALL_FIELDS, f);
+
+		if (f.found != ALL_FIELDS) {
+			throw new RecordParseException(line, RecordParseException.MISSING_FIELD, null);
+		}
+
+		final long timestamp;
+		try {
+			if (f.escaped[TIMESTAMP]) {
+				timestamp = this.timestampParser.parse(unescape(line, f.start[TIMESTAMP], f.end[TIMESTAMP]));
+			} else {
+				timestamp = this.timestampParser.parse(line, f.start[TIMESTAMP], f.end[TIMESTAMP]);
+			}
+		} catch (final RuntimeException e) {
+			throw new RecordParseException(line, RecordParseException.INVALID_TIMESTAMP, e);
+		}
+
+		final double latency;
+		try {
+			if (f.escaped[LATENCY]) {
+				latency = RecordBatch.checkLatency(Double.parseDouble(unescape(line, f.start[LATENCY], f.end[LATENCY])));
+			} else {
+				latency = RecordBatch.checkLatency(DecimalParser.parse(line, f.start[LATENCY], f.end[LATENCY]));
+			}
+		} catch (final RuntimeException e) {
+			throw new RecordParseException(line, RecordParseException.INVALID_LATENCY, e);
+		}
+
+		if (f.escaped[EVENT_NAME]) {
+			batch.add(unescape(line, f.start[EVENT_NAME], f.end[EVENT_NAME]), timestamp, latency);
+		} else {
+			batch.add(line, f.start[EVENT_NAME], f.end[EVENT_NAME], timestamp, latency);
+		}
+	}
+
+	private static FieldRanges fieldRangesOf(final RecordBatch batch) {
+
+		final Object state = batch.getParserState();
+
+		if (state instanceof FieldRanges) {
+			return (FieldRanges) state;
+		}
+
+		final FieldRanges f = new FieldRanges();
+		batch.setParserState(f);
+
+		return f;
+	}
+
+	/**
+	 * Scans the object starting at <code>pos</code>, recording the ranges of
+	 * the values of the fields in <code>fields</code>, whose paths match the
+	 * names of the enclosing objects till <code>depth</code>.
+	 * 
+	 * @return position just after the object, or {@linkplain #ALL_FOUND}
+	 */
+	private int scanObject(final CharSequence line, final int objectStart, final int depth, final int fields, final FieldRanges f) {
+
+		final String[][] paths = this.paths;
+
+		int pos = skipWhitespace(line, objectStart + 1);
+
+		if (charAt(line, pos) == '}') {
+			return pos + 1;
+		}
+
+		while (true) {
+
+			if (charAt(line, pos) != '"') {
+				throw new RecordParseException(line, RecordParseException.MALFORMED_LINE, null);
+			}
+
+			final int nameStart = pos + 1;
+
+			// The name is compared as it is with the names of the fields
+			// wanted, which also finds its end. It is scanned only if it is
+			// none of them.
+			final int wanted = fields & ~f.found;
+
+			int matchedFields = 0;
+			int nameEnd = -1;
+
+			for (int field = TIMESTAMP; field <= LATENCY; field++) {
+				if ((wanted & (1 << field)) != 0) {
+
+					final int end = matchName(paths[field][depth], line, nameStart);
+
+					if (end >= 0) {
+						matchedFields |= 1 << field;
+						nameEnd = end;
+					}
+				}
+			}
+
+			if (nameEnd < 0) {
+				nameEnd = findStringEnd(line, nameStart, f);
+
+				if (f.stringEscaped) {
+					matchedFields = matchEscapedName(unescape(line, nameStart, nameEnd), depth, wanted);
+				}
+			}
+
+			pos = skipWhitespace(line, nameEnd + 1);
+
+			if (charAt(line, pos) != ':') {
+				throw new RecordParseException(line, RecordParseException.MALFORMED_LINE, null);
+			}
+
+			pos = skipWhitespace(line, pos + 1);
+
+			final int leafFields = matchedFields & this.leafFieldsByDepth[depth];
+			final int innerFields = matchedFields & ~leafFields;
+
+			final int valueEnd;
+
+			if ((innerFields != 0) && (charAt(line, pos) == '{')) {
+
+				final int objectEnd = scanObject(line, pos, depth + 1, innerFields, f);
+				if (objectEnd == ALL_FOUND) {
+					return ALL_FOUND;
+				}
+
+				valueEnd = objectEnd;
+
+			} else {
+				valueEnd = skipValue(line, pos, f);
+			}
+
+			if (leafFields != 0) {
+
+				final boolean isString = (line.charAt(pos) == '"');
+
+				final int start = isString ? pos + 1 : pos;
+				final int end = isString ? valueEnd - 1 : valueEnd;
+				final boolean escaped = isString && f.stringEscaped;
+
+				for (int field = TIMESTAMP; field <= LATENCY; field++) {
+					if ((leafFields & (1 << field)) != 0) {
+						f.start[field] = start;
+						f.end[field] = end;
+						f.escaped[field] = escaped;
+					}
+				}
+
+				f.found |= leafFields;
+			}
+
+			if (f.found == ALL_FIELDS) {
+				return ALL_FOUND;
+			}
+
+			pos = skipWhitespace(line, valueEnd);
+
+			final int ch = charAt(line, pos);
+
+			if (ch == ',') {
+				pos = skipWhitespace(line, pos + 1);
+			} else if (ch == '}') {
+				return pos + 1;
+			} else {
+				throw new RecordParseException(line, RecordParseException.MALFORMED_LINE, null);
+			}
+		}
+	}
+
+	/**
+	 * @return position just after the value starting at <code>pos</code>
+	 */
+	private static int skipValue(final CharSequence line, final int pos, final FieldRanges f) {
+
+		final int length = line.length();
+		final int first = charAt(line, pos);
+
+		if (first == '"') {
+			return findStringEnd(line, pos + 1, f) + 1;
+		}
+
+		if ((first == '{') || (first == '[')) {
+
+			int depth = 0;
+
+			for (int i = pos; i < length; i++) {
+
+				final char ch = line.charAt(i);
+
+				if (ch == '"') {
+					i = findStringEnd(line, i + 1, f);
+				} else if ((ch == '{') || (ch == '[')) {
+					depth++;
+				} else if ((ch == '}') || (ch == ']')) {
+					depth--;
+					if (depth == 0) {
+						return i + 1;
+					}
+				}
+			}
+
+			throw new RecordParseException(line, RecordParseException.MALFORMED_LINE, null);
+		}
+
+		// number, true, false or null
+		int i = pos;
+		while ((i < length) && !isValueEnd(line.charAt(i))) {
+			i++;
+		}
+
+		if (i == pos) {
+			throw new RecordParseException(line, RecordParseException.MALFORMED_LINE, null);
+		}
+
+		return i;
+	}
+
+	private static boolean isValueEnd(final char ch) {
+		return (ch == ',') || (ch == '}') || (ch == ']') || isWhitespace(ch);
+	}
+
+	/**
+	 * @return position of the quote that ends the string whose first
+	 *         character is at <code>pos</code>. Sets
+	 *         {@linkplain FieldRanges#stringEscaped}.
+	 */
+	private static int findStringEnd(final CharSequence line, final int pos, final FieldRanges f) {
+
+		final int length = line.length();
+
+		boolean escaped = false;
+
+		for (int i = pos; i < length; i++) {
+
+			final char ch = line.charAt(i);
+
+			if (ch == '"') {
+				f.stringEscaped = escaped;
+				return i;
+			}
+
+			if (ch == '\\') {
+				escaped = true;
+				i++;
+			}
+		}
+
+		throw new RecordParseException(line, RecordParseException.MALFORMED_LINE, null);
+	}
+
+	/**
+	 * @return position of the quote that ends the string whose first
+	 *         character is at <code>start</code>, if the string is
+	 *         <code>name</code> without escape sequences, otherwise -1
+	 */
+	private static int matchName(final String name, final CharSequence line, final int start) {
+
+		final int length = name.length();
+		final int end = start + length;
+
+		if ((end >= line.length()) || (line.charAt(end) != '"')) {
+			return -1;
+		}
+
+		for (int i = 0; i < length; i++) {
+
+			final char ch = name.charAt(i);
+
+			// A backslash in the line starts an escape sequence.
+			if ((ch != line.charAt(start + i)) || (ch == '\\')) {
+				return -1;
+			}
+		}
+
+		return end;
+	}
+
+	/**
+	 * @return bit mask of the fields in <code>fields</code> whose name at
+	 *         <code>depth</code> is <code>name</code>
+	 */
+	private int matchEscapedName(final String name, final int depth, final int fields) {
+
+		int matchedFields = 0;
+
+		for (int field = TIMESTAMP; field <= LATENCY; field++) {
+			if (((fields & (1 << field)) != 0) && this.paths[field][depth].equals(name)) {
+				matchedFields |= 1 << field;
+			}
+		}
+
+		return matchedFields;
+	}
+
+	private static String unescape(final CharSequence line, final int start, final int end) {
+
+		final StringBuilder buf = new StringBuilder(end - start);
+
+		for (int i = start; i < end; i++) {
+
+			final char ch = line.charAt(i);
+
+			if ((ch != '\\') || ((i + 1) >= end)) {
+				buf.append(ch);
+				continue;
+			}
+
+			final char next = line.charAt(++i);
+
+			switch (next) {
+			case 'b':
+				buf.append('\b');
+				break;
+			case 'f':
+				buf.append('\f');
+				break;
+			case 'n':
+				buf.append('\n');
+				break;
+			case 'r':
+				buf.append('\r');
+				break;
+			case 't':
+				buf.append('\t');
+				break;
+			case 'u':
+				if ((i + 4) >= end) {
+					throw new IllegalArgumentException("Invalid escape sequence in <" + line.subSequence(start, end) + ">");
+				}
+				buf.append((char) Integer.parseInt(line.subSequence(i + 1, i + 5).toString(), 16));
+				i += 4;
+				break;
+			default:
+				// \" \\ \/
+				buf.append(next);
+			}
+		}
+
+		return buf.toString();
+	}
+
+	private static int skipWhitespace(final CharSequence line, final int pos) {
+
+		final int length = line.length();
+
+		int i = pos;
+		while ((i < length) && isWhitespace(line.charAt(i))) {
+			i++;
+		}
+
+		return i;
+	}
+
+	private static boolean isWhitespace(final char ch) {
+		return (ch == ' ') || (ch == '\t') || (ch == '\r') || (ch == '\n');
+	}
+
+	/**
+	 * @return character at <code>pos</code>, or -1 if <code>pos</code> is at
+	 *         the end of the line
+	 */
+	private static int charAt(final CharSequence line, final int pos) {
+		return pos < line.length() ? line.charAt(pos) : -1;
+	}
+
+	/**
+	 * Ranges of the values of the fields found in the line being parsed.
+	 * Re-used for all the lines parsed into a batch, see
+	 * {@linkplain RecordBatch#getParserState()}.
+	 */
+	private static final class FieldRanges {
+
+		final int[] start = new int[3];
+		final int[] end = new int[3];
+		final boolean[] escaped = new boolean[3];
+
+		/**
+		 * Bit mask of the fields found.
+		 */
+		int found;
+
+		/**
+		 * Whether the string last scanned by
+		 * {@linkplain JsonRecordParser#findStringEnd(CharSequence, int, FieldRanges)}
+		 * has escape sequences.
+		 */
+		boolean stringEscaped;
+	}
+}
@@ -0,0 +1,502 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Quantile sketch of Karnin, Lang and Liberty (KLL). Unlike
+ * {@linkplain LogLinearHistogram}, it bounds the error of the rank of a value
+ * read from it, not of the value itself, hence it needs no assumption about the
+ * range of the values.
+ *
+ * The values are held in a stack of compactors. A value is added to the lowest
+ * one. When the sketch is full, the lowest compactor that is over its capacity
+ * is sorted and every other one of its values, starting from a random one of
+ * the first two, is moved to the compactor above, where it stands for twice as
+ * many values. The capacity of a compactor is <code>k</code> for the highest
+ * one, and 2/3 of that of the one above for the others, hence the sketch holds
+ * at most about <code>3k</code> values, however many are added.
+ *
+ * The normalized rank error, i.e. the difference between the estimated and the
+ * actual rank of a value divided by the count, is at most
+ * {@linkplain #getNormalizedRankError()} with 99% confidence. It is 0 until the
+ * first compaction, i.e. while fewer than <code>k</code> values are added. The
+ * count, minimum and maximum are exact.
+ *
+ * Sketches having the same <code>k</code> can be {@linkplain #add(KllSketch)
+ * merged}, and are {@linkplain #writeTo(DataOutput) written} to and
+ * {@linkplain #readFrom(DataInput) read} from streams. The random choices are
+ * seeded, so that the same values, added in the same order, give the same
+ * sketch.
+ *
+ * Not thread-safe.
+ *
+ * @see http://arxiv.org/abs/1603.05346
+ * @see https://datasketches.apache.org/docs/KLL/KLLSketch.html
+ *
+ * @author Rahul Bakale
+ * @since Nov, 2014
+ */
+final class KllSketch implements ApproximateDistribution {
+
+	static final int DEFAULT_K = 200;
+	static final int MIN_K = 8;
+	static final int MAX_K = 65535;
+
+	private static final double CAPACITY_RATIO = 2.0 / 3;
+	private static final int MIN_CAPACITY = 2;
+	private static final long SEED = 0x4b4c4cL;
+
+	private final int k;
+	private final Random random;
+
+	/**
+	 * Values of the compactors, by their height. A value of the compactor at
+	 * height <code>h</code> stands for <code>2^h</code> values.
+	 */
+	private double[][] levels;
+	private int[] levelSizes;
+
+	/**
+	 * Capacities of the compactors, which change as the sketch grows.
+	 */
+	private int[] capacities;
+
+	private int retainedCount;
+	private int maxRetainedCount;
+
+	private long totalCount;
+	private double min = Double.MAX_VALUE;
+	private double max = -Double.MAX_VALUE;
+
+	/**
+	 * Values of all the compactors in ascending order, and their cumulative
+	 * weights. Built when first needed after a change.
+	 */
+	private double[] sortedValues;
+	private long[] cumulativeWeights;
+
+	KllSketch(final int k) {
+
+		if ((k < MIN_K) || (k > MAX_K)) {
+			throw new IllegalArgumentException("k = <" + k + ">");
+		}
+
+		this.k = k;
+		this.random = new Random(SEED);
+		this.levels = new double[0][];
+		this.levelSizes = new int[0];
+		this.capacities = new int[0];
+
+		grow();
+	}
+
+	int getK() {
+		return this.k;
+	}
+
+	/**
+	 * @return upper bound, with 99% confidence, of the normalized rank error
+	 *         of a value read from a sketch having this <code>k</code>, as
+	 *         derived by Apache DataSketches for the same algorithm
+	 */
+	static double getNormalizedRankError(final int k) {
+		return 2.296 / Math.pow(k, 0.9723);
+	}
+
+	/**
+	 * @return upper bound, with 99% confidence, of the normalized rank error
+	 *         of a value read from this sketch, which is 0 if no values have
+	 *         been compacted
+	 */
+	double getNormalizedRankError() {
+		return isExact() ? 0 : getNormalizedRankError(this.k);
+	}
+
+	/**
+	 * @return <code>true</code> if every value added is held
+	 */
+	private boolean isExact() {
+		return this.levels.length == 1;
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if <code>value</code> is infinite or NaN
+	 */
+	void record(final double value) {
+
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			throw new IllegalArgumentException("Only finite values can be recorded: <" + value + ">");
+		}
+
+		append(0, value);
+
+		this.totalCount++;
+
+		if (value < this.min) {
+			this.min = value;
+		}
+
+		if (value > this.max) {
+			this.max = value;
+		}
+
+		if (this.retainedCount >= this.maxRetainedCount) {
+			compress();
+		}
+
+		this.sortedValues = null;
+	}
+
+	/**
+	 * Adds the values of <code>other</code> to this sketch.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the sketches have different <code>k</code>
+	 */
+	void add(final KllSketch other) {
+
+		if (other.k != this.k) {
+			throw new IllegalArgumentException("k = <" + this.k + ">, other = <" + other.k + ">");
+		}
+
+		if (other.totalCount == 0) {
+			return;
+		}
+
+		while (this.levels.length < other.levels.length) {
+			grow();
+		}
+
+		for (int h = 0; h < other.levels.length; h++) {
+			for (int i = 0, n = other.levelSizes[h]; i < n; i++) {
+				append(h, other.levels[h][i]);
+			}
+		}
+
+		this.totalCount += other.totalCount;
+		this.min = Math.min(this.min, other.min);
+		this.max = Math.max(this.max, other.max);
+
+		while (this.retainedCount >= this.maxRetainedCount) {
+			compress();
+		}
+
+		this.sortedValues = null;
+	}
+
+	private void append(final int h, final double value) {
+
+		double[] level = this.levels[h];
+		final int size = this.levelSizes[h];
+
+		if (size == level.length) {
+			level = Arrays.copyOf(level, Math.max(MIN_CAPACITY, size * 2));
+			this.levels[h] = level;
+		}
+
+		level[size] = value;
+
+		this.levelSizes[h] = size + 1;
+		this.retainedCount++;
+	}
+
+	/**
+	 * Compacts the lowest compactors that are over their capacity, until the
+	 * sketch is not full.
+	 */
+	private void compress() {
+
+		for (int h = 0; h < this.levels.length; h++) {
+
+			if (this.levelSizes[h] >= this.capacities[h]) {
+
+				if ((h + 1) == this.levels.length) {
+					grow();
+				}
+
+				compact(h);
+
+				if (this.retainedCount < this.maxRetainedCount) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Moves every other value of the compactor, in ascending order, to the one
+	 * above. If the count is odd, the greatest value stays.
+	 */
+	private void compact(final int h) {
+
+		final double[] level = this.levels[h];
+		final int size = this.levelSizes[h];
+		final int pairs = size / 2;
+		final int offset = this.random.nextBoolean() ? 1 : 0;
+
+		Arrays.sort(level, 0, size);
+
+		for (int i = 0; i < pairs; i++) {
+			append(h + 1, level[(2 * i) + offset]);
+		}
+
+		if ((size % 2) != 0) {
+			level[0] = level[size - 1];
+		}
+
+		this.levelSizes[h] = size - (2 * pairs);
+		this.retainedCount -= 2 * pairs;
+	}
+
+	private void grow() {
+
+		final int height = this.levels.length;
+
+		this.levels = Arrays.copyOf(this.levels, height + 1);
+		this.levelSizes = Arrays.copyOf(this.levelSizes, height + 1);
+		this.capacities = new int[height + 1];
+		this.levels[height] = new double[0];
+
+		int maxRetainedCount = 0;
+		for (int h = 0; h <= height; h++) {
+			final int depth = height - h;
+			this.capacities[h] = Math.max(MIN_CAPACITY, (int) Math.ceil(this.k * Math.pow(CAPACITY_RATIO, depth)));
+			maxRetainedCount += this.capacities[h];
+		}
+
+		this.maxRetainedCount = maxRetainedCount;
+	}
+
+	private void sort() {
+
+		if (this.sortedValues != null) {
+			return;
+		}
+
+		final int height = this.levels.length;
+		final int[] positions = new int[height];
+
+		final double[] values = new double[this.retainedCount];
+		final long[] weights = new long[this.retainedCount];
+
+		for (int h = 0; h < height; h++) {
+			Arrays.sort(this.levels[h], 0, this.levelSizes[h]);
+		}
+
+		long cumulativeWeight = 0;
+
+		for (int i = 0; i < values.length; i++) {
+
+			int lowest = -1;
+
+			for (int h = 0; h < height; h++) {
+				if ((positions[h] < this.levelSizes[h]) && ((lowest == -1) || (this.levels[h][positions[h]] < this.levels[lowest][positions[lowest]]))) {
+					lowest = h;
+				}
+			}
+
+			values[i] = this.levels[lowest][positions[lowest]++];
+			cumulativeWeight += 1L << lowest;
+			weights[i] = cumulativeWeight;
+		}
+
+		this.sortedValues = values;
+		this.cumulativeWeights = weights;
+	}
+
+	@Override
+	public long getTotalCount() {
+		return this.totalCount;
+	}
+
+	/**
+	 * @return exact minimum, or <code>Double.MAX_VALUE</code> if the sketch is
+	 *         empty
+	 */
+	@Override
+	public double getMin() {
+		return this.min;
+	}
+
+	/**
+	 * @return exact maximum, or <code>-Double.MAX_VALUE</code> if the sketch
+	 *         is empty
+	 */
+	@Override
+	public double getMax() {
+		return this.max;
+	}
+
+	@Override
+	public double getValueAtRank(final long rank) {
+
+		if ((rank < 0) || (rank >= this.totalCount)) {
+			throw new IndexOutOfBoundsException("rank = <" + rank + ">, count = <" + this.totalCount + ">");
+		}
+
+		if (rank == 0) {
+			return this.min;
+		}
+
+		if (rank == (this.totalCount - 1)) {
+			return this.max;
+		}
+
+		sort();
+
+		// first value whose cumulative weight exceeds the rank
+
+		final long[] weights = this.cumulativeWeights;
+
+		int low = 0;
+		int high = weights.length - 1;
+
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (weights[mid] <= rank) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		return this.sortedValues[low];
+	}
+
+	@Override
+	public double getLowerBoundAtRank(final long rank) {
+		return getValueAtRank(Math.max(0, rank - getRankErrorBound()));
+	}
+
+	@Override
+	public double getUpperBoundAtRank(final long rank) {
+		return getValueAtRank(Math.min(this.totalCount - 1, rank + getRankErrorBound()));
+	}
+
+	private long getRankErrorBound() {
+		return (long) Math.ceil(getNormalizedRankError() * this.totalCount);
+	}
+
+	/**
+	 * @return number of values held. Each of them is a bucket, in ascending
+	 *         order.
+	 */
+	@Override
+	public int getBucketCount() {
+		return this.retainedCount;
+	}
+
+	/**
+	 * @return number of values that the value of the bucket stands for
+	 */
+	@Override
+	public long getCount(final int bucket) {
+		sort();
+		return (bucket == 0) ? this.cumulativeWeights[0] : this.cumulativeWeights[bucket] - this.cumulativeWeights[bucket - 1];
+	}
+
+	@Override
+	public double getValue(final int bucket) {
+		sort();
+		return this.sortedValues[bucket];
+	}
+
+	/**
+	 * Writes the sketch in a form read by {@linkplain #readFrom(DataInput)}.
+	 */
+	void writeTo(final DataOutput out) throws IOException {
+
+		out.writeInt(this.k);
+		out.writeLong(this.totalCount);
+		out.writeDouble(this.min);
+		out.writeDouble(this.max);
+		out.writeInt(this.levels.length);
+
+		for (int h = 0; h < this.levels.length; h++) {
+
+			final int size = this.levelSizes[h];
+
+			out.writeInt(size);
+
+			for (int i = 0; i < size; i++) {
+				out.writeDouble(this.levels[h][i]);
+			}
+		}
+	}
+
+	/**
+	 * @throws IOException
+	 *             also if the data is not that of a sketch
+	 */
+	static KllSketch readFrom(final DataInput in) throws IOException {
+
+		final int k = in.readInt();
+
+		if ((k < MIN_K) || (k > MAX_K)) {
+			throw new IOException("Not a sketch. k = <" + k + ">");
+		}
+
+		final KllSketch sketch = new KllSketch(k);
+		final long totalCount = in.readLong();
+		final double min = in.readDouble();
+		final double max = in.readDouble();
+		final int height = in.readInt();
+
+		if ((height < 1) || (height > Long.SIZE - 1)) {
+			throw new IOException("Not a sketch. height = <" + height + ">");
+		}
+
+		while (sketch.levels.length < height) {
+			sketch.grow();
+		}
+
+		long count = 0;
+
+		for (int h = 0; h < height; h++) {
+
+			final int size = in.readInt();
+
+			if ((size < 0) || (size > sketch.maxRetainedCount)) {
+				throw new IOException("Not a sketch. size = <" + size + ">");
+			}
+
+			for (int i = 0; i < size; i++) {
+				sketch.append(h, in.readDouble());
+			}
+
+			count += ((long) size) << h;
+		}
+
+		if (count != totalCount) {
+			throw new IOException("Not a sketch. count = <" + count + ">, total count = <" + totalCount + ">");
+		}
+
+		sketch.totalCount = totalCount;
+		sketch.min = min;
+		sketch.max = max;
+
+		return sketch;
+	}
+}
@@ -0,0 +1,267 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latencies of an event, held in {@linkplain LogLinearHistogram log-linear
+ * buckets} instead of as samples, hence in memory that does not depend on the
+ * number of samples. Used in place of {@linkplain LatencySamples} when
+ * statistics are computed in bucketed or sketch mode.
+ *
+ * Holds
+ * <ul>
+ * <li>a histogram of all the latencies, or a {@linkplain KllSketch quantile
+ * sketch} of them in sketch mode, for the percentiles and the latency histogram
+ * of the report</li>
+ * <li>their {@linkplain Moments}, which are exact</li>
+ * <li>a histogram, with {@linkplain #TIME_SLOT_SIGNIFICANT_DIGITS} significant
+ * digits, of the latencies of each {@linkplain #TIME_SLOT_MILLIS time slot},
+ * for the heat map. The time slots are aligned to the hour in any time zone
+ * whose offset is a multiple of 5 minutes, hence every column of the heat map
+ * is made of whole time slots.</li>
+ * </ul>
+ *
+ * The histograms of the time slots are needed for the hourly volumes and the
+ * heat map of the report, whose resolution is finer than an hour. Hence, unlike
+ * that of the other parts, their memory grows with the time span of the
+ * samples. Each time slot that has a sample takes about 100 bytes, plus 144
+ * bytes (16 counts) for each power of 2 spanned by its latencies. For e.g.
+ * latencies from 1 to 1000 take about 1.5 KB per time slot, i.e. about 3 MB
+ * per event per week (2016 time slots).
+ *
+ * Not thread-safe.
+ *
+ * @author Rahul Bakale
+ * @since Nov, 2014
+ */
+final class LatencyBuckets {
+
+	static final long TIME_SLOT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+	/**
+	 * The heat map shows at most a few tens of latency ranges, hence the
+	 * histograms of the time slots are kept coarse, to save memory.
+	 */
+	static final int TIME_SLOT_SIGNIFICANT_DIGITS = 1;
+
+	/**
+	 * Exactly one of these is not <code>null</code>.
+	 */
+	private final LogLinearHistogram latencies;
+	private final KllSketch latencySketch;
+
+	private final Moments moments;
+	private final SortedMap<Long, LogLinearHistogram> latenciesByTimeSlot;
+
+	private long minTimestamp = Long.MAX_VALUE;
+	private long maxTimestamp = Long.MIN_VALUE;
+
+	/**
+	 * Histogram of the time slot of the latest sample, since samples mostly
+	 * arrive in the order of their timestamps.
+	 */
+	private long lastTimeSlot = Long.MIN_VALUE;
+	private LogLinearHistogram lastTimeSlotLatencies;
+
+	LatencyBuckets(final int significantDigits) {
+		this(new LogLinearHistogram(significantDigits), null, new Moments());
+	}
+
+	/**
+	 * @return new empty instance that holds a quantile sketch of the
+	 *         latencies, of size <code>k</code>, instead of their histogram
+	 */
+	static LatencyBuckets withSketch(final int k) {
+		return new LatencyBuckets(null, new KllSketch(k), new Moments());
+	}
+
+	private LatencyBuckets(final LogLinearHistogram latencies, final KllSketch latencySketch, final Moments moments) {
+		this.latencies = latencies;
+		this.latencySketch = latencySketch;
+		this.moments = moments;
+		this.latenciesByTimeSlot = new TreeMap<>();
+	}
+
+	/**
+	 * @return new empty instance that holds the latencies in the same way as
+	 *         this one
+	 */
+	LatencyBuckets newEmpty() {
+		return (this.latencySketch == null) ? new LatencyBuckets(this.latencies.getSignificantDigits()) : withSketch(this.latencySketch.getK());
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if <code>latency</code> is negative, infinite or NaN
+	 */
+	void add(final long timestamp, final double latency) {
+
+		if (this.latencySketch == null) {
+			this.latencies.record(latency);
+		} else {
+			this.latencySketch.record(latency);
+		}
+
+		this.moments.add(latency);
+
+		final long timeSlot = timeSlotOf(timestamp);
+
+		if (timeSlot != this.lastTimeSlot) {
+			this.lastTimeSlot = timeSlot;
+			this.lastTimeSlotLatencies = timeSlotLatencies(Long.valueOf(timeSlot));
+		}
+
+		this.lastTimeSlotLatencies.record(latency);
+
+		if (timestamp < this.minTimestamp) {
+			this.minTimestamp = timestamp;
+		}
+
+		if (timestamp > this.maxTimestamp) {
+			this.maxTimestamp = timestamp;
+		}
+	}
+
+	/**
+	 * Merges the latencies of <code>other</code>, which must hold them in the
+	 * same way, into this instance.
+	 */
+	void addAll(final LatencyBuckets other) {
+
+		if ((this.latencySketch == null) != (other.latencySketch == null)) {
+			throw new IllegalArgumentException("Only one of the instances has a sketch");
+		}
+
+		if (this.latencySketch == null) {
+			this.latencies.add(other.latencies);
+		} else {
+			this.latencySketch.add(other.latencySketch);
+		}
+
+		this.moments.addAll(other.moments);
+
+		for (final Entry<Long, LogLinearHistogram> e : other.latenciesByTimeSlot.entrySet()) {
+			timeSlotLatencies(e.getKey()).add(e.getValue());
+		}
+
+		this.minTimestamp = Math.min(this.minTimestamp, other.minTimestamp);
+		this.maxTimestamp = Math.max(this.maxTimestamp, other.maxTimestamp);
+	}
+
+	private LogLinearHistogram timeSlotLatencies(final Long timeSlot) {
+
+		LogLinearHistogram histogram = this.latenciesByTimeSlot.get(timeSlot);
+
+		if (histogram == null) {
+			histogram = new LogLinearHistogram(TIME_SLOT_SIGNIFICANT_DIGITS);
+			this.latenciesByTimeSlot.put(timeSlot, histogram);
+		}
+
+		return histogram;
+	}
+
+	private static long timeSlotOf(final long timestamp) {
+		return timestamp - (((timestamp % TIME_SLOT_MILLIS) + TIME_SLOT_MILLIS) % TIME_SLOT_MILLIS);
+	}
+
+	/**
+	 * @return the histogram or the sketch itself, which must not be modified
+	 */
+	ApproximateDistribution getLatencies() {
+		return (this.latencySketch == null) ? this.latencies : this.latencySketch;
+	}
+
+	/**
+	 * @return the moments themselves, which must not be modified
+	 */
+	Moments getMoments() {
+		return this.moments;
+	}
+
+	/**
+	 * @return histograms by the start time of their time slot. The map is not
+	 *         copied, hence must not be modified.
+	 */
+	SortedMap<Long, LogLinearHistogram> getLatenciesByTimeSlot() {
+		return this.latenciesByTimeSlot;
+	}
+
+	long getMinTimestamp() {
+		return this.minTimestamp;
+	}
+
+	long getMaxTimestamp() {
+		return this.maxTimestamp;
+	}
+
+	/**
+	 * Writes the buckets in a form read by
+	 * {@linkplain #readFrom(DataInput, boolean)}.
+	 */
+	void writeTo(final DataOutput out) throws IOException {
+
+		if (this.latencySketch == null) {
+			this.latencies.writeTo(out);
+		} else {
+			this.latencySketch.writeTo(out);
+		}
+
+		this.moments.writeTo(out);
+
+		out.writeLong(this.minTimestamp);
+		out.writeLong(this.maxTimestamp);
+		out.writeInt(this.latenciesByTimeSlot.size());
+
+		for (final Entry<Long, LogLinearHistogram> e : this.latenciesByTimeSlot.entrySet()) {
+			out.writeLong(e.getKey().longValue());
+			e.getValue().writeTo(out);
+		}
+	}
+
+	/**
+	 * @param withSketch
+	 *            whether the buckets written have a sketch instead of a
+	 *            histogram of the latencies
+	 */
+	static LatencyBuckets readFrom(final DataInput in, final boolean withSketch) throws IOException {
+
+		final LogLinearHistogram latencies = withSketch ? null : LogLinearHistogram.readFrom(in);
+		final KllSketch latencySketch = withSketch ? KllSketch.readFrom(in) : null;
+
+		final LatencyBuckets buckets = new LatencyBuckets(latencies, latencySketch, Moments.readFrom(in));
+
+		buckets.minTimestamp = in.readLong();
+		buckets.maxTimestamp = in.readLong();
+
+		final int timeSlotCount = in.readInt();
+
+		for (int i = 0; i < timeSlotCount; i++) {
+			buckets.latenciesByTimeSlot.put(Long.valueOf(in.readLong()), LogLinearHistogram.readFrom(in));
+		}
+
+		return buckets;
+	}
+}
@@ -23,24 +23,27 @@ import static java.nio.file.StandardOpenOption.WRITE;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.lang.management.ManagementFactory;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -63,14 +66,42 @@ public final class LatencyReportGenerator {
 
 	private static final AtomicInteger uniquifier = new AtomicInteger();
 
+	/**
+	 * Value of option <code>inFile</code> that denotes the standard input.
+	 */
+	private static final String STD_IN = "-";
+
+	private static final String CHECKPOINT_FILE_SUFFIX = ".checkpoint";
+
+	/**
+	 * Values of option <code>statsMode</code>.
+	 */
+	private static final String STATS_MODE_EXACT = "exact";
+
+	/**
+	 * Latencies are held in a {@linkplain LogLinearHistogram} per event, with
+	 * <code>significantDigits</code> significant digits, whose memory does not
+	 * depend on the number of latencies. See {@linkplain LatencyBuckets}.
+	 */
+	private static final String STATS_MODE_BUCKETED = "bucketed";
+
+	/**
+	 * Percentiles are read from a {@linkplain KllSketch} of size
+	 * <code>sketchSize</code>, which takes a few kilobytes per event however
+	 * many latencies there are. See {@linkplain LatencyBuckets}.
+	 */
+	private static final String STATS_MODE_SKETCH = "sketch";
+
+	private static final int DEFAULT_SIGNIFICANT_DIGITS = 3;
+
 	static void run(final Options options) throws Exception {
 
-		final String ignorePattern = options.getOptional("ignorePattern", String.class, null);
-		final String parsePattern = options.getMandatory("parsePattern", String.class);
-		final String timestampPattern = options.getMandatory("timestampPattern", String.class);
-		final TimeZone inputTimeZone = options.getOptional("inputTimeZone", TimeZone.class, TimeZone.getDefault());
 		final TimeZone outputTimeZone = options.getOptional("outputTimeZone", TimeZone.class, TimeZone.getDefault());
-		final RecordParser parser = SimpleRegexBasedRecordParser.create(ignorePattern, parsePattern, timestampPattern, inputTimeZone);
+
+		final String parserName = options.getOptional("parser", String.class, "regex");
+		final RecordParserProvider parserProvider = RecordParserRegistry.get(parserName);
+		final Options parserOptions = options.select(parserProvider.getOptionNames());
+		final RecordParser parser = parserProvider.create(parserOptions);
 
 		final TimeUnit latencyUnit = options.getMandatory("latencyUnit", TimeUnit.class);
 
@@ -83,19 +114,449 @@ public final class LatencyReportGenerator {
 		final String inFile = options.getMandatory("inFile", String.class);
 		final String outFile = options.getMandatory("outFile", String.class);
 
+		final Integer ingestThreads = options.getOptional("ingestThreads", Integer.class, null);
+		if ((ingestThreads != null) && (ingestThreads.intValue() < 1)) {
+			throw BadOptionsException.illegalValue("ingestThreads", "Must be greater than 0.", null);
+		}
+
+		final boolean fromStdIn = STD_IN.equals(inFile);
+
+		final List<Path> inFiles = fromStdIn ? Collections.<Path> emptyList() : InputFiles.resolve(inFile);
+		if (!fromStdIn && inFiles.isEmpty()) {
+			throw BadOptionsException.illegalValue("inFile", "No files found.", null);
+		}
+
+		if (fromStdIn && (ingestThreads != null)) {
+			System.out.println("Standard input is read by a single thread, hence option <ingestThreads> is ignored.");
+		}
+
+		if (!parser.isThreadSafe() && (ingestThreads != null) && (ingestThreads.intValue() > 1)) {
+			System.out.println("Parser <" + parserName + "> is not thread-safe, hence input is parsed by a single thread.");
+		}
+
+		final int threadCount = !parser.isThreadSafe() ? 1 : ingestThreads != null ? ingestThreads.intValue() : Runtime.getRuntime().availableProcessors();
+
+		final boolean follow = options.getOptional("follow", Boolean.class, Boolean.FALSE).booleanValue();
+		final int reportInterval = options.getOptional("reportInterval", Integer.class, Integer.valueOf(10)).intValue();
+		final Integer followIdleTimeout = options.getOptional("followIdleTimeout", Integer.class, null);
+
+		if (follow) {
+
+			if (fromStdIn || (inFiles.size() != 1) || (CompressedInput.detectFormat(inFiles.get(0)) != CompressedInput.Format.NONE)) {
+				throw BadOptionsException.illegalValue("follow", "Can be used only with a single uncompressed file.", null);
+			}
+
+			if (reportInterval < 1) {
+				throw BadOptionsException.illegalValue("reportInterval", "Must be greater than 0.", null);
+			}
+
+			if ((followIdleTimeout != null) && (followIdleTimeout.intValue() < 1)) {
+				throw BadOptionsException.illegalValue("followIdleTimeout", "Must be greater than 0.", null);
+			}
+		}
+
+		final TimeRange timeRange = createTimeRange(options, outputTimeZone);
+
+		final Integer maxTimestampDisorder = options.getOptional("maxTimestampDisorder", Integer.class, Integer.valueOf(60));
+		if (maxTimestampDisorder.intValue() < 0) {
+			throw BadOptionsException.illegalValue("maxTimestampDisorder", "Can not be negative.", null);
+		}
+
+		final String statsMode = options.getOptional("statsMode", String.class, STATS_MODE_EXACT);
+		final Integer significantDigits = options.getOptional("significantDigits", Integer.class, null);
+		final Integer sketchSize = options.getOptional("sketchSize", Integer.class, null);
+
+		if ((significantDigits != null) && !STATS_MODE_BUCKETED.equals(statsMode)) {
+			throw BadOptionsException.illegalValue("significantDigits", "Can be specified only if option <statsMode> is " + STATS_MODE_BUCKETED + ".", null);
+		}
+
+		if ((sketchSize != null) && !STATS_MODE_SKETCH.equals(statsMode)) {
+			throw BadOptionsException.illegalValue("sketchSize", "Can be specified only if option <statsMode> is " + STATS_MODE_SKETCH + ".", null);
+		}
+
+		final boolean checkpoint = options.getOptional("checkpoint", Boolean.class, Boolean.FALSE).booleanValue();
+
+		final EventLatencyData data;
+
+		if (STATS_MODE_BUCKETED.equals(statsMode)) {
+
+			final int digits = (significantDigits == null) ? DEFAULT_SIGNIFICANT_DIGITS : significantDigits.intValue();
+
+			if ((digits < 1) || (digits > LogLinearHistogram.MAX_SIGNIFICANT_DIGITS)) {
+				throw BadOptionsException.illegalValue("significantDigits", "Must be between 1 and " + LogLinearHistogram.MAX_SIGNIFICANT_DIGITS + ".", null);
+			}
+
+			data = new EventLatencyData(digits, timeRange);
+
+		} else if (STATS_MODE_SKETCH.equals(statsMode)) {
+
+			final int k = (sketchSize == null) ? KllSketch.DEFAULT_K : sketchSize.intValue();
+
+			if ((k < KllSketch.MIN_K) || (k > KllSketch.MAX_K)) {
+				throw BadOptionsException.illegalValue("sketchSize", "Must be between " + KllSketch.MIN_K + " and " + KllSketch.MAX_K + ".", null);
+			}
+
+			data = EventLatencyData.withSketches(k, timeRange);
+
+		} else if (STATS_MODE_EXACT.equals(statsMode)) {
+
+			// A checkpoint must hold all the records, since the time range may
+			// differ in the next run.
+			data = checkpoint ? new EventLatencyData() : new EventLatencyData(timeRange);
+
+		} else {
+			throw BadOptionsException.illegalValue("statsMode", "Must be " + STATS_MODE_EXACT + ", " + STATS_MODE_BUCKETED + " or " + STATS_MODE_SKETCH + ".", null);
+		}
+
+		if (checkpoint) {
+
+			if (follow) {
+				throw BadOptionsException.illegalValue("checkpoint", "Can not be used with option <follow>.", null);
+			}
+
+			if (fromStdIn || (inFiles.size() != 1) || (CompressedInput.detectFormat(inFiles.get(0)) != CompressedInput.Format.NONE)) {
+				throw BadOptionsException.illegalValue("checkpoint", "Can be used only with a single uncompressed file.", null);
+			}
+		}
+
 		final int heatMapSingleAreaWidth = 20;
 
-		final Path path;
+		final LatencyStatsToHtmlFunc latencyStatsToHtmlFunc =
+				createLatencyStatsToHtmlFunc(outputTimeZone, histogramIntervalPoints, percentilePoints, heatMapMaxIntervalPoints, heatMapSingleAreaWidth, colorRampScheme);
 
-		try (final Reader fr = new FileReader(inFile); final Reader source = new BufferedReader(fr);) {
-			
-			path = generateReport(source, parser, latencyUnit, outputTimeZone, histogramIntervalPoints, percentilePoints, 
-									heatMapMaxIntervalPoints, heatMapSingleAreaWidth, colorRampScheme, outFile);
+		final String badLinesHtml;
+
+		try (final BadLineCollector badLines = createBadLineCollector(options);) {
+
+			if (follow) {
+
+				final FileFollower follower = new FileFollower(inFiles.get(0), parser, ingestThreads == null ? 1 : threadCount, badLines);
+
+				follow(	follower,
+						data,
+						badLines,
+						timeRange,
+						TimeUnit.SECONDS.toMillis(reportInterval),
+						followIdleTimeout == null ? -1 : TimeUnit.SECONDS.toMillis(followIdleTimeout.intValue()),
+						latencyUnit,
+						outputTimeZone,
+						latencyStatsToHtmlFunc,
+						outFile);
+				return;
+			}
+
+			if (checkpoint) {
+
+				ingestFromCheckpoint(	inFiles.get(0),
+										Paths.get(outFile + CHECKPOINT_FILE_SUFFIX),
+										describeParserOptions(parserName, parserOptions, parserProvider.getOptionNames()) + describeStatsOptions(data, options),
+										parser,
+										ingestThreads == null ? 1 : threadCount,
+										badLines,
+										data);
+
+			} else if (fromStdIn) {
+
+				// Reading the file descriptor directly, instead of System.in,
+				// lets the channel fill the whole line buffer in one call.
+				try (final FileInputStream stdIn = new FileInputStream(FileDescriptor.in);) {
+					ingest(stdIn.getChannel(), "<stdin>", parser, badLines, data);
+				}
+
+			} else if ((threadCount == 1) && (inFiles.size() == 1) && (timeRange == null)) {
+
+				final Path inPath = inFiles.get(0);
+
+				try (final ReadableByteChannel channel = CompressedInput.open(inPath);) {
+					ingest(channel, inPath.toString(), parser, badLines, data);
+				}
+
+			} else {
+				ParallelFileIngester.ingest(inFiles, parser, threadCount, badLines, timeRange, TimeUnit.SECONDS.toMillis(maxTimestampDisorder.intValue()), data);
+			}
+
+			if (badLines == null) {
+				badLinesHtml = null;
+			} else {
+				badLines.finish();
+				badLinesHtml = badLines.toHtml();
+
+				System.out.println("Lines that could not be parsed: " + badLines.getBadLineCount() + " of " + badLines.getLineCount());
+			}
 		}
 
+		final EventLatencyData reportData = ((timeRange == null) || (data.getTimeRange() != null)) ? data : data.subRange(timeRange);
+
+		final Path path = generateReport(reportData, latencyUnit, outputTimeZone, latencyStatsToHtmlFunc, badLinesHtml, outFile);
+
 		System.out.println("Report generated at <" + path + ">");
 	}
 
+	/**
+	 * Keeps parsing the lines appended to the file and re-writing the report,
+	 * till no data is appended for <code>idleTimeoutMillis</code>, or forever
+	 * if it is negative. When following stops, the last line of the file is
+	 * parsed even if it is not complete, unless it can not be parsed yet, and
+	 * the report is written once more.
+	 *
+	 * The report is written to a temporary file that is then renamed, so that
+	 * a reader of the report never sees a partially written one.
+	 *
+	 * @param data
+	 *            empty instance to which the records are added
+	 */
+	private static void follow(	final FileFollower follower,
+								final EventLatencyData data,
+								final BadLineCollector badLines,
+								final TimeRange timeRange,
+								final long reportIntervalMillis,
+								final long idleTimeoutMillis,
+								final TimeUnit latencyUnit,
+								final TimeZone outputTimeZone,
+								final LatencyStatsToHtmlFunc latencyStatsToHtmlFunc,
+								final String outFile) throws IOException, InterruptedException {
+
+		final Path outPath = Paths.get(outFile).toAbsolutePath();
+		final Path tmpPath = outPath.resolveSibling(outPath.getFileName() + ".tmp");
+
+		long lastDataTime = System.currentTimeMillis();
+
+		while (true) {
+
+			final long bytesParsed = follower.poll(data);
+			final long now = System.currentTimeMillis();
+
+			if (bytesParsed > 0) {
+
+				lastDataTime = now;
+
+				if (writeFollowedReport(data, badLines, timeRange, latencyUnit, outputTimeZone, latencyStatsToHtmlFunc, tmpPath, outPath)) {
+					System.out.println("Report updated at <" + outPath + ">. Parsed up to byte <" + follower.getOffset() + ">.");
+				}
+
+			} else if ((idleTimeoutMillis >= 0) && ((now - lastDataTime) >= idleTimeoutMillis)) {
+				System.out.println("No data appended for " + idleTimeoutMillis + " ms, hence stopped following the file.");
+
+				if (!follower.pollIncompleteLine(data)) {
+					System.out.println("The incomplete last line of the file could not be parsed, hence it is skipped.");
+				}
+
+				if (writeFollowedReport(data, badLines, timeRange, latencyUnit, outputTimeZone, latencyStatsToHtmlFunc, tmpPath, outPath)) {
+					System.out.println("Report updated at <" + outPath + ">.");
+				}
+
+				return;
+			}
+
+			Thread.sleep(reportIntervalMillis);
+		}
+	}
+
+	/**
+	 * Writes the report to <code>tmpPath</code> and then renames it to
+	 * <code>outPath</code>.
+	 *
+	 * @return <code>false</code> if there is no data to report, in which case
+	 *         the report is not written
+	 */
+	private static boolean writeFollowedReport(	final EventLatencyData data,
+												final BadLineCollector badLines,
+												final TimeRange timeRange,
+												final TimeUnit latencyUnit,
+												final TimeZone outputTimeZone,
+												final LatencyStatsToHtmlFunc latencyStatsToHtmlFunc,
+												final Path tmpPath,
+												final Path outPath) throws IOException {
+
+		String badLinesHtml = null;
+		if (badLines != null) {
+			badLines.finish();
+			badLinesHtml = badLines.toHtml();
+		}
+
+		final EventLatencyData reportData = ((timeRange == null) || (data.getTimeRange() != null)) ? data : data.subRange(timeRange);
+
+		if (reportData.isEmpty()) {
+			return false;
+		}
+
+		generateReport(reportData, latencyUnit, outputTimeZone, latencyStatsToHtmlFunc, badLinesHtml, tmpPath.toString());
+
+		try {
+			Files.move(tmpPath, outPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (final AtomicMoveNotSupportedException e) {
+			Files.move(tmpPath, outPath, StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Parses the file starting from the offset saved in the checkpoint, if the
+	 * file has only been appended to since the checkpoint was saved, else from
+	 * the beginning. Then saves a new checkpoint.
+	 *
+	 * The last line of the file is not included in the checkpoint if it is
+	 * not yet complete, since more may be written to it. It is included in
+	 * the report if it can be parsed.
+	 *
+	 * @param data
+	 *            empty instance to which the records are added
+	 */
+	private static void ingestFromCheckpoint(	final Path file,
+												final Path checkpointFile,
+												final String parserDescription,
+												final RecordParser parser,
+												final int threadCount,
+												final BadLineCollector badLines,
+												final EventLatencyData data) throws IOException {
+
+		final IngestionCheckpoint checkpoint = IngestionCheckpoint.load(checkpointFile);
+		final String notResumableReason = (checkpoint == null) ? null : checkpoint.checkResumable(file, parserDescription, badLines != null);
+
+		final long startOffset;
+
+		if ((checkpoint != null) && (notResumableReason == null)) {
+
+			data.merge(checkpoint.getData());
+			checkpoint.restoreBadLineCounts(badLines);
+			startOffset = checkpoint.getOffset();
+
+			System.out.println("Resuming from byte <" + startOffset + "> of <" + file + ">, as saved in checkpoint <" + checkpointFile + ">.");
+
+		} else {
+
+			startOffset = 0;
+
+			if (checkpoint != null) {
+				System.out.println("Checkpoint <" + checkpointFile + "> is not used, hence <" + file + "> will be parsed from the beginning. Reason: " + notResumableReason);
+			}
+		}
+
+		final FileFollower follower = new FileFollower(file, parser, threadCount, badLines, startOffset);
+		follower.poll(data);
+
+		IngestionCheckpoint.save(checkpointFile, file, follower.getOffset(), parserDescription, data, badLines);
+
+		if (!follower.pollIncompleteLine(data)) {
+			System.out.println("The incomplete last line of <" + file + "> could not be parsed, hence it is skipped.");
+		}
+	}
+
+	/**
+	 * @return the values of the options that affect the records parsed from a
+	 *         line
+	 */
+	private static String describeParserOptions(final String parserName, final Options parserOptions, final String[] optionNames) throws BadOptionsException {
+
+		final StringBuilder buf = new StringBuilder();
+		buf.append("parser=").append(parserName).append('\n');
+
+		for (final String optionName : optionNames) {
+			buf.append(optionName).append('=').append(parserOptions.getOptional(optionName, String.class, null)).append('\n');
+		}
+
+		return buf.toString();
+	}
+
+	/**
+	 * @return the values of the options that affect what is kept of the
+	 *         records, i.e. empty unless only their buckets are kept
+	 */
+	private static String describeStatsOptions(final EventLatencyData data, final Options options) throws BadOptionsException {
+
+		if (!data.isBucketed()) {
+			return "";
+		}
+
+		final String mode = (data.getSketchSize() == 0) ? 
+				"statsMode=" + STATS_MODE_BUCKETED + '\n' + "significantDigits=" + data.getSignificantDigits() + '\n' : 
+				"statsMode=" + STATS_MODE_SKETCH + '\n' + "sketchSize=" + data.getSketchSize() + '\n';
+
+		return mode + 
+				"fromTime=" + options.getOptional("fromTime", String.class, null) + '\n' + 
+				"toTime=" + options.getOptional("toTime", String.class, null) + '\n';
+	}
+
+	/**
+	 * Reads records one after another, in the current thread. The channel is
+	 * read through a fixed size buffer, hence memory used does not depend on
+	 * the size of the input, except for the records collected.
+	 *
+	 * @param data
+	 *            the records are added to it
+	 */
+	private static void ingest(	final ReadableByteChannel channel,
+								final String sourceName,
+								final RecordParser parser,
+								final BadLineCollector badLines,
+								final EventLatencyData data) {
+
+		try (final RecordIterator recordIterator = RecordIterator.create(channel, Charset.defaultCharset(), parser, badLines, sourceName);) {
+
+			final RecordBatch batch = data.newBatch();
+
+			while (recordIterator.nextBatch(batch) > 0) {
+				data.add(batch);
+				batch.clear();
+			}
+		}
+	}
+
+	/**
+	 * @return <code>null</code> if lenient parsing is not enabled
+	 */
+	private static BadLineCollector createBadLineCollector(final Options options) throws BadOptionsException, IOException {
+
+		final boolean lenient = options.getOptional("lenient", Boolean.class, Boolean.FALSE).booleanValue();
+		final Double maxBadLineRatio = options.getOptional("maxBadLineRatio", Double.class, null);
+		final String quarantineFile = options.getOptional("quarantineFile", String.class, null);
+		final Integer maxQuarantinedLines = options.getOptional("maxQuarantinedLines", Integer.class, Integer.valueOf(BadLineCollector.DEFAULT_MAX_QUARANTINED_LINES));
+
+		if (!lenient) {
+
+			if (maxBadLineRatio != null) {
+				throw BadOptionsException.illegalValue("maxBadLineRatio", "Can be specified only if option <lenient> is true.", null);
+			}
+
+			if (quarantineFile != null) {
+				throw BadOptionsException.illegalValue("quarantineFile", "Can be specified only if option <lenient> is true.", null);
+			}
+
+			return null;
+		}
+
+		if ((maxBadLineRatio != null) && !((maxBadLineRatio.doubleValue() >= 0) && (maxBadLineRatio.doubleValue() <= 1))) {
+			throw BadOptionsException.illegalValue("maxBadLineRatio", "Must be between 0 and 1.", null);
+		}
+
+		if (maxQuarantinedLines.intValue() < 0) {
+			throw BadOptionsException.illegalValue("maxQuarantinedLines", "Can not be negative.", null);
+		}
+
+		return BadLineCollector.create(maxBadLineRatio, quarantineFile == null ? null : Paths.get(quarantineFile), maxQuarantinedLines.intValue());
+	}
+
+	/**
+	 * @return <code>null</code> if neither <code>fromTime</code> nor
+	 *         <code>toTime</code> is specified
+	 */
+	private static TimeRange createTimeRange(final Options options, final TimeZone timeZone) throws BadOptionsException {
+
+		final Long fromTime = options.getOptionalTime("fromTime", timeZone);
+		final Long toTime = options.getOptionalTime("toTime", timeZone);
+
+		if ((fromTime == null) && (toTime == null)) {
+			return null;
+		}
+
+		try {
+			return TimeRange.create(fromTime, toTime);
+		} catch (final IllegalArgumentException e) {
+			throw BadOptionsException.illegalValue("toTime", "Must be after <fromTime>.", e);
+		}
+	}
+
 	public static Path generateReport(	final Reader source,
 										final RecordParser parser, 
 										final TimeUnit latencyUnit,
@@ -106,17 +567,28 @@ public final class LatencyReportGenerator {
 										final double heatMapSingleAreaWidth, 
 										final ColorRampScheme colorRampScheme, 
 										final String outputFilePath) throws IOException {
-		
-		final LatencyStatsToHtmlFunc latencyStatsToHtmlFunc = new LatencyStatsToHtmlFunc() {
+
+		final LatencyStatsToHtmlFunc latencyStatsToHtmlFunc =
+				createLatencyStatsToHtmlFunc(outputTimeZone, intervalPointsForLatencyHistogram, percentileKeys, maxIntervalPointsForLatencyDensity, heatMapSingleAreaWidth, colorRampScheme);
+
+		return generateReport(source, parser, latencyUnit, outputTimeZone, latencyStatsToHtmlFunc, outputFilePath);
+	}
+
+	private static LatencyStatsToHtmlFunc createLatencyStatsToHtmlFunc(	final TimeZone outputTimeZone,
+																		final double[] intervalPointsForLatencyHistogram,
+																		final double[] percentileKeys,
+																		final Integer maxIntervalPointsForLatencyDensity,
+																		final double heatMapSingleAreaWidth,
+																		final ColorRampScheme colorRampScheme) {
+
+		return new LatencyStatsToHtmlFunc() {
 			@Override
 			public String[] toHtml(final LatencyStats stats) {
 
-				final TimeSeriesLatencyDensity density = TimeSeriesLatencyDensity.create(stats.getLatencies(), stats.getTimestamps(), outputTimeZone, maxIntervalPointsForLatencyDensity);
+				final TimeSeriesLatencyDensity density = stats.createDensity(outputTimeZone, maxIntervalPointsForLatencyDensity);
 				return stats.toHtml(intervalPointsForLatencyHistogram, percentileKeys, density, heatMapSingleAreaWidth, colorRampScheme);
 			}
 		};
-
-		return generateReport(source, parser, latencyUnit, outputTimeZone, latencyStatsToHtmlFunc, outputFilePath);
 	}
 
 	public static Path generateReport(	final Reader source,
@@ -136,7 +608,7 @@ public final class LatencyReportGenerator {
 			@Override
 			public String[] toHtml(final LatencyStats stats) {
 
-				final TimeSeriesLatencyDensity density = TimeSeriesLatencyDensity.create(stats.getLatencies(), stats.getTimestamps(), outputTimeZone, minIntervalPointForLatencyDensity, maxIntervalPointForLatencyDensity, maxIntervalPointsForLatencyDensity);
+				final TimeSeriesLatencyDensity density = stats.createDensity(outputTimeZone, minIntervalPointForLatencyDensity, maxIntervalPointForLatencyDensity, maxIntervalPointsForLatencyDensity);
 				return stats.toHtml(intervalPointsForLatencyHistogram, percentileKeys, density, heatMapSingleAreaWidth, colorRampScheme);
 			}
 		};
@@ -164,11 +636,10 @@ public final class LatencyReportGenerator {
 				reportFilePath = generateReport(rawFile, latencyUnit, outputTimeZone, latencyStatsToHtmlFunc, outputFilePath);
 
 			} else {
-				final Map<String, List<TimestampAndLatency>> data = new TreeMap<>();
+				final EventLatencyData data = new EventLatencyData();
 
 				while (recordIterator.hasNext()) {
-					final Record record = recordIterator.next();
-					addRecord(record.getEventName(), record.getTimestamp(), record.getLatency(), data);
+					data.add(recordIterator.next());
 				}
 
 				reportFilePath = generateReport(data, latencyUnit, outputTimeZone, latencyStatsToHtmlFunc, outputFilePath);
@@ -187,15 +658,29 @@ public final class LatencyReportGenerator {
 		return generateReport(parseRawFile(rawDataFile), latencyUnit, outputTimeZone, latencyStatsToHtmlFunc, outputFilePath);
 	}
 
-	private static Path generateReport(	final Map<String, List<TimestampAndLatency>> data, 
+	private static Path generateReport(	final EventLatencyData data, 
 										final TimeUnit latencyUnit, 
 										final TimeZone outputTimeZone, 
 										final LatencyStatsToHtmlFunc latencyStatsToHtmlFunc, 
 										final String reportFilePath) throws IOException {
 
+		return generateReport(data, latencyUnit, outputTimeZone, latencyStatsToHtmlFunc, null, reportFilePath);
+	}
+
+	/**
+	 * @param headerHtml
+	 *            shown at the top of the report, if not <code>null</code>
+	 */
+	private static Path generateReport(	final EventLatencyData data, 
+										final TimeUnit latencyUnit, 
+										final TimeZone outputTimeZone, 
+										final LatencyStatsToHtmlFunc latencyStatsToHtmlFunc, 
+										final String headerHtml, 
+										final String reportFilePath) throws IOException {
+
 		final String NL = System.lineSeparator();
 
-		final List<TimestampAndLatency> latenciesSuperSet = new ArrayList<>();
+		final List<Stats> allStats = new ArrayList<>();
 
 		final StringBuilder linksHtml = new StringBuilder();
 		final StringBuilder contentsHtml = new StringBuilder();
@@ -220,11 +705,17 @@ public final class LatencyReportGenerator {
 
 		final TreeMap<Double, String> linkHtmlsSortedByMedian = new TreeMap<>();
 
-		for (final Entry<String, List<TimestampAndLatency>> entry : data.entrySet()) {
-			final String eventType = entry.getKey();
-			final List<TimestampAndLatency> latencies = entry.getValue();
+		if (data.isBucketed()) {
+			for (final Entry<String, LatencyBuckets> entry : data.asBucketsMap().entrySet()) {
+				allStats.add(Stats.create(entry.getValue(), latencyUnit, outputTimeZone, entry.getKey()));
+			}
+		} else {
+			for (final Entry<String, LatencySamples> entry : data.asMap().entrySet()) {
+				allStats.add(Stats.create(entry.getValue(), latencyUnit, outputTimeZone, entry.getKey()));
+			}
+		}
 
-			final Stats stats = Stats.create(latencies, latencyUnit, outputTimeZone, eventType);
+		for (final Stats stats : allStats) {
 			final LatencyStats latencyStats = stats.getLatencyStats();
 			final String[] h = latencyStatsToHtmlFunc.toHtml(latencyStats);
 
@@ -232,12 +723,10 @@ public final class LatencyReportGenerator {
 			contentsHtml.append("<br/><br/>").append(NL);
 			
 			linkHtmlsSortedByMedian.put(Double.valueOf(latencyStats.getMedian()), h[0]);
-
-			latenciesSuperSet.addAll(latencies);
 		}
 
 		{
-			final Stats stats = Stats.create(latenciesSuperSet, latencyUnit, outputTimeZone, "All APIs combined");
+			final Stats stats = Stats.combine(allStats, latencyUnit, "All APIs combined");
 			final LatencyStats latencyStats = stats.getLatencyStats();
 			final String[] h = latencyStatsToHtmlFunc.toHtml(latencyStats);
 
@@ -260,6 +749,12 @@ public final class LatencyReportGenerator {
 		perfStatsHtml.append("<html>").append(NL);
 		perfStatsHtml.append("<body>").append(NL);
 		perfStatsHtml.append(advertisementHtml).append(NL);
+		if (data.isBucketed()) {
+			perfStatsHtml.append(describeError(data)).append("<br></br>").append(NL);
+		}
+		if (headerHtml != null) {
+			perfStatsHtml.append(headerHtml).append(NL);
+		}
 		perfStatsHtml.append(linksHtml).append(NL);
 		perfStatsHtml.append(contentsHtml).append(NL);
 		perfStatsHtml.append("</html>").append(NL);
@@ -274,8 +769,28 @@ public final class LatencyReportGenerator {
 		 */
 	}
 
-	private static Map<String, List<TimestampAndLatency>> parseRawFile(final File rawFile) throws IOException, FileNotFoundException {
-		final Map<String, List<TimestampAndLatency>> data = new TreeMap<>();
+	/**
+	 * @return what the statistics are computed from, in bucketed and sketch
+	 *         modes, and their error bounds
+	 */
+	private static String describeError(final EventLatencyData data) {
+
+		final double heatMapError = new LogLinearHistogram(LatencyBuckets.TIME_SLOT_SIGNIFICANT_DIGITS).getRelativeError();
+		final String heatMapText = "heat maps from latency buckets with a relative error of at most " + LatencyStats.toDisplayString(heatMapError * 100) + "%.";
+
+		if (data.getSketchSize() == 0) {
+			final double relativeError = new LogLinearHistogram(data.getSignificantDigits()).getRelativeError();
+			return "Median, percentiles and histograms are computed from latency buckets with a relative error of at most "
+					+ LatencyStats.toDisplayString(relativeError * 100) + "%, and " + heatMapText;
+		}
+
+		final double rankError = KllSketch.getNormalizedRankError(data.getSketchSize());
+		return "Median, percentiles and histograms are estimated by a quantile sketch with a rank error of at most "
+				+ LatencyStats.toDisplayString(rankError * 100) + "% (99% confidence), and " + heatMapText;
+	}
+
+	private static EventLatencyData parseRawFile(final File rawFile) throws IOException, FileNotFoundException {
+		final EventLatencyData data = new EventLatencyData();
 
 		try (final FileInputStream fis = new FileInputStream(rawFile);
 				final BufferedInputStream bis = new BufferedInputStream(fis);
@@ -293,27 +808,13 @@ public final class LatencyReportGenerator {
 				final long timestamp = dis.readLong();
 				final double latency = dis.readDouble();
 
-				addRecord(eventType, timestamp, latency, data);
+				data.add(eventType, timestamp, latency);
 			}
 		}
 
 		return data;
 	}
 
-	private static void addRecord(	final String eventType, 
-									final long timestamp, 
-									final double latency, 
-									final Map<String, List<TimestampAndLatency>> data) {
-
-		List<TimestampAndLatency> list = data.get(eventType);
-		if (list == null) {
-			list = new ArrayList<>();
-			data.put(eventType, list);
-		}
-
-		list.add(new TimestampAndLatency(timestamp, latency));
-	}
-
 	private static File createRawFile(final RecordIterator recordIterator) throws IOException, FileNotFoundException {
 		
 		final String tmpIODir = System.getProperty("java.io.tmpdir");
@@ -364,20 +865,29 @@ public final class LatencyReportGenerator {
 
 	private static final class Stats {
 		
-		static Stats create(final List<TimestampAndLatency> latencyData, final TimeUnit latencyUnit, final TimeZone outputTimeZone, final String eventType) {
-			final int len = latencyData.size();
+		static Stats create(final LatencySamples samples, final TimeUnit latencyUnit, final TimeZone outputTimeZone, final String eventType) {
+			return new Stats(LatencyStats.create(samples, latencyUnit, eventType), VolumeStats.create(samples, outputTimeZone));
+		}
 
-			final double[] latencies = new double[len];
-			final long[] timestamps = new long[len];
+		static Stats create(final LatencyBuckets buckets, final TimeUnit latencyUnit, final TimeZone outputTimeZone, final String eventType) {
+			return new Stats(LatencyStats.create(buckets, latencyUnit, eventType), VolumeStats.create(buckets, outputTimeZone));
+		}
 
-			int i = 0;
-			for (final TimestampAndLatency datum : latencyData) {
-				latencies[i] = datum.latency;
-				timestamps[i] = datum.timestamp;
-				i++;
+		/**
+		 * Merges the statistics of <code>parts</code> instead of recomputing
+		 * them from a copy of all the samples.
+		 */
+		static Stats combine(final List<Stats> parts, final TimeUnit latencyUnit, final String eventType) {
+
+			final List<LatencyStats> latencyStats = new ArrayList<>(parts.size());
+			final List<VolumeStats> volumeStats = new ArrayList<>(parts.size());
+
+			for (final Stats part : parts) {
+				latencyStats.add(part.latencyStats);
+				volumeStats.add(part.volumeStats);
 			}
 
-			return new Stats(latencies, latencyUnit, timestamps, outputTimeZone, eventType);
+			return new Stats(LatencyStats.combine(latencyStats, latencyUnit, eventType), VolumeStats.combine(volumeStats));
 		}
 
 		private final LatencyStats latencyStats;
@@ -385,9 +895,9 @@ public final class LatencyReportGenerator {
 		// TODO - include volume stats in the report
 		private final VolumeStats volumeStats;
 
-		Stats(final double[] latencies, final TimeUnit latencyUnit, final long[] timestamps, final TimeZone outputTimeZone, final String eventType) {
-			this.latencyStats = LatencyStats.create(latencies, latencyUnit, timestamps, eventType);
-			this.volumeStats = VolumeStats.create(timestamps, outputTimeZone);
+		private Stats(final LatencyStats latencyStats, final VolumeStats volumeStats) {
+			this.latencyStats = latencyStats;
+			this.volumeStats = volumeStats;
 		}
 
 		LatencyStats getLatencyStats() {
@@ -409,17 +919,29 @@ public final class LatencyReportGenerator {
 		}
 
 		void add(final long millis) {
+			add(millis, 1);
+		}
+
+		void add(final long millis, final int count) {
 			if ((millis < 0) || (millis > MILLIS_IN_A_DAY)) {
 				throw new IllegalArgumentException("" + millis);
 			}
 
 			final int hour = (int) TimeUnit.MILLISECONDS.toHours(millis);
 
-			final int newCount = this.hourlyTrxCount[hour] + 1;
+			final int newCount = this.hourlyTrxCount[hour] + count;
 
 			this.hourlyTrxCount[hour] = newCount;
 
-			this.totalTrxCount++;
+			this.totalTrxCount += count;
+		}
+
+		void addAll(final DailyVolumeStats other) {
+			for (int hour = 0; hour < this.hourlyTrxCount.length; hour++) {
+				this.hourlyTrxCount[hour] += other.hourlyTrxCount[hour];
+			}
+
+			this.totalTrxCount += other.totalTrxCount;
 		}
 
 		@Override
@@ -485,21 +1007,78 @@ public final class LatencyReportGenerator {
 
 	private static final class VolumeStats {
 		
-		static VolumeStats create(final long[] timestamps, final TimeZone outputTimeZone) {
-			return new VolumeStats(timestamps, outputTimeZone);
+		static VolumeStats create(final LatencySamples samples, final TimeZone outputTimeZone) {
+			return new VolumeStats(samples, outputTimeZone);
+		}
+
+		/**
+		 * Each time slot of <code>buckets</code> is counted in the hour it
+		 * starts in. Time slots do not cross hour boundaries of any time zone
+		 * whose offset is a multiple of {@linkplain LatencyBuckets#TIME_SLOT_MILLIS}.
+		 */
+		static VolumeStats create(final LatencyBuckets buckets, final TimeZone outputTimeZone) {
+
+			final VolumeStats stats = new VolumeStats();
+
+			for (final Entry<Long, LogLinearHistogram> e : buckets.getLatenciesByTimeSlot().entrySet()) {
+
+				final long count = e.getValue().getTotalCount();
+
+				if (count > Integer.MAX_VALUE) {
+					throw new ArithmeticException("Too many events in time slot " + e.getKey() + ": " + count);
+				}
+
+				stats.add(e.getKey().longValue(), outputTimeZone, (int) count);
+			}
+
+			return stats;
+		}
+
+		static VolumeStats combine(final List<VolumeStats> parts) {
+			
+			final VolumeStats combined = new VolumeStats();
+
+			for (final VolumeStats part : parts) {
+				for (final DailyVolumeStats partStats : part.data.values()) {
+
+					DailyVolumeStats stats = combined.data.get(partStats.day);
+
+					if (stats == null) {
+						stats = new DailyVolumeStats(partStats.day);
+						combined.data.put(partStats.day, stats);
+					}
+
+					stats.addAll(partStats);
+				}
+			}
+
+			return combined;
 		}
 
 		private final Map<Long, DailyVolumeStats> data;
 
-		private VolumeStats(final long[] timestamps, final TimeZone outputTimeZone) {
+		private VolumeStats() {
 			this.data = new HashMap<>();
+		}
 
-			for (final long ts : timestamps) {
-				add(ts, outputTimeZone);
+		private VolumeStats(final LatencySamples samples, final TimeZone outputTimeZone) {
+			this();
+
+			for (int chunk = 0, n = samples.chunkCount(); chunk < n; chunk++) {
+
+				final long[] timestamps = samples.timestampChunk(chunk);
+
+				for (int i = 0, len = samples.chunkSize(chunk); i < len; i++) {
+					add(timestamps[i], outputTimeZone);
+				}
 			}
 		}
 
 		private void add(final long timestamp, final TimeZone outputTimeZone) {
+			add(timestamp, outputTimeZone, 1);
+		}
+
+		private void add(final long timestamp, final TimeZone outputTimeZone, final int count) {
 			
 			//TODO - Utils.getStartOfDay(..) create a new Calendar object per call. Optimization needed.
 			final Long startOfDay = Utils.getStartOfDay(timestamp, outputTimeZone);
@@ -511,7 +1090,7 @@ public final class LatencyReportGenerator {
 				this.data.put(startOfDay, stats);
 			}
 
-			stats.add(timestamp - startOfDay.longValue());
+			stats.add(timestamp - startOfDay.longValue(), count);
 		}
 
 		@Override
@@ -542,8 +1121,47 @@ public final class LatencyReportGenerator {
 	 */
 	private static final class LatencyStats {
 		
-		static LatencyStats create(final double[] latencies, final TimeUnit latencyUnit, final long[] timestamps, final String eventType) {
-			return new LatencyStats(latencies, latencyUnit, timestamps, eventType);
+		static LatencyStats create(final LatencySamples samples, final TimeUnit latencyUnit, final String eventType) {
+			return new LatencyStats(Collections.singletonList(samples), samples.moments(), samples.sortedLatencies(), latencyUnit, eventType);
+		}
+
+		static LatencyStats create(final LatencyBuckets buckets, final TimeUnit latencyUnit, final String eventType) {
+			return new LatencyStats(buckets, latencyUnit, eventType);
+		}
+
+		/**
+		 * Creates the statistics of the union of the samples of
+		 * <code>parts</code> from their moments and sorted latencies, without
+		 * copying the samples. Bucketed parts are merged bucket by bucket.
+		 */
+		static LatencyStats combine(final List<LatencyStats> parts, final TimeUnit latencyUnit, final String eventType) {
+
+			if (parts.isEmpty()) {
+				return create(new LatencySamples(), latencyUnit, eventType);
+			}
+
+			if (parts.get(0).buckets != null) {
+
+				final LatencyBuckets buckets = parts.get(0).buckets.newEmpty();
+
+				for (final LatencyStats part : parts) {
+					buckets.addAll(part.buckets);
+				}
+
+				return create(buckets, latencyUnit, eventType);
+			}
+
+			final List<LatencySamples> samples = new ArrayList<>();
+			final List<double[]> sortedLatencies = new ArrayList<>();
+			final Moments moments = new Moments();
+
+			for (final LatencyStats part : parts) {
+				samples.addAll(part.samples);
+				sortedLatencies.add(part.sortedLatencies);
+				moments.addAll(part.moments);
+			}
+
+			return new LatencyStats(samples, moments, Utils.mergeSorted(sortedLatencies), latencyUnit, eventType);
 		}
 
 		// TODO - check correctness
@@ -552,40 +1170,45 @@ public final class LatencyReportGenerator {
 			final int[] outlierIndices = stats.getZScoreOutliers(outlierThreshold).getIndices();
 			final int outlierCount = outlierIndices.length;
 
-			final double[] latencies = stats.getLatencies();
-			final long[] timestamps = stats.getTimestamps();
+			final LatencySamples samplesWithoutOutliers = new LatencySamples();
 
-			final int maxCount = latencies.length;
-			double[] latenciesWithoutOutliers = new double[maxCount];
-			long[] timestampsWithoutOutliers = new long[maxCount];
-			int count = 0;
 			int k = 0;
+			int i = 0;
+
+			for (final LatencySamples samples : stats.getSamples()) {
+				for (int chunk = 0, n = samples.chunkCount(); chunk < n; chunk++) {
 
-			int nextOutlierIndex = (k >= outlierCount) ? Integer.MIN_VALUE : outlierIndices[k];
-			k++;
-
-			for (int i = 0; i < maxCount; i++) {
-				if (i == nextOutlierIndex) {
-					nextOutlierIndex = (k >= outlierCount) ? Integer.MIN_VALUE : outlierIndices[k];
-					k++;
-				} else {
-					latenciesWithoutOutliers[count] = latencies[i];
-					timestampsWithoutOutliers[count] = timestamps[i];
-					count++;
+					final long[] timestamps = samples.timestampChunk(chunk);
+					final double[] latencies = samples.latencyChunk(chunk);
+
+					for (int j = 0, len = samples.chunkSize(chunk); j < len; j++, i++) {
+						if ((k < outlierCount) && (i == outlierIndices[k])) {
+							k++;
+						} else {
+							samplesWithoutOutliers.add(timestamps[j], latencies[j]);
+						}
+					}
 				}
 			}
 
-			latenciesWithoutOutliers = Arrays.copyOf(latenciesWithoutOutliers, count);
-			timestampsWithoutOutliers = Arrays.copyOf(timestampsWithoutOutliers, count);
-
-			return LatencyStats.create(latenciesWithoutOutliers, stats.getLatencyUnit(), timestampsWithoutOutliers, stats.getEventType());
+			return LatencyStats.create(samplesWithoutOutliers, stats.getLatencyUnit(), stats.getEventType());
 		}
 
-		private final double[] latencies;
-		private final TimeUnit latencyUnit;
-		private final long[] timestamps;
+		/**
+		 * Not copied. Only the sorted latencies are. Both are
+		 * <code>null</code> if the latencies are bucketed.
+		 */
+		private final List<LatencySamples> samples;
 		private final double[] sortedLatencies;
-		private final int sampleCount;
+
+		/**
+		 * Not copied. <code>null</code> unless the latencies are bucketed.
+		 */
+		private final LatencyBuckets buckets;
+
+		private final TimeUnit latencyUnit;
+		private final Moments moments;
+		private final long sampleCount;
 		private final double min;
 		private final double max;
 		private final double mean;
@@ -614,78 +1237,110 @@ public final class LatencyReportGenerator {
 		 */
 		private final double excessKurtosis;
 
-		private final double[] zscores;
 		private final String eventType;
 
-		private LatencyStats(final double[] latencies, final TimeUnit latencyUnit, final long[] timestamps, final String eventType) {
-			
-			final int n = latencies.length;
+		private LatencyStats(final List<LatencySamples> samples, final Moments moments, final double[] sortedLatencies, final TimeUnit latencyUnit, final String eventType) {
+			this(samples, sortedLatencies, null, moments, Utils.getMedian(sortedLatencies), latencyUnit, eventType);
+		}
 
-			final double sum = Utils.sum(latencies);
-			final double mean = sum / n;
+		private LatencyStats(final LatencyBuckets buckets, final TimeUnit latencyUnit, final String eventType) {
+			this(null, null, buckets, buckets.getMoments(), Utils.getMedian(buckets.getLatencies()), latencyUnit, eventType);
+		}
 
-			final double[] minMax = Utils.minMax(latencies);
-			final double min = minMax[0];
-			final double max = minMax[1];
+		private LatencyStats(	final List<LatencySamples> samples,
+								final double[] sortedLatencies,
+								final LatencyBuckets buckets,
+								final Moments moments,
+								final double median,
+								final TimeUnit latencyUnit,
+								final String eventType) {
+
+			final double kurtosis = moments.getKurtosis();
+
+			this.sampleCount = moments.getCount();
+			this.samples = samples;
+			this.sortedLatencies = sortedLatencies;
+			this.buckets = buckets;
+			this.moments = moments;
+			this.latencyUnit = latencyUnit;
+			this.min = moments.getMin();
+			this.max = moments.getMax();
+			this.mean = moments.getMean();
+			this.median = median;
+			this.stdDeviation = moments.getStdDeviation();
+			this.variance = moments.getVariance();
+			this.skewness = moments.getSkewness();
+			this.kurtosis = kurtosis;
+			this.excessKurtosis = kurtosis - 3;
+			this.eventType = eventType;
+		}
 
-			double s1 = 0;
-			double s2 = 0;
-			double s3 = 0;
-			
-			for (final double latency : latencies) {
-				
-				final double diff = latency - mean;
+		/**
+		 * Z-scores are computed on each call, since they are rarely needed.
+		 * Not supported if the latencies are bucketed.
+		 */
+		Outliers getZScoreOutliers(final double threshold) {
 
-				s1 += Math.pow(diff, 2);
-				s2 += Math.pow(diff, 3);
-				s3 += Math.pow(diff, 4);
+			if (this.samples == null) {
+				throw new UnsupportedOperationException("Latencies are bucketed");
 			}
 
-			final double variance = s1 / n;
-			final double thirdMoment = s2 / n;
-			final double fourthMoment = s3 / n;
+			final double[] zscores = new double[(int) this.sampleCount];
+			final double[] latencies = new double[(int) this.sampleCount];
 
-			final double skewness = thirdMoment / Math.pow(variance, 1.5);
-			final double kurtosis = fourthMoment / Math.pow(variance, 2);
-			final double excessKurtosis = kurtosis - 3;
+			int i = 0;
 
-			final double stdDeviation = Math.sqrt(s1 / (n - 1));
-			final double[] sorted = Utils.sort(latencies);
-			final double median = Utils.getMedian(sorted);
+			for (final LatencySamples samples : this.samples) {
+				for (int chunk = 0, n = samples.chunkCount(); chunk < n; chunk++) {
 
-			final double[] zscores = Utils.zScores(latencies, mean, stdDeviation);
+					final double[] chunkLatencies = samples.latencyChunk(chunk);
 
-			this.sampleCount = n;
-			this.latencies = latencies;
-			this.sortedLatencies = sorted;
-			this.latencyUnit = latencyUnit;
-			this.timestamps = timestamps;
-			this.min = min;
-			this.max = max;
-			this.mean = mean;
-			this.median = median;
-			this.stdDeviation = stdDeviation;
-			this.variance = variance;
-			this.skewness = skewness;
-			this.kurtosis = kurtosis;
-			this.excessKurtosis = excessKurtosis;
-			this.zscores = zscores;
-			this.eventType = eventType;
-		}
+					for (int j = 0, len = samples.chunkSize(chunk); j < len; j++, i++) {
+						final double latency = chunkLatencies[j];
+						latencies[i] = latency;
+						zscores[i] = (latency - this.mean) / this.stdDeviation;
+					}
+				}
+			}
 
-		Outliers getZScoreOutliers(final double threshold) {
-			final int[] indices = Utils.getIndicesOfValuesGreaterThan(threshold, this.zscores);
-			return new Outliers(indices, Utils.getValuesForIndices(indices, this.latencies), Utils.getValuesForIndices(indices, this.zscores));
+			final int[] indices = Utils.getIndicesOfValuesGreaterThan(threshold, zscores);
+
+			return new Outliers(indices, Utils.getValuesForIndices(indices, latencies), Utils.getValuesForIndices(indices, zscores));
 		}
 
+		/**
+		 * The histogram does not depend on the order of the latencies, hence
+		 * it is counted from the sorted ones, by binary search of the interval
+		 * points.
+		 */
 		private Histogram<Double> createHistogram(final double[] intervalPoints) {
-			return Histogram.create(this.latencies, intervalPoints);
+			if (this.buckets != null) {
+				return Histogram.create(this.buckets.getLatencies(), intervalPoints);
+			}
+			return Histogram.createFromSorted(this.sortedLatencies, intervalPoints);
 		}
 
 		private Percentiles getPercentiles(final double[] keys) {
+			if (this.buckets != null) {
+				return Utils.getPercentiles(this.buckets.getLatencies(), keys, Utils.toShortForm(this.latencyUnit));
+			}
 			return Utils.getPercentiles(this.sortedLatencies, keys, Utils.toShortForm(this.latencyUnit));
 		}
 
+		TimeSeriesLatencyDensity createDensity(final TimeZone outputTimeZone, final Integer maxIntervalPoints) {
+			if (this.buckets != null) {
+				return TimeSeriesLatencyDensity.create(this.buckets, outputTimeZone, maxIntervalPoints);
+			}
+			return TimeSeriesLatencyDensity.create(this.samples, outputTimeZone, maxIntervalPoints);
+		}
+
+		TimeSeriesLatencyDensity createDensity(final TimeZone outputTimeZone, final double minIntervalPoint, final double maxIntervalPoint, final Integer maxIntervalPoints) {
+			if (this.buckets != null) {
+				return TimeSeriesLatencyDensity.create(this.buckets, outputTimeZone, minIntervalPoint, maxIntervalPoint, maxIntervalPoints);
+			}
+			return TimeSeriesLatencyDensity.create(this.samples, outputTimeZone, minIntervalPoint, maxIntervalPoint, maxIntervalPoints);
+		}
+
 		private String getShortSummary() {
 			
 			final String NL = System.lineSeparator();
@@ -774,18 +1429,14 @@ public final class LatencyReportGenerator {
 			return html;
 		}
 
-		double[] getLatencies() {
-			return this.latencies;
+		List<LatencySamples> getSamples() {
+			return this.samples;
 		}
 		
 		TimeUnit getLatencyUnit() {
 			return this.latencyUnit;
 		}
 
-		long[] getTimestamps() {
-			return this.timestamps;
-		}
-
 		String getEventType() {
 			return this.eventType;
 		}
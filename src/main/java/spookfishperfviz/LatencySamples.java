@@ -0,0 +1,314 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Timestamps and latencies of the samples of an event, stored in columns of
+ * primitive arrays, i.e. 16 bytes per sample.
+ *
+ * The columns are split into chunks of at most {@linkplain #CHUNK_SIZE}
+ * samples. Hence adding a sample never copies more than one chunk. Only the
+ * last chunk grows, starting small, so that events having few samples use
+ * little memory.
+ *
+ * The samples of another instance are {@linkplain #moveAll(LatencySamples)
+ * moved} by taking over its chunks, without copying them, hence chunks other
+ * than the last one may be partly filled, and may have up to about half of
+ * their length unused.
+ *
+ * The samples are read in place, a chunk at a time, without copying them to
+ * other arrays.
+ *
+ * Not thread-safe.
+ *
+ * @author Rahul Bakale
+ * @since Nov, 2014
+ */
+final class LatencySamples {
+
+	static final int CHUNK_SIZE = 1 << 16;
+
+	private static final int INITIAL_CHUNK_CAPACITY = 16;
+
+	/**
+	 * A chunk of another instance having fewer samples than this is copied
+	 * into the last chunk, if they fit in it, instead of being taken over,
+	 * so that moving many small instances does not leave many small chunks.
+	 */
+	private static final int MIN_MOVED_CHUNK_SIZE = CHUNK_SIZE / 16;
+
+	private long[][] timestampChunks;
+	private double[][] latencyChunks;
+
+	/**
+	 * Number of samples in each chunk
+	 */
+	private int[] chunkSizes;
+	private int chunkCount;
+
+	private int size;
+
+	/**
+	 * Updated as samples are added.
+	 */
+	private final Moments moments;
+
+	LatencySamples() {
+		this.timestampChunks = new long[1][];
+		this.latencyChunks = new double[1][];
+		this.chunkSizes = new int[1];
+		this.moments = new Moments();
+	}
+
+	int size() {
+		return this.size;
+	}
+
+	int chunkCount() {
+		return this.chunkCount;
+	}
+
+	/**
+	 * @return number of samples in the chunk
+	 */
+	int chunkSize(final int chunk) {
+		return this.chunkSizes[chunk];
+	}
+
+	/**
+	 * @return the chunk itself, which must not be modified. Only the first
+	 *         {@linkplain #chunkSize(int)} elements are samples.
+	 */
+	long[] timestampChunk(final int chunk) {
+		return this.timestampChunks[chunk];
+	}
+
+	/**
+	 * @return the chunk itself, which must not be modified. Only the first
+	 *         {@linkplain #chunkSize(int)} elements are samples.
+	 */
+	double[] latencyChunk(final int chunk) {
+		return this.latencyChunks[chunk];
+	}
+
+	void add(final long timestamp, final double latency) {
+
+		int chunk = this.chunkCount - 1;
+
+		if ((chunk < 0) || (this.chunkSizes[chunk] == this.timestampChunks[chunk].length)) {
+			chunk = ensureCapacity(1);
+		}
+
+		final int offset = this.chunkSizes[chunk];
+
+		this.timestampChunks[chunk][offset] = timestamp;
+		this.latencyChunks[chunk][offset] = latency;
+		this.chunkSizes[chunk] = offset + 1;
+		this.size++;
+
+		this.moments.add(latency);
+	}
+
+	/**
+	 * Appends all the samples of <code>other</code>, in their order. Its
+	 * chunks are taken over, except small ones, which are copied, hence
+	 * <code>other</code> must not be used afterwards.
+	 */
+	void moveAll(final LatencySamples other) {
+
+		this.moments.addAll(other.moments);
+
+		for (int otherChunk = 0; otherChunk < other.chunkCount; otherChunk++) {
+
+			final int otherChunkSize = other.chunkSizes[otherChunk];
+			final int last = this.chunkCount - 1;
+
+			if ((otherChunkSize < MIN_MOVED_CHUNK_SIZE) && (last >= 0) && ((this.chunkSizes[last] + otherChunkSize) <= CHUNK_SIZE)) {
+
+				ensureCapacity(otherChunkSize);
+
+				final int offset = this.chunkSizes[last];
+
+				System.arraycopy(other.timestampChunks[otherChunk], 0, this.timestampChunks[last], offset, otherChunkSize);
+				System.arraycopy(other.latencyChunks[otherChunk], 0, this.latencyChunks[last], offset, otherChunkSize);
+				this.chunkSizes[last] = offset + otherChunkSize;
+
+			} else {
+				appendChunk(other.timestampChunks[otherChunk], other.latencyChunks[otherChunk], otherChunkSize);
+			}
+
+			this.size += otherChunkSize;
+		}
+	}
+
+	/**
+	 * @return new array having the latencies in ascending order
+	 */
+	double[] sortedLatencies() {
+
+		final double[] sorted = new double[this.size];
+
+		int offset = 0;
+
+		for (int chunk = 0; chunk < this.chunkCount; chunk++) {
+			System.arraycopy(this.latencyChunks[chunk], 0, sorted, offset, this.chunkSizes[chunk]);
+			offset += this.chunkSizes[chunk];
+		}
+
+		Arrays.sort(sorted);
+
+		return sorted;
+	}
+
+	/**
+	 * @return the moments of the latencies, which must not be modified
+	 */
+	Moments moments() {
+		return this.moments;
+	}
+
+	/**
+	 * @return minimum and maximum latency, computed like
+	 *         {@linkplain Utils#minMax(double[])}
+	 */
+	double[] minMaxLatency() {
+		return new double[] { this.moments.getMin(), this.moments.getMax() };
+	}
+
+	/**
+	 * @return minimum and maximum timestamp
+	 */
+	long[] minMaxTimestamp() {
+
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+
+		for (int chunk = 0, n = chunkCount(); chunk < n; chunk++) {
+
+			final long[] timestamps = this.timestampChunks[chunk];
+
+			for (int i = 0, len = chunkSize(chunk); i < len; i++) {
+
+				final long t = timestamps[i];
+
+				if (t < min) {
+					min = t;
+				}
+
+				if (t > max) {
+					max = t;
+				}
+			}
+		}
+
+		return new long[] { min, max };
+	}
+
+	/**
+	 * @return minimum and maximum latency of all of <code>parts</code>,
+	 *         computed like {@linkplain #minMaxLatency()}
+	 */
+	static double[] minMaxLatency(final List<LatencySamples> parts) {
+
+		double min = Double.MAX_VALUE;
+		double max = Double.MIN_VALUE;
+
+		for (final LatencySamples part : parts) {
+
+			final double[] minMax = part.minMaxLatency();
+
+			min = Math.min(min, minMax[0]);
+			max = Math.max(max, minMax[1]);
+		}
+
+		return new double[] { min, max };
+	}
+
+	/**
+	 * @return minimum and maximum timestamp of all of <code>parts</code>
+	 */
+	static long[] minMaxTimestamp(final List<LatencySamples> parts) {
+
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+
+		for (final LatencySamples part : parts) {
+
+			final long[] minMax = part.minMaxTimestamp();
+
+			min = Math.min(min, minMax[0]);
+			max = Math.max(max, minMax[1]);
+		}
+
+		return new long[] { min, max };
+	}
+
+	/**
+	 * Grows the last chunk, or appends a new one if it is full, so that
+	 * <code>count</code> more samples can be added to it. <code>count</code>
+	 * must not be more than {@linkplain #CHUNK_SIZE}, nor, if the last chunk
+	 * is not full, than the room left in it.
+	 *
+	 * @return index of the chunk
+	 */
+	private int ensureCapacity(final int count) {
+
+		final int last = this.chunkCount - 1;
+
+		if ((last < 0) || (this.chunkSizes[last] == CHUNK_SIZE)) {
+			final int length = Math.min(CHUNK_SIZE, Math.max(INITIAL_CHUNK_CAPACITY, count));
+			return appendChunk(new long[length], new double[length], 0);
+		}
+
+		final long[] timestamps = this.timestampChunks[last];
+		final int required = this.chunkSizes[last] + count;
+
+		if (timestamps.length < required) {
+			final int length = Math.min(CHUNK_SIZE, Math.max(timestamps.length * 2, required));
+			this.timestampChunks[last] = Arrays.copyOf(timestamps, length);
+			this.latencyChunks[last] = Arrays.copyOf(this.latencyChunks[last], length);
+		}
+
+		return last;
+	}
+
+	/**
+	 * @return index of the chunk
+	 */
+	private int appendChunk(final long[] timestamps, final double[] latencies, final int chunkSize) {
+
+		final int chunk = this.chunkCount;
+
+		if (chunk == this.timestampChunks.length) {
+			final int newLength = chunk * 2;
+			this.timestampChunks = Arrays.copyOf(this.timestampChunks, newLength);
+			this.latencyChunks = Arrays.copyOf(this.latencyChunks, newLength);
+			this.chunkSizes = Arrays.copyOf(this.chunkSizes, newLength);
+		}
+
+		this.timestampChunks[chunk] = timestamps;
+		this.latencyChunks[chunk] = latencies;
+		this.chunkSizes[chunk] = chunkSize;
+		this.chunkCount = chunk + 1;
+
+		return chunk;
+	}
+}
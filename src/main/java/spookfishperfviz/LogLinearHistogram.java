@@ -0,0 +1,448 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Histogram of non-negative values in log-linear buckets, in the manner of
+ * HdrHistogram. The range <code>[2^e, 2^(e+1))</code> of each binary exponent
+ * <code>e</code> is split into <code>2^s</code> buckets of equal width, where
+ * <code>2^s</code> is the smallest power of 2 not less than
+ * <code>10^significantDigits</code>. Values below
+ * {@linkplain Double#MIN_NORMAL}, i.e. 0 in practice, have a bucket of their
+ * own.
+ *
+ * A value is represented by the midpoint of its bucket, hence its relative
+ * error is at most <code>2^-(s+1)</code>, i.e. at most half of
+ * <code>10^-significantDigits</code>. The count, minimum and maximum are
+ * exact.
+ *
+ * The counts of the buckets of an exponent are held in a <code>long[]</code>
+ * allocated when the first value having that exponent is recorded. Hence
+ * recording a value is O(1), and the memory used depends on the range of the
+ * values and on <code>significantDigits</code>, but not on the number of
+ * values.
+ *
+ * Histograms having the same number of significant digits can be
+ * {@linkplain #add(LogLinearHistogram) merged}, and are
+ * {@linkplain #writeTo(DataOutput) written} to and
+ * {@linkplain #readFrom(DataInput) read} from streams in a compact form that
+ * has only the non-empty buckets.
+ *
+ * Not thread-safe.
+ *
+ * @see http://hdrhistogram.org
+ *
+ * @author Rahul Bakale
+ * @since Nov, 2014
+ */
+final class LogLinearHistogram implements ApproximateDistribution {
+
+	static final int MAX_SIGNIFICANT_DIGITS = 5;
+
+	private static final int MANTISSA_BITS = 52;
+
+	private final int significantDigits;
+	private final int subBucketBits;
+
+	/**
+	 * Counts by biased exponent minus {@linkplain #exponentOffset}. An element
+	 * is <code>null</code> if no value having that exponent is recorded.
+	 */
+	private long[][] counts;
+	private int exponentOffset;
+
+	private long zeroCount;
+	private long totalCount;
+	private double min = Double.MAX_VALUE;
+	private double max = -Double.MAX_VALUE;
+
+	LogLinearHistogram(final int significantDigits) {
+
+		if ((significantDigits < 1) || (significantDigits > MAX_SIGNIFICANT_DIGITS)) {
+			throw new IllegalArgumentException("significantDigits = <" + significantDigits + ">");
+		}
+
+		this.significantDigits = significantDigits;
+		this.subBucketBits = 64 - Long.numberOfLeadingZeros((long) Math.pow(10, significantDigits) - 1);
+		this.counts = new long[0][];
+	}
+
+	int getSignificantDigits() {
+		return this.significantDigits;
+	}
+
+	/**
+	 * @return upper bound of the relative error of a value read from this
+	 *         histogram
+	 */
+	double getRelativeError() {
+		return Math.scalb(1.0, -(this.subBucketBits + 1));
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if <code>value</code> is negative, infinite or NaN
+	 */
+	void record(final double value) {
+		record(value, 1);
+	}
+
+	private void record(final double value, final long count) {
+
+		if (!((value >= 0) && (value < Double.POSITIVE_INFINITY))) {
+			throw new IllegalArgumentException("Only finite non-negative values can be recorded: <" + value + ">");
+		}
+
+		if (value < Double.MIN_NORMAL) {
+			this.zeroCount += count;
+		} else {
+			final long bits = Double.doubleToRawLongBits(value);
+			final int exponent = (int) (bits >>> MANTISSA_BITS);
+			final int subBucket = (int) (bits >>> (MANTISSA_BITS - this.subBucketBits)) & ((1 << this.subBucketBits) - 1);
+
+			countsOf(exponent)[subBucket] += count;
+		}
+
+		this.totalCount += count;
+
+		if (value < this.min) {
+			this.min = value;
+		}
+
+		if (value > this.max) {
+			this.max = value;
+		}
+	}
+
+	/**
+	 * @return counts of the biased exponent, allocated if needed
+	 */
+	private long[] countsOf(final int exponent) {
+
+		long[][] counts = this.counts;
+
+		if (counts.length == 0) {
+			counts = new long[1][];
+			this.exponentOffset = exponent;
+		} else if (exponent < this.exponentOffset) {
+			final int shift = this.exponentOffset - exponent;
+			final long[][] shifted = new long[counts.length + shift][];
+			System.arraycopy(counts, 0, shifted, shift, counts.length);
+			counts = shifted;
+			this.exponentOffset = exponent;
+		} else if ((exponent - this.exponentOffset) >= counts.length) {
+			counts = Arrays.copyOf(counts, (exponent - this.exponentOffset) + 1);
+		}
+
+		this.counts = counts;
+
+		final int index = exponent - this.exponentOffset;
+
+		long[] exponentCounts = counts[index];
+		if (exponentCounts == null) {
+			exponentCounts = new long[1 << this.subBucketBits];
+			counts[index] = exponentCounts;
+		}
+
+		return exponentCounts;
+	}
+
+	/**
+	 * Adds the counts of <code>other</code> to this histogram.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the histograms have different numbers of significant
+	 *             digits
+	 */
+	void add(final LogLinearHistogram other) {
+
+		if (other.significantDigits != this.significantDigits) {
+			throw new IllegalArgumentException("significantDigits = <" + this.significantDigits + ">, other = <" + other.significantDigits + ">");
+		}
+
+		if (other.totalCount == 0) {
+			return;
+		}
+
+		for (int index = 0; index < other.counts.length; index++) {
+
+			final long[] otherCounts = other.counts[index];
+			if (otherCounts == null) {
+				continue;
+			}
+
+			final long[] counts = countsOf(index + other.exponentOffset);
+			for (int subBucket = 0; subBucket < otherCounts.length; subBucket++) {
+				counts[subBucket] += otherCounts[subBucket];
+			}
+		}
+
+		this.zeroCount += other.zeroCount;
+		this.totalCount += other.totalCount;
+		this.min = Math.min(this.min, other.min);
+		this.max = Math.max(this.max, other.max);
+	}
+
+	@Override
+	public long getTotalCount() {
+		return this.totalCount;
+	}
+
+	/**
+	 * @return exact minimum, or <code>Double.MAX_VALUE</code> if the histogram
+	 *         is empty
+	 */
+	@Override
+	public double getMin() {
+		return this.min;
+	}
+
+	/**
+	 * @return exact maximum, or <code>-Double.MAX_VALUE</code> if the
+	 *         histogram is empty
+	 */
+	@Override
+	public double getMax() {
+		return this.max;
+	}
+
+	/**
+	 * @return number of buckets, empty or not, in the order of their values.
+	 *         The first one is the bucket of values below
+	 *         {@linkplain Double#MIN_NORMAL}.
+	 */
+	@Override
+	public int getBucketCount() {
+		return 1 + (this.counts.length << this.subBucketBits);
+	}
+
+	@Override
+	public long getCount(final int bucket) {
+
+		if (bucket == 0) {
+			return this.zeroCount;
+		}
+
+		final long[] counts = this.counts[(bucket - 1) >>> this.subBucketBits];
+
+		return counts == null ? 0 : counts[(bucket - 1) & ((1 << this.subBucketBits) - 1)];
+	}
+
+	/**
+	 * @return midpoint of the bucket, clamped to the minimum and the maximum,
+	 *         so that the extremes are read exactly
+	 */
+	@Override
+	public double getValue(final int bucket) {
+
+		final double value;
+
+		if (bucket == 0) {
+			value = 0;
+		} else {
+			final double low = getLowerBound(bucket);
+			final double high = getUpperBound(bucket);
+
+			value = low + ((high - low) / 2);
+		}
+
+		return Math.max(this.min, Math.min(this.max, value));
+	}
+
+	/**
+	 * @return least value of the bucket, for a bucket other than the first
+	 */
+	private double getLowerBound(final int bucket) {
+		return Double.longBitsToDouble(getBoundBits(bucket, 0));
+	}
+
+	/**
+	 * @return least value of the next bucket, for a bucket other than the
+	 *         first
+	 */
+	private double getUpperBound(final int bucket) {
+		return Double.longBitsToDouble(getBoundBits(bucket, 1));
+	}
+
+	private long getBoundBits(final int bucket, final int nextSubBucket) {
+
+		final long exponent = ((bucket - 1) >>> this.subBucketBits) + this.exponentOffset;
+		final long subBucket = (bucket - 1) & ((1 << this.subBucketBits) - 1);
+		final int shift = MANTISSA_BITS - this.subBucketBits;
+
+		return (exponent << MANTISSA_BITS) + ((subBucket + nextSubBucket) << shift);
+	}
+
+	/**
+	 * @return value of the bucket holding the value at <code>rank</code>
+	 */
+	@Override
+	public double getValueAtRank(final long rank) {
+
+		checkRank(rank);
+
+		if (rank == 0) {
+			return this.min;
+		}
+
+		if (rank == (this.totalCount - 1)) {
+			return this.max;
+		}
+
+		return getValue(getBucketAtRank(rank));
+	}
+
+	/**
+	 * @return least value of the bucket holding the value at
+	 *         <code>rank</code>, but not less than the minimum
+	 */
+	@Override
+	public double getLowerBoundAtRank(final long rank) {
+
+		final int bucket = getBucketAtRank(rank);
+
+		return (bucket == 0) ? this.min : Math.max(this.min, getLowerBound(bucket));
+	}
+
+	/**
+	 * @return least value of the bucket next to the one holding the value at
+	 *         <code>rank</code>, but not greater than the maximum
+	 */
+	@Override
+	public double getUpperBoundAtRank(final long rank) {
+
+		final int bucket = getBucketAtRank(rank);
+
+		return (bucket == 0) ? Math.min(this.max, Double.MIN_NORMAL) : Math.min(this.max, getUpperBound(bucket));
+	}
+
+	private int getBucketAtRank(final long rank) {
+
+		checkRank(rank);
+
+		long cumulativeCount = 0;
+
+		for (int bucket = 0, n = getBucketCount(); bucket < n; bucket++) {
+
+			cumulativeCount += getCount(bucket);
+
+			if (cumulativeCount > rank) {
+				return bucket;
+			}
+		}
+
+		throw new IllegalStateException("rank = <" + rank + ">, count = <" + this.totalCount + ">");
+	}
+
+	private void checkRank(final long rank) {
+		if ((rank < 0) || (rank >= this.totalCount)) {
+			throw new IndexOutOfBoundsException("rank = <" + rank + ">, count = <" + this.totalCount + ">");
+		}
+	}
+
+	/**
+	 * Writes the histogram in a form read by {@linkplain #readFrom(DataInput)}.
+	 */
+	void writeTo(final DataOutput out) throws IOException {
+
+		out.writeInt(this.significantDigits);
+		out.writeLong(this.totalCount);
+		out.writeDouble(this.min);
+		out.writeDouble(this.max);
+
+		int nonEmptyBuckets = 0;
+		for (int bucket = 0, n = getBucketCount(); bucket < n; bucket++) {
+			if (getCount(bucket) != 0) {
+				nonEmptyBuckets++;
+			}
+		}
+
+		out.writeInt(nonEmptyBuckets);
+
+		for (int bucket = 0, n = getBucketCount(); bucket < n; bucket++) {
+
+			final long count = getCount(bucket);
+
+			if (count != 0) {
+				if (bucket == 0) {
+					out.writeInt(-1);
+				} else {
+					out.writeInt(((bucket - 1) >>> this.subBucketBits) + this.exponentOffset);
+					out.writeInt((bucket - 1) & ((1 << this.subBucketBits) - 1));
+				}
+				out.writeLong(count);
+			}
+		}
+	}
+
+	/**
+	 * @throws IOException
+	 *             also if the data is not that of a histogram
+	 */
+	static LogLinearHistogram readFrom(final DataInput in) throws IOException {
+
+		final int significantDigits = in.readInt();
+
+		if ((significantDigits < 1) || (significantDigits > MAX_SIGNIFICANT_DIGITS)) {
+			throw new IOException("Not a histogram. significantDigits = <" + significantDigits + ">");
+		}
+
+		final LogLinearHistogram histogram = new LogLinearHistogram(significantDigits);
+		final long totalCount = in.readLong();
+		final double min = in.readDouble();
+		final double max = in.readDouble();
+		final int nonEmptyBuckets = in.readInt();
+
+		long count = 0;
+
+		for (int i = 0; i < nonEmptyBuckets; i++) {
+
+			final int exponent = in.readInt();
+
+			if (exponent == -1) {
+				histogram.zeroCount = in.readLong();
+				count += histogram.zeroCount;
+			} else {
+				final int subBucket = in.readInt();
+
+				if ((exponent < 1) || (exponent > 2046) || (subBucket < 0) || (subBucket >= (1 << histogram.subBucketBits))) {
+					throw new IOException("Not a histogram. exponent = <" + exponent + ">, subBucket = <" + subBucket + ">");
+				}
+
+				final long bucketCount = in.readLong();
+				histogram.countsOf(exponent)[subBucket] = bucketCount;
+				count += bucketCount;
+			}
+		}
+
+		if (count != totalCount) {
+			throw new IOException("Not a histogram. count = <" + count + ">, total count = <" + totalCount + ">");
+		}
+
+		histogram.totalCount = totalCount;
+		histogram.min = min;
+		histogram.max = max;
+
+		return histogram;
+	}
+}
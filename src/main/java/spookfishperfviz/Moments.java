@@ -0,0 +1,203 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Streaming accumulator of the count, mean, minimum, maximum and the sums of
+ * the 2nd, 3rd and 4th powers of the deviations from the mean, of a set of
+ * latencies.
+ *
+ * Latencies are {@linkplain #add(double) added} one at a time, in a single
+ * pass, using the numerically stable updates of Welford and Terriberry, so the
+ * latencies need not be held. The moments of two sets are
+ * {@linkplain #addAll(Moments) merged} into those of their union, hence the
+ * partial results of threads, files etc. are combined without the latencies.
+ *
+ * Not thread-safe.
+ *
+ * @see http://en.wikipedia.org/wiki/Algorithms_for_calculating_variance#Higher-order_statistics
+ * @see P. P&eacute;bay, Formulas for Robust, One-Pass Parallel Computation of
+ *      Covariances and Arbitrary-Order Statistical Moments, Sandia Report
+ *      SAND2008-6212, 2008
+ *
+ * @author Rahul Bakale
+ * @since Nov, 2014
+ */
+final class Moments {
+
+	private long count;
+	private double mean;
+	private double m2;
+	private double m3;
+	private double m4;
+
+	/**
+	 * Initialized like {@linkplain Utils#minMax(double[])}
+	 */
+	private double min = Double.MAX_VALUE;
+	private double max = Double.MIN_VALUE;
+
+	Moments() {
+		//
+	}
+
+	void add(final double latency) {
+
+		final double n1 = this.count;
+		final double n = n1 + 1;
+
+		final double delta = latency - this.mean;
+		final double deltaN = delta / n;
+		final double deltaN2 = deltaN * deltaN;
+		final double term1 = delta * deltaN * n1;
+
+		this.mean += deltaN;
+		this.m4 += (term1 * deltaN2 * (((n * n) - (3 * n)) + 3)) + (6 * deltaN2 * this.m2) - (4 * deltaN * this.m3);
+		this.m3 += (term1 * deltaN * (n - 2)) - (3 * deltaN * this.m2);
+		this.m2 += term1;
+		this.count++;
+
+		if (latency > this.max) {
+			this.max = latency;
+		}
+
+		if (latency < this.min) {
+			this.min = latency;
+		}
+	}
+
+	/**
+	 * Merges the moments of <code>other</code> into this instance, which then
+	 * has the moments of the union of both sets.
+	 */
+	void addAll(final Moments other) {
+
+		if (other.count == 0) {
+			return;
+		}
+
+		if (this.count == 0) {
+			this.count = other.count;
+			this.mean = other.mean;
+			this.m2 = other.m2;
+			this.m3 = other.m3;
+			this.m4 = other.m4;
+			this.min = other.min;
+			this.max = other.max;
+			return;
+		}
+
+		final double na = this.count;
+		final double nb = other.count;
+		final double n = na + nb;
+
+		final double delta = other.mean - this.mean;
+		final double delta2 = delta * delta;
+
+		final double m2 = this.m2 + other.m2 + ((delta2 * na * nb) / n);
+
+		final double m3 = this.m3 + other.m3 + ((delta2 * delta * na * nb * (na - nb)) / (n * n)) + ((3 * delta * ((na * other.m2) - (nb * this.m2))) / n);
+
+		final double m4 = this.m4 + other.m4 + ((delta2 * delta2 * na * nb * (((na * na) - (na * nb)) + (nb * nb))) / (n * n * n))
+				+ ((6 * delta2 * ((na * na * other.m2) + (nb * nb * this.m2))) / (n * n)) + ((4 * delta * ((na * other.m3) - (nb * this.m3))) / n);
+
+		this.count += other.count;
+		this.mean += (delta * nb) / n;
+		this.m2 = m2;
+		this.m3 = m3;
+		this.m4 = m4;
+		this.min = Math.min(this.min, other.min);
+		this.max = Math.max(this.max, other.max);
+	}
+
+	long getCount() {
+		return this.count;
+	}
+
+	double getMean() {
+		return this.mean;
+	}
+
+	double getMin() {
+		return this.min;
+	}
+
+	double getMax() {
+		return this.max;
+	}
+
+	/**
+	 * @return population variance
+	 */
+	double getVariance() {
+		return this.m2 / this.count;
+	}
+
+	/**
+	 * @return sample standard deviation
+	 */
+	double getStdDeviation() {
+		return Math.sqrt(this.m2 / (this.count - 1));
+	}
+
+	/**
+	 * @return Pearson's moment coefficient of skewness
+	 */
+	double getSkewness() {
+		return (this.m3 / this.count) / Math.pow(getVariance(), 1.5);
+	}
+
+	/**
+	 * @return Pearson's moment coefficient of kurtosis
+	 */
+	double getKurtosis() {
+		return (this.m4 / this.count) / Math.pow(getVariance(), 2);
+	}
+
+	/**
+	 * Writes the moments in a form read by {@linkplain #readFrom(DataInput)}.
+	 */
+	void writeTo(final DataOutput out) throws IOException {
+		out.writeLong(this.count);
+		out.writeDouble(this.mean);
+		out.writeDouble(this.m2);
+		out.writeDouble(this.m3);
+		out.writeDouble(this.m4);
+		out.writeDouble(this.min);
+		out.writeDouble(this.max);
+	}
+
+	static Moments readFrom(final DataInput in) throws IOException {
+
+		final Moments moments = new Moments();
+
+		moments.count = in.readLong();
+		moments.mean = in.readDouble();
+		moments.m2 = in.readDouble();
+		moments.m3 = in.readDouble();
+		moments.m4 = in.readDouble();
+		moments.min = in.readDouble();
+		moments.max = in.readDouble();
+
+		return moments;
+	}
+}
@@ -17,14 +17,26 @@
 
 package spookfishperfviz;
 
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TimeZone;
 
 /**
+ * Options given on the command line.
+ * 
  * @author Rahul Bakale
  * @since Nov, 2014
  */
-final class Options {
+public final class Options {
+
+	/**
+	 * Formats accepted by {@linkplain #getOptionalTime(String, TimeZone)}.
+	 */
+	private static final String[] TIME_PATTERNS = { "yyyy-MM-dd HH:mm:ss.SSS", "yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd HH:mm" };
 
 	static Options create(final String[] args) throws BadOptionsException {
 
@@ -91,18 +103,67 @@ final class Options {
 		this.options.put(name, Optional.of(value));
 	}
 
-	<T> T getMandatory(final String optionName, final Class<T> valueType) throws BadOptionsException {
+	/**
+	 * @return options having only those of these options whose names are
+	 *         given
+	 */
+	Options select(final String[] optionNames) {
+
+		final Options selected = new Options();
+
+		for (final String optionName : optionNames) {
+			final Optional<String> optional = this.options.get(optionName);
+			if (optional != null) {
+				selected.options.put(optionName, optional);
+			}
+		}
+
+		return selected;
+	}
+
+	public <T> T getMandatory(final String optionName, final Class<T> valueType) throws BadOptionsException {
 
 		final String value = getMandatory(optionName);
 		return parse(optionName, value, valueType);
 	}
 
-	<T> T getOptional(final String optionName, final Class<T> valueType, final T defaultValue) throws BadOptionsException {
+	public <T> T getOptional(final String optionName, final Class<T> valueType, final T defaultValue) throws BadOptionsException {
 
 		final Optional<String> optional = this.options.get(optionName);
 		return (optional != null && optional.hasValue()) ? parse(optionName, optional.get(), valueType) : defaultValue;
 	}
 
+	/**
+	 * Parses a time in one of the {@linkplain #TIME_PATTERNS formats} accepted
+	 * for time options, in the given time zone.
+	 * 
+	 * @return milliseconds since epoch, or <code>null</code> if the option is
+	 *         not specified
+	 */
+	public Long getOptionalTime(final String optionName, final TimeZone timeZone) throws BadOptionsException {
+
+		final String value = getOptional(optionName, String.class, null);
+		if (value == null) {
+			return null;
+		}
+
+		for (final String pattern : TIME_PATTERNS) {
+
+			final SimpleDateFormat format = new SimpleDateFormat(pattern);
+			format.setLenient(false);
+			format.setTimeZone(timeZone);
+
+			final ParsePosition pos = new ParsePosition(0);
+			final Date date = format.parse(value, pos);
+
+			if ((date != null) && (pos.getIndex() == value.length())) {
+				return Long.valueOf(date.getTime());
+			}
+		}
+
+		throw BadOptionsException.illegalValue(optionName, "<" + value + ">. Must be in one of the formats " + Arrays.toString(TIME_PATTERNS) + ".", null);
+	}
+
 	private String getMandatory(final String optionName) throws BadOptionsException {
 
 		final Optional<String> optional = this.options.get(optionName);
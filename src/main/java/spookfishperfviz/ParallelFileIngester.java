@@ -0,0 +1,455 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Parses one or more files in parallel.
+ *
+ * Uncompressed files are memory-mapped and split into chunks at line
+ * boundaries. Compressed files can not be split, hence each of them is parsed
+ * as a whole by a single thread (see {@linkplain CompressedInput}). The chunks
+ * and the compressed files are parsed concurrently by a pool of threads.
+ *
+ * Each chunk or compressed file is collected into its own
+ * {@linkplain EventLatencyData#newEmpty() instance} of the
+ * {@linkplain EventLatencyData} that the records are added to. The partial
+ * results are merged into it in the order
+ * of the files and of the chunks within them, so the result is same as that of
+ * parsing the files one after another. Partial results are kept per chunk,
+ * rather than per thread, for this reason: the samples of an event are then in
+ * the order of the lines, and quantile sketches, which depend on the order of
+ * the latencies, are the same from run to run. Merging does not copy the
+ * samples, see {@linkplain LatencySamples#moveAll(LatencySamples)}.
+ *
+ * Lines are split by {@linkplain ByteLineReader}. Non-ASCII bytes are decoded
+ * using the platform's default charset, same as {@linkplain java.io.FileReader}.
+ *
+ * The {@linkplain RecordParser} is shared by all the threads and hence must be
+ * thread-safe.
+ *
+ * Lines that can not be parsed are reported to a {@linkplain BadLineCollector},
+ * if one is given. Line numbers are not known for lines of uncompressed files,
+ * since the chunks are parsed independently. Byte offsets of lines of
+ * compressed files are offsets in the decompressed data.
+ *
+ * @author Rahul Bakale
+ * @since Nov, 2014
+ */
+final class ParallelFileIngester {
+
+	private static final long MIN_CHUNK_SIZE = 1L << 20; // 1 MB
+	private static final long MAX_CHUNK_SIZE = 1L << 26; // 64 MB
+
+	/**
+	 * Number of chunks per thread. Having more chunks than threads evens out
+	 * the load when some parts of the file take longer to parse than others.
+	 */
+	private static final int CHUNKS_PER_THREAD = 8;
+
+	private static final byte LF = '\n';
+	private static final byte CR = '\r';
+
+	/**
+	 * Parses the files and adds their records to <code>data</code>. Of each
+	 * uncompressed file, only the part that holds the records of
+	 * <code>timeRange</code>, as found by {@linkplain TimeRangeSearch}, is
+	 * parsed. The result may contain records outside <code>timeRange</code>.
+	 *
+	 * @param badLines
+	 *            if not <code>null</code>, lines that can not be parsed are
+	 *            reported to it and skipped. Otherwise such lines cause an
+	 *            exception.
+	 * @param timeRange
+	 *            if <code>null</code>, the files are parsed completely
+	 * @param data
+	 *            the records are added to it
+	 */
+	static void ingest(	final List<Path> files,
+						final RecordParser parser,
+						final int threadCount,
+						final BadLineCollector badLines,
+						final TimeRange timeRange,
+						final long maxDisorderMillis,
+						final EventLatencyData data) throws IOException {
+
+		if (threadCount < 1) {
+			throw new IllegalArgumentException("threadCount = <" + threadCount + ">");
+		}
+
+		final List<Callable<EventLatencyData>> tasks = new ArrayList<>();
+
+		for (final Path file : files) {
+
+			if (CompressedInput.detectFormat(file) == CompressedInput.Format.NONE) {
+
+				final List<long[]> chunks;
+				try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);) {
+
+					if (timeRange == null) {
+						chunks = split(channel, 0, channel.size(), threadCount);
+					} else {
+						final long[] range = TimeRangeSearch.find(channel, parser, Charset.defaultCharset(), timeRange, maxDisorderMillis);
+
+						System.out.println("Parsing bytes <" + range[0] + "> to <" + range[1] + "> of <" + file + "> (" + channel.size() + " bytes) for the time range.");
+
+						chunks = split(channel, range[0], range[1], threadCount);
+					}
+				}
+
+				for (final long[] chunk : chunks) {
+					tasks.add(new ChunkTask(file, chunk[0], chunk[1], parser, badLines, data.newEmpty()));
+				}
+
+			} else {
+				tasks.add(new CompressedFileTask(file, parser, badLines, data.newEmpty()));
+			}
+		}
+
+		run(tasks, threadCount, data);
+	}
+
+	/**
+	 * Parses the bytes between <code>start</code> (inclusive) and
+	 * <code>end</code> (exclusive) of an uncompressed file. The range must
+	 * begin at the start of a line and end just after a line separator or at
+	 * the end of the file.
+	 * 
+	 * @param data
+	 *            the records are added to it
+	 * 
+	 * @see #ingest(List, RecordParser, int, BadLineCollector, TimeRange, long, EventLatencyData)
+	 */
+	static void ingest(	final Path file,
+						final long start,
+						final long end,
+						final RecordParser parser,
+						final int threadCount,
+						final BadLineCollector badLines,
+						final EventLatencyData data) throws IOException {
+
+		if (threadCount < 1) {
+			throw new IllegalArgumentException("threadCount = <" + threadCount + ">");
+		}
+
+		final List<long[]> chunks;
+		try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);) {
+			chunks = split(channel, start, end, threadCount);
+		}
+
+		final List<Callable<EventLatencyData>> tasks = new ArrayList<>(chunks.size());
+
+		for (final long[] chunk : chunks) {
+			tasks.add(new ChunkTask(file, chunk[0], chunk[1], parser, badLines, data.newEmpty()));
+		}
+
+		run(tasks, threadCount, data);
+	}
+
+	private static void run(final List<Callable<EventLatencyData>> tasks, final int threadCount, final EventLatencyData result) throws IOException {
+
+		if (tasks.isEmpty()) {
+			return;
+		}
+
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.min(threadCount, tasks.size()));
+
+		try {
+			final List<Future<EventLatencyData>> futures = new ArrayList<>(tasks.size());
+
+			for (final Callable<EventLatencyData> task : tasks) {
+				futures.add(executor.submit(task));
+			}
+
+			for (final Future<EventLatencyData> future : futures) {
+				result.merge(getResult(future));
+			}
+
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static <T> T getResult(final Future<T> future) throws IOException {
+		try {
+			return future.get();
+
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the file to be parsed", e);
+
+		} catch (final ExecutionException e) {
+
+			final Throwable cause = e.getCause();
+
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+
+			throw new RuntimeException(cause);
+		}
+	}
+
+	/**
+	 * @return list of <code>{start, end}</code> byte ranges that cover the
+	 *         range from <code>rangeStart</code> to <code>rangeEnd</code>,
+	 *         each of which ends just after a line separator or at the end of
+	 *         the range.
+	 */
+	private static List<long[]> split(final FileChannel channel, final long rangeStart, final long rangeEnd, final int threadCount) throws IOException {
+
+		final long size = rangeEnd - rangeStart;
+
+		final long chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, size / ((long) threadCount * CHUNKS_PER_THREAD)));
+
+		final List<long[]> chunks = new ArrayList<>();
+
+		long start = rangeStart;
+
+		while (start < rangeEnd) {
+
+			final long nominalEnd = start + chunkSize;
+			final long end = nominalEnd >= rangeEnd ? rangeEnd : findLineEnd(channel, nominalEnd, rangeEnd);
+
+			chunks.add(new long[] { start, end });
+
+			start = end;
+		}
+
+		return chunks;
+	}
+
+	/**
+	 * @return position just after the first line separator, i.e.
+	 *         <code>\n</code>, <code>\r\n</code> or <code>\r</code> as in
+	 *         {@linkplain ByteLineReader}, found at or after
+	 *         <code>from - 1</code>, or <code>limit</code> if there is none
+	 *         before <code>limit</code>.
+	 */
+	static long findLineEnd(final FileChannel channel, final long from, final long limit) throws IOException {
+
+		final ByteBuffer buf = ByteBuffer.allocate(8192);
+
+		long pos = from - 1;
+
+		while (pos < limit) {
+
+			buf.clear();
+			buf.limit((int) Math.min(buf.capacity(), limit - pos));
+
+			final int n = channel.read(buf, pos);
+			if (n <= 0) {
+				break;
+			}
+
+			for (int i = 0; i < n; i++) {
+
+				final byte b = buf.get(i);
+
+				if (b == LF) {
+					return pos + i + 1;
+				}
+
+				if (b == CR) {
+
+					final long next = pos + i + 1;
+
+					if (next >= limit) {
+						return limit;
+					}
+
+					final boolean lfFollows;
+
+					if ((i + 1) < n) {
+						lfFollows = (buf.get(i + 1) == LF);
+					} else {
+						final ByteBuffer one = ByteBuffer.allocate(1);
+						lfFollows = (channel.read(one, next) == 1) && (one.get(0) == LF);
+					}
+
+					return lfFollows ? next + 1 : next;
+				}
+			}
+
+			pos += n;
+		}
+
+		return limit;
+	}
+
+	private static final class ChunkTask implements Callable<EventLatencyData> {
+
+		private final Path file;
+		private final long start;
+		private final long end;
+		private final RecordParser parser;
+		private final BadLineCollector badLines;
+		private final EventLatencyData data;
+
+		/**
+		 * @param data
+		 *            empty instance to which the records are added
+		 */
+		ChunkTask(final Path file, final long start, final long end, final RecordParser parser, final BadLineCollector badLines, final EventLatencyData data) {
+			this.file = file;
+			this.start = start;
+			this.end = end;
+			this.parser = parser;
+			this.badLines = badLines;
+			this.data = data;
+		}
+
+		@Override
+		public EventLatencyData call() throws IOException {
+
+			if (Thread.currentThread().isInterrupted()) {
+				throw new IOException("Interrupted");
+			}
+
+			final MappedByteBuffer buffer;
+
+			// The mapping remains valid after the channel is closed.
+			try (final FileChannel channel = FileChannel.open(this.file, StandardOpenOption.READ);) {
+				buffer = channel.map(MapMode.READ_ONLY, this.start, this.end - this.start);
+			}
+
+			final EventLatencyData data = this.data;
+			final RecordBatch batch = data.newBatch();
+			final RecordParser parser = this.parser;
+			final BadLineCollector badLines = this.badLines;
+
+			try (final ByteLineReader reader = ByteLineReader.create(buffer, Charset.defaultCharset());) {
+
+				CharSequence line;
+
+				if (badLines == null) {
+
+					while ((line = reader.next()) != null) {
+						if (!parser.isIgnore(line)) {
+
+							if (batch.isFull()) {
+								data.add(batch);
+								batch.clear();
+							}
+
+							parser.parse(line, batch);
+						}
+					}
+
+				} else {
+
+					final String source = this.file.toString();
+					long goodLineCount = 0;
+
+					while ((line = reader.next()) != null) {
+						if (!parser.isIgnore(line)) {
+
+							if (batch.isFull()) {
+								data.add(batch);
+								batch.clear();
+							}
+
+							try {
+								parser.parse(line, batch);
+							} catch (final RuntimeException e) {
+								badLines.goodLines(goodLineCount);
+								goodLineCount = 0;
+								badLines.badLine(source, -1, this.start + reader.lineOffset(), line, e);
+								continue;
+							}
+
+							goodLineCount++;
+						}
+					}
+
+					badLines.goodLines(goodLineCount);
+				}
+			}
+
+			data.add(batch);
+
+			return data;
+		}
+	}
+
+	private static final class CompressedFileTask implements Callable<EventLatencyData> {
+
+		private final Path file;
+		private final RecordParser parser;
+		private final BadLineCollector badLines;
+		private final EventLatencyData data;
+
+		/**
+		 * @param data
+		 *            empty instance to which the records are added
+		 */
+		CompressedFileTask(final Path file, final RecordParser parser, final BadLineCollector badLines, final EventLatencyData data) {
+			this.file = file;
+			this.parser = parser;
+			this.badLines = badLines;
+			this.data = data;
+		}
+
+		@Override
+		public EventLatencyData call() throws IOException {
+
+			final EventLatencyData data = this.data;
+
+			try (final ReadableByteChannel channel = CompressedInput.open(this.file);
+					final RecordIterator recordIterator = RecordIterator.create(channel, Charset.defaultCharset(), this.parser, this.badLines, this.file.toString());) {
+
+				final RecordBatch batch = data.newBatch();
+
+				while (recordIterator.nextBatch(batch) > 0) {
+					data.add(batch);
+					batch.clear();
+				}
+			}
+
+			return data;
+		}
+	}
+
+	private ParallelFileIngester() {
+		//
+	}
+}
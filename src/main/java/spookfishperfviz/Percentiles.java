@@ -30,15 +30,38 @@ final class Percentiles {
 	private final double[] values;
 	private final String valueHeader;
 
+	/**
+	 * Bounds of the actual values, if the values are approximate, else
+	 * <code>null</code>.
+	 */
+	private final double[] lowerBounds;
+	private final double[] upperBounds;
+	private final String boundsHeader;
+
 	Percentiles(final double[] keys, final double[] values, final String valueUnit) {
+		this(keys, values, null, null, valueUnit);
+	}
+
+	Percentiles(final double[] keys, final double[] values, final double[] lowerBounds, final double[] upperBounds, final String valueUnit) {
 		
 		if (keys.length != values.length) {
 			throw new IllegalArgumentException();
 		}
 
+		if ((lowerBounds == null) != (upperBounds == null)) {
+			throw new IllegalArgumentException();
+		}
+
+		if ((lowerBounds != null) && ((lowerBounds.length != keys.length) || (upperBounds.length != keys.length))) {
+			throw new IllegalArgumentException();
+		}
+
 		this.keys = keys;
 		this.values = values;
 		this.valueHeader = "Value (" + valueUnit + ")";
+		this.lowerBounds = lowerBounds;
+		this.upperBounds = upperBounds;
+		this.boundsHeader = "Error bounds (" + valueUnit + ")";
 	}
 
 	public String toSVG(final boolean wrapInHtmlBody) {
@@ -60,10 +83,11 @@ final class Percentiles {
 
 		final String[] keyStrs = new String[n];
 		final String[] valueStrs = new String[n];
+		final String[] boundsStrs = new String[n];
 
 		final double[] valuesReversed = new double[n];
 
-		int kPadding = -1, vPadding = -1;
+		int kPadding = -1, vPadding = -1, bPadding = -1;
 
 		for (int i = 0, k = n - 1; i < n; i++, k--) {
 			{
@@ -89,19 +113,47 @@ final class Percentiles {
 				valuesReversed[k] = value;
 				valueStrs[k] = valueStr;
 			}
+
+			if (this.lowerBounds != null) {
+				final String boundsStr = "[" + Utils.toDisplayString(this.lowerBounds[i], 3, true) + ", " + Utils.toDisplayString(this.upperBounds[i], 3, true) + "]";
+
+				final int bLen = boundsStr.length();
+				if (bLen > bPadding) {
+					bPadding = bLen;
+				}
+
+				boundsStrs[k] = boundsStr;
+			}
 		}
 		
 		kPadding = Math.max(kPadding, KEY_HEADER.length());
 		vPadding = Math.max(vPadding, valHeader.length());
-		
-		final String labelStringFormat = "%" + kPadding + "s    %" + vPadding + "s";
 
 		final String[] dataLabels = new String[n];
-		for (int i = 0; i < n; i++) {
-			dataLabels[i] = String.format(labelStringFormat, keyStrs[i], valueStrs[i]);
+		final String headerLabel;
+
+		if (this.lowerBounds == null) {
+
+			final String labelStringFormat = "%" + kPadding + "s    %" + vPadding + "s";
+
+			for (int i = 0; i < n; i++) {
+				dataLabels[i] = String.format(labelStringFormat, keyStrs[i], valueStrs[i]);
+			}
+
+			headerLabel = String.format(labelStringFormat, KEY_HEADER, valHeader);
+
+		} else {
+
+			bPadding = Math.max(bPadding, this.boundsHeader.length());
+
+			final String labelStringFormat = "%" + kPadding + "s    %" + vPadding + "s    %" + bPadding + "s";
+
+			for (int i = 0; i < n; i++) {
+				dataLabels[i] = String.format(labelStringFormat, keyStrs[i], valueStrs[i], boundsStrs[i]);
+			}
+
+			headerLabel = String.format(labelStringFormat, KEY_HEADER, valHeader, this.boundsHeader);
 		}
-		
-		final String headerLabel = String.format(labelStringFormat, KEY_HEADER, valHeader);
 
 		return HorizontalBarChart.create(valuesReversed, dataLabels, headerLabel);
 	}
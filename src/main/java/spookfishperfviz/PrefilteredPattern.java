@@ -0,0 +1,666 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A compiled regular expression that is matched against whole lines, along
+ * with literal strings that every matching line must contain.
+ *
+ * The literals are extracted from the regular expression when it is compiled.
+ * A line that does not contain them is rejected by a plain string search,
+ * without running the regular expression. For e.g. for
+ * <code>(?&lt;Timestamp&gt;\S+ \S+) INFO event=(?&lt;EventName&gt;\S+) latency=(?&lt;Latency&gt;\S+)</code>
+ * every matching line must contain <code>" INFO event="</code> followed by
+ * <code>" latency="</code>.
+ *
+ * Patterns of the form <code>.*literal.*</code>, which are typical for ignore
+ * patterns, are fully decided by the string search.
+ *
+ * The analysis is conservative. Regular expressions that it does not
+ * understand, for e.g. ones with a top level alternation or with inline
+ * flags, have no literals, and are always matched using the regular
+ * expression.
+ *
+ * Thread-safe.
+ *
+ * @author Rahul Bakale
+ * @since Nov, 2014
+ */
+final class PrefilteredPattern {
+
+	static PrefilteredPattern compile(final String regex) {
+		return new PrefilteredPattern(regex);
+	}
+
+	private final Pattern pattern;
+
+	/**
+	 * {@linkplain Matcher} is not thread-safe, hence one instance per thread.
+	 */
+	private final ThreadLocal<Matcher> matcher;
+
+	/**
+	 * Literals that appear, in this order and without overlapping, in every
+	 * matching line.
+	 */
+	private final String[] literals;
+
+	/**
+	 * Whether every matching line starts with the first literal.
+	 */
+	private final boolean firstIsPrefix;
+
+	/**
+	 * Whether every matching line ends with the last literal.
+	 */
+	private final boolean lastIsSuffix;
+
+	/**
+	 * Whether the regular expression is <code>.*literal.*</code>.
+	 */
+	private final boolean containsOnly;
+
+	private PrefilteredPattern(final String regex) {
+
+		final Pattern pattern = Pattern.compile(regex);
+		this.pattern = pattern;
+
+		this.matcher = new ThreadLocal<Matcher>() {
+			@Override
+			protected Matcher initialValue() {
+				return pattern.matcher("");
+			}
+		};
+
+		final List<Atom> atoms = Atom.parse(regex);
+
+		if (atoms == null) {
+			this.literals = new String[0];
+			this.firstIsPrefix = false;
+			this.lastIsSuffix = false;
+			this.containsOnly = false;
+		} else {
+			final List<String> literals = new ArrayList<>();
+			final boolean[] prefixAndSuffix = new boolean[2];
+
+			extractLiterals(atoms, literals, prefixAndSuffix);
+
+			this.literals = literals.toArray(new String[literals.size()]);
+			this.firstIsPrefix = prefixAndSuffix[0];
+			this.lastIsSuffix = prefixAndSuffix[1];
+			this.containsOnly = isContainsOnly(atoms);
+		}
+	}
+
+	Pattern pattern() {
+		return this.pattern;
+	}
+
+	/**
+	 * @return <code>true</code> if the whole line matches the regular
+	 *         expression
+	 */
+	boolean matches(final CharSequence line) {
+
+		if (!mayMatch(line)) {
+			return false;
+		}
+
+		if (this.containsOnly && !containsLineTerminator(line)) {
+			return true;
+		}
+
+		return this.matcher.get().reset(line).matches();
+	}
+
+	/**
+	 * @return a {@linkplain Matcher} of the current thread, reset to the line
+	 *         and on which {@linkplain Matcher#matches()} has been invoked
+	 *         successfully, or <code>null</code> if the whole line does not
+	 *         match the regular expression.
+	 */
+	Matcher match(final CharSequence line) {
+
+		if (!mayMatch(line)) {
+			return null;
+		}
+
+		final Matcher m = this.matcher.get().reset(line);
+
+		return m.matches() ? m : null;
+	}
+
+	private boolean mayMatch(final CharSequence line) {
+
+		final String[] literals = this.literals;
+		final int count = literals.length;
+
+		if (count == 0) {
+			return true;
+		}
+
+		int from = 0;
+		int to = line.length();
+
+		int first = 0;
+		int last = count - 1;
+
+		if (this.firstIsPrefix) {
+			final String prefix = literals[0];
+			if (!regionMatches(line, 0, prefix)) {
+				return false;
+			}
+			from = prefix.length();
+			first = 1;
+		}
+
+		if (this.lastIsSuffix && (last >= first)) {
+			final String suffix = literals[last];
+			final int suffixStart = to - suffix.length();
+			if ((suffixStart < from) || !regionMatches(line, suffixStart, suffix)) {
+				return false;
+			}
+			to = suffixStart;
+			last--;
+		}
+
+		for (int i = first; i <= last; i++) {
+
+			final String literal = literals[i];
+			final int index = indexOf(line, literal, from, to);
+
+			if (index < 0) {
+				return false;
+			}
+
+			from = index + literal.length();
+		}
+
+		return true;
+	}
+
+	private static int indexOf(final CharSequence line, final String literal, final int from, final int to) {
+
+		final char firstChar = literal.charAt(0);
+		final int max = to - literal.length();
+
+		for (int i = from; i <= max; i++) {
+			if ((line.charAt(i) == firstChar) && regionMatches(line, i, literal)) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	private static boolean regionMatches(final CharSequence line, final int start, final String literal) {
+
+		final int len = literal.length();
+
+		if ((start + len) > line.length()) {
+			return false;
+		}
+
+		for (int i = 0; i < len; i++) {
+			if (line.charAt(start + i) != literal.charAt(i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * <code>.</code> does not match line terminators, so a line containing
+	 * them must be checked using the regular expression.
+	 */
+	private static boolean containsLineTerminator(final CharSequence line) {
+
+		final int len = line.length();
+
+		for (int i = 0; i < len; i++) {
+			final char ch = line.charAt(i);
+			if ((ch == '\n') || (ch == '\r') || (ch == '\u0085') || (ch == '\u2028') || (ch == '\u2029')) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static void extractLiterals(final List<Atom> atoms, final List<String> literals, final boolean[] prefixAndSuffix) {
+
+		final int size = atoms.size();
+
+		// Anchors at the ends do not matter, since whole lines are matched.
+		int start = 0;
+		int end = size;
+
+		if ((start < end) && (atoms.get(start).kind == Atom.Kind.ANCHOR)) {
+			start++;
+		}
+
+		if ((end > start) && (atoms.get(end - 1).kind == Atom.Kind.ANCHOR)) {
+			end--;
+		}
+
+		final StringBuilder run = new StringBuilder();
+
+		for (int i = start; i < end; i++) {
+
+			final Atom atom = atoms.get(i);
+
+			if ((atom.kind == Atom.Kind.LITERAL) && (atom.minCount > 0)) {
+
+				if ((run.length() == 0) && (i == start)) {
+					prefixAndSuffix[0] = true;
+				}
+
+				run.append(atom.ch);
+
+				if (atom.quantified) {
+					// The character may repeat, hence the literal can not be extended beyond it.
+					literals.add(run.toString());
+					run.setLength(0);
+				}
+
+			} else if (run.length() > 0) {
+				literals.add(run.toString());
+				run.setLength(0);
+			}
+		}
+
+		if (run.length() > 0) {
+			literals.add(run.toString());
+			prefixAndSuffix[1] = true;
+		}
+	}
+
+	private static boolean isContainsOnly(final List<Atom> atoms) {
+
+		final int size = atoms.size();
+
+		if ((size < 3) || !atoms.get(0).isAnyZeroOrMore() || !atoms.get(size - 1).isAnyZeroOrMore()) {
+			return false;
+		}
+
+		for (int i = 1; i < (size - 1); i++) {
+			final Atom atom = atoms.get(i);
+			if ((atom.kind != Atom.Kind.LITERAL) || atom.quantified) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * A single element of a regular expression, along with its quantifier.
+	 */
+	private static final class Atom {
+
+		enum Kind {
+			/** A single character */
+			LITERAL,
+			/** <code>.</code> */
+			ANY,
+			/** A zero-width assertion, for e.g. <code>^</code> */
+			ANCHOR,
+			/** Anything else, for e.g. a group or a character class */
+			OTHER
+		}
+
+		final Kind kind;
+		final char ch;
+
+		/**
+		 * Minimum number of times the atom must appear.
+		 */
+		final int minCount;
+
+		/**
+		 * Whether the atom is followed by a quantifier.
+		 */
+		final boolean quantified;
+
+		/**
+		 * Whether the quantifier has no upper bound.
+		 */
+		final boolean unbounded;
+
+		private Atom(final Kind kind, final char ch, final int minCount, final boolean quantified, final boolean unbounded) {
+			this.kind = kind;
+			this.ch = ch;
+			this.minCount = minCount;
+			this.quantified = quantified;
+			this.unbounded = unbounded;
+		}
+
+		boolean isAnyZeroOrMore() {
+			return (this.kind == Kind.ANY) && (this.minCount == 0) && this.unbounded;
+		}
+
+		/**
+		 * Splits the top level of the regular expression into atoms.
+		 *
+		 * @return the atoms, or <code>null</code> if the regular expression
+		 *         can not be analyzed
+		 */
+		static List<Atom> parse(final String regex) {
+
+			if (hasInlineFlags(regex)) {
+				return null;
+			}
+
+			final List<Atom> atoms = new ArrayList<>();
+			final int len = regex.length();
+
+			int i = 0;
+
+			while (i < len) {
+
+				final char ch = regex.charAt(i);
+
+				Kind kind;
+				char literal = 0;
+				int next;
+
+				if (ch == '\\') {
+
+					if ((i + 1) >= len) {
+						return null;
+					}
+
+					final char escaped = regex.charAt(i + 1);
+
+					if (escaped == 'Q') {
+
+						int quoteEnd = regex.indexOf("\\E", i + 2);
+						if (quoteEnd < 0) {
+							quoteEnd = len;
+						}
+
+						// All but the last quoted character are plain literals.
+						// The last one is added below, since a quantifier may follow it.
+						for (int k = i + 2; k < (quoteEnd - 1); k++) {
+							atoms.add(literal(regex.charAt(k)));
+						}
+
+						if (quoteEnd == (i + 2)) {
+							i = Math.min(quoteEnd + 2, len);
+							continue;
+						}
+
+						kind = Kind.LITERAL;
+						literal = regex.charAt(quoteEnd - 1);
+						next = Math.min(quoteEnd + 2, len);
+
+					} else if (Character.isLetterOrDigit(escaped)) {
+
+						kind = ((escaped == 'b') || (escaped == 'B') || (escaped == 'A') || (escaped == 'G') || (escaped == 'Z') || (escaped == 'z'))
+								? Kind.ANCHOR
+								: Kind.OTHER;
+						next = skipEscape(regex, i + 1);
+
+					} else {
+						kind = Kind.LITERAL;
+						literal = escaped;
+						next = i + 2;
+					}
+
+				} else if (ch == '[') {
+
+					kind = Kind.OTHER;
+					next = SimpleRegexBasedRecordParser.skipCharacterClass(regex, i) + 1;
+
+				} else if (ch == '(') {
+
+					kind = isLookaround(regex, i) ? Kind.ANCHOR : Kind.OTHER;
+					next = skipGroup(regex, i);
+
+					if (next < 0) {
+						return null;
+					}
+
+				} else if (ch == '.') {
+
+					kind = Kind.ANY;
+					next = i + 1;
+
+				} else if ((ch == '^') || (ch == '$')) {
+
+					kind = Kind.ANCHOR;
+					next = i + 1;
+
+				} else if ((ch == '|') || (ch == ')') || (ch == '*') || (ch == '+') || (ch == '?') || (ch == '{')) {
+
+					// alternation, or something unexpected
+					return null;
+
+				} else {
+					kind = Kind.LITERAL;
+					literal = ch;
+					next = i + 1;
+				}
+
+				if ((kind == Kind.LITERAL) && Character.isSurrogate(literal)) {
+					kind = Kind.OTHER;
+				}
+
+				// quantifier
+				int minCount = 1;
+				boolean quantified = false;
+				boolean unbounded = false;
+
+				if (next < len) {
+
+					final char q = regex.charAt(next);
+
+					if ((q == '*') || (q == '+') || (q == '?')) {
+
+						minCount = (q == '+') ? 1 : 0;
+						quantified = true;
+						unbounded = (q != '?');
+						next++;
+
+					} else if (q == '{') {
+
+						final int close = regex.indexOf('}', next);
+						if (close < 0) {
+							return null;
+						}
+
+						final String[] bounds = regex.substring(next + 1, close).split(",", -1);
+
+						try {
+							minCount = Integer.parseInt(bounds[0].trim());
+						} catch (final NumberFormatException e) {
+							return null;
+						}
+
+						quantified = true;
+						unbounded = (bounds.length > 1) && bounds[1].trim().isEmpty();
+						next = close + 1;
+					}
+
+					// lazy or possessive quantifier
+					if (quantified && (next < len) && ((regex.charAt(next) == '?') || (regex.charAt(next) == '+'))) {
+						if ((regex.charAt(next) == '+') && (kind == Kind.ANY)) {
+							// possessive .*+ consumes everything, so do not treat it like .*
+							kind = Kind.OTHER;
+						}
+						next++;
+					}
+				}
+
+				atoms.add(new Atom(kind, literal, minCount, quantified, unbounded));
+
+				i = next;
+			}
+
+			return atoms;
+		}
+
+		private static Atom literal(final char ch) {
+			return Character.isSurrogate(ch) ? new Atom(Kind.OTHER, ch, 1, false, false) : new Atom(Kind.LITERAL, ch, 1, false, false);
+		}
+
+		/**
+		 * Inline flags, for e.g. <code>(?i)</code> or <code>(?x:...)</code>,
+		 * change the meaning of the literals.
+		 */
+		private static boolean hasInlineFlags(final String regex) {
+
+			int i = regex.indexOf("(?");
+
+			while (i >= 0) {
+
+				if ((i + 2) < regex.length()) {
+					final char ch = regex.charAt(i + 2);
+					if (Character.isLetter(ch) || (ch == '-')) {
+						return true;
+					}
+				}
+
+				i = regex.indexOf("(?", i + 2);
+			}
+
+			return false;
+		}
+
+		private static boolean isLookaround(final String regex, final int groupStart) {
+
+			if (!regex.startsWith("(?", groupStart) || ((groupStart + 2) >= regex.length())) {
+				return false;
+			}
+
+			final char ch = regex.charAt(groupStart + 2);
+
+			if ((ch == '=') || (ch == '!')) {
+				return true;
+			}
+
+			if ((ch == '<') && ((groupStart + 3) < regex.length())) {
+				final char ch2 = regex.charAt(groupStart + 3);
+				return (ch2 == '=') || (ch2 == '!');
+			}
+
+			return false;
+		}
+
+		/**
+		 * @return index after the escape sequence whose first character (after
+		 *         the backslash) is at <code>start</code>
+		 */
+		private static int skipEscape(final String regex, final int start) {
+
+			final int len = regex.length();
+			final char ch = regex.charAt(start);
+
+			int i = start + 1;
+
+			switch (ch) {
+			case 'p':
+			case 'P':
+			case 'x':
+			case 'N':
+				if ((i < len) && (regex.charAt(i) == '{')) {
+					final int close = regex.indexOf('}', i);
+					return (close < 0) ? len : close + 1;
+				}
+				if (ch == 'x') {
+					return Math.min(i + 2, len);
+				}
+				return (ch == 'N') ? i : Math.min(i + 1, len); // \pL
+			case 'u':
+				return Math.min(i + 4, len);
+			case 'c':
+				return Math.min(i + 1, len);
+			case 'k':
+				if ((i < len) && (regex.charAt(i) == '<')) {
+					final int close = regex.indexOf('>', i);
+					return (close < 0) ? len : close + 1;
+				}
+				return i;
+			case '0':
+				for (int k = 0; (k < 3) && (i < len) && (regex.charAt(i) >= '0') && (regex.charAt(i) <= '7'); k++) {
+					i++;
+				}
+				return i;
+			default:
+				if ((ch >= '1') && (ch <= '9')) {
+					while ((i < len) && Character.isDigit(regex.charAt(i))) {
+						i++;
+					}
+				}
+				return i;
+			}
+		}
+
+		/**
+		 * @return index after the <code>)</code> that closes the group opened
+		 *         at <code>start</code>, or -1 if there is none
+		 */
+		private static int skipGroup(final String regex, final int start) {
+
+			final int len = regex.length();
+
+			int depth = 0;
+
+			for (int i = start; i < len; i++) {
+
+				final char ch = regex.charAt(i);
+
+				if (ch == '\\') {
+
+					if (((i + 1) < len) && (regex.charAt(i + 1) == 'Q')) {
+						final int quoteEnd = regex.indexOf("\\E", i + 2);
+						if (quoteEnd < 0) {
+							return -1;
+						}
+						i = quoteEnd + 1;
+					} else {
+						i++;
+					}
+
+				} else if (ch == '[') {
+
+					i = SimpleRegexBasedRecordParser.skipCharacterClass(regex, i);
+
+				} else if (ch == '(') {
+
+					depth++;
+
+				} else if (ch == ')') {
+
+					depth--;
+					if (depth == 0) {
+						return i + 1;
+					}
+				}
+			}
+
+			return -1;
+		}
+	}
+}
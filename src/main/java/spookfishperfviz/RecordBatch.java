@@ -0,0 +1,243 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+/**
+ * Reusable buffer of parsed records, held in primitive arrays, one per field,
+ * instead of one {@linkplain Record} object per record.
+ *
+ * Event names are replaced by small integer ids, assigned by an
+ * {@linkplain EventNameDictionary}. The ids remain the same when the batch is
+ * {@linkplain #clear() cleared} and reused. A batch may share the dictionary
+ * of the {@linkplain EventLatencyData} it is added to, so that the ids need
+ * not be translated.
+ *
+ * A {@linkplain RecordParser} adds the records it parses to a batch, see
+ * {@linkplain RecordParser#parse(CharSequence, RecordBatch)}. A full batch is
+ * handed over to {@linkplain EventLatencyData#add(RecordBatch)} and then
+ * cleared.
+ *
+ * Not thread-safe.
+ *
+ * @author Rahul Bakale
+ * @since Nov, 2014
+ */
+public final class RecordBatch {
+
+	static final int DEFAULT_CAPACITY = 1024;
+
+	/**
+	 * Used to parse a single record, see
+	 * {@linkplain #parseRecord(RecordParser, CharSequence)}.
+	 */
+	private static final ThreadLocal<RecordBatch> SINGLE_RECORD_BATCH = new ThreadLocal<RecordBatch>() {
+		@Override
+		protected RecordBatch initialValue() {
+			return new RecordBatch(1, new EventNameDictionary());
+		}
+	};
+
+	private final long[] timestamps;
+	private final double[] latencies;
+	private final int[] eventIds;
+	private int size;
+
+	private final EventNameDictionary eventNames;
+
+	/**
+	 * Working state of the parser that fills the batch, see
+	 * {@linkplain #getParserState()}.
+	 */
+	private Object parserState;
+
+	RecordBatch(final EventNameDictionary eventNames) {
+		this(DEFAULT_CAPACITY, eventNames);
+	}
+
+	RecordBatch(final int capacity, final EventNameDictionary eventNames) {
+
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity = <" + capacity + ">");
+		}
+
+		this.timestamps = new long[capacity];
+		this.latencies = new double[capacity];
+		this.eventIds = new int[capacity];
+
+		this.eventNames = eventNames;
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if <code>latency</code> is negative, <code>NaN</code> or
+	 *             infinite
+	 * @throws IllegalStateException
+	 *             if the batch is full
+	 */
+	public void add(final String eventName, final long timestamp, final double latency) {
+		checkLatency(latency);
+		add(this.eventNames.idOf(eventName), timestamp, latency);
+	}
+
+	/**
+	 * Same as {@linkplain #add(String, long, double)}, where the event name is
+	 * made of the characters of <code>text</code> from
+	 * <code>eventNameStart</code> (inclusive) to <code>eventNameEnd</code>
+	 * (exclusive). A {@linkplain String} is created only for a name not seen
+	 * before.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if <code>latency</code> is negative, <code>NaN</code> or
+	 *             infinite
+	 * @throws IllegalStateException
+	 *             if the batch is full
+	 */
+	public void add(final CharSequence text, final int eventNameStart, final int eventNameEnd, final long timestamp, final double latency) {
+		checkLatency(latency);
+		add(this.eventNames.idOf(text, eventNameStart, eventNameEnd), timestamp, latency);
+	}
+
+	private void add(final int eventId, final long timestamp, final double latency) {
+
+		final int i = this.size;
+
+		if (i == this.timestamps.length) {
+			throw new IllegalStateException("Batch is full");
+		}
+
+		this.timestamps[i] = timestamp;
+		this.latencies[i] = latency;
+		this.eventIds[i] = eventId;
+
+		this.size = i + 1;
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if the latency is negative, <code>NaN</code> or infinite
+	 * @throws IllegalStateException
+	 *             if the batch is full
+	 */
+	public void add(final Record record) {
+		add(record.getEventName(), record.getTimestamp(), record.getLatency());
+	}
+
+	/**
+	 * Parsers call this on a parsed latency, so that a latency that cannot be
+	 * recorded is reported as a bad line, see
+	 * {@linkplain RecordParseException#INVALID_LATENCY}.
+	 *
+	 * @return <code>latency</code>
+	 * @throws IllegalArgumentException
+	 *             if <code>latency</code> is negative, <code>NaN</code> or
+	 *             infinite
+	 */
+	static double checkLatency(final double latency) {
+		if (!((latency >= 0) && (latency < Double.POSITIVE_INFINITY))) {
+			throw new IllegalArgumentException("Latency must be non-negative and finite, found <" + latency + ">");
+		}
+		return latency;
+	}
+
+	int size() {
+		return this.size;
+	}
+
+	boolean isFull() {
+		return this.size == this.timestamps.length;
+	}
+
+	/**
+	 * Removes all the records. Event ids are retained.
+	 */
+	void clear() {
+		this.size = 0;
+	}
+
+	/**
+	 * @return array holding timestamps of the records, at indices from 0 to
+	 *         {@linkplain #size()}. Valid till the batch is cleared.
+	 */
+	long[] timestamps() {
+		return this.timestamps;
+	}
+
+	/**
+	 * @see #timestamps()
+	 */
+	double[] latencies() {
+		return this.latencies;
+	}
+
+	/**
+	 * @see #timestamps()
+	 * @see #eventNames()
+	 */
+	int[] eventIds() {
+		return this.eventIds;
+	}
+
+	/**
+	 * @return dictionary of the event ids
+	 */
+	EventNameDictionary eventNames() {
+		return this.eventNames;
+	}
+
+	/**
+	 * A batch is filled by one thread at a time, hence a thread-safe parser
+	 * may keep the objects it reuses from line to line here, instead of
+	 * looking them up in a {@linkplain ThreadLocal} for every line. The state
+	 * is retained when the batch is cleared.
+	 *
+	 * @return state set by {@linkplain #setParserState(Object)}, or
+	 *         <code>null</code>. Since the batch may be filled by more than one
+	 *         parser, the parser must check its type.
+	 */
+	Object getParserState() {
+		return this.parserState;
+	}
+
+	void setParserState(final Object parserState) {
+		this.parserState = parserState;
+	}
+
+	Record getRecord(final int index) {
+
+		if ((index < 0) || (index >= this.size)) {
+			throw new IndexOutOfBoundsException("index = <" + index + ">, size = <" + this.size + ">");
+		}
+
+		return new Record(this.eventNames.name(this.eventIds[index]), this.timestamps[index], this.latencies[index]);
+	}
+
+	/**
+	 * Parses a single line into a {@linkplain Record}, using
+	 * {@linkplain RecordParser#parse(CharSequence, RecordBatch)}. For parsers
+	 * that implement only the batch oriented method.
+	 */
+	static Record parseRecord(final RecordParser parser, final CharSequence line) {
+
+		final RecordBatch batch = SINGLE_RECORD_BATCH.get();
+		batch.clear();
+
+		parser.parse(line, batch);
+
+		return batch.getRecord(0);
+	}
+}
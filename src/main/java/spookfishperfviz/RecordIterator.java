@@ -17,7 +17,10 @@
 
 package spookfishperfviz;
 
+import java.io.IOException;
 import java.io.Reader;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
@@ -64,20 +67,65 @@ final class RecordIterator implements Iterator<Record>, AutoCloseable {
 	}*/
 	
 	static RecordIterator create(final Reader source, final RecordParser parser) {
-		return new RecordIterator(source, parser);
+		return create(source, parser, null);
 	}
 
-	private final Scanner scanner;
+	/**
+	 * @param badLines
+	 *            if not <code>null</code>, lines that can not be parsed are
+	 *            reported to it and skipped. Otherwise such lines cause an
+	 *            exception.
+	 */
+	static RecordIterator create(final Reader source, final RecordParser parser, final BadLineCollector badLines) {
+		return new RecordIterator(new ScannerLineSource(source), parser, badLines, null);
+	}
+
+	/**
+	 * Splits the bytes read from <code>source</code> into lines without
+	 * creating a {@linkplain String} per line.
+	 * 
+	 * @see ByteLineReader
+	 */
+	static RecordIterator create(final ReadableByteChannel source, final Charset charset, final RecordParser parser) {
+		return create(source, charset, parser, null, null);
+	}
+
+	/**
+	 * @param sourceName
+	 *            name of the source, for e.g. file name, that is reported
+	 *            along with bad lines
+	 * 
+	 * @see #create(ReadableByteChannel, Charset, RecordParser)
+	 * @see #create(Reader, RecordParser, BadLineCollector)
+	 */
+	static RecordIterator create(	final ReadableByteChannel source,
+									final Charset charset,
+									final RecordParser parser,
+									final BadLineCollector badLines,
+									final String sourceName) {
+
+		return new RecordIterator(new ByteLineSource(ByteLineReader.create(source, ByteLineReader.DEFAULT_BUFFER_SIZE, charset)), parser, badLines, sourceName);
+	}
+
+	private final LineSource lineSource;
 	private final RecordParser parser;
+	private final BadLineCollector badLines;
+	private final String sourceName;
 	private Record bufferedRecord;
 
-	private RecordIterator(final Reader source, final RecordParser parser) {
+	private long lineNumber;
 
-		final Scanner s = new Scanner(source);
-		s.useDelimiter("\r\n|[\n\r\u2028\u2029\u0085]");
+	/**
+	 * Number of lines parsed successfully, but not yet reported to
+	 * {@linkplain #badLines}.
+	 */
+	private long unreportedGoodLineCount;
 
-		this.scanner = s;
+	private RecordIterator(final LineSource lineSource, final RecordParser parser, final BadLineCollector badLines, final String sourceName) {
+		this.lineSource = lineSource;
 		this.parser = parser;
+		this.badLines = badLines;
+		this.sourceName = sourceName;
 	}
 
 	@Override
@@ -121,31 +169,198 @@ final class RecordIterator implements Iterator<Record>, AutoCloseable {
 
 	@Override
 	public final void close() {
-		this.scanner.close();
+		this.lineSource.close();
 		this.bufferedRecord = null;
 	}
 
+	/**
+	 * Parses lines into <code>batch</code> till it is full or there are no
+	 * more lines. Same as calling {@linkplain #next()} repeatedly, but does
+	 * not create a {@linkplain Record} per line.
+	 *
+	 * @return number of records added to the batch, which is 0 only if there
+	 *         are no more lines
+	 */
+	int nextBatch(final RecordBatch batch) {
+
+		final int initialSize = batch.size();
+
+		if ((this.bufferedRecord != null) && !batch.isFull()) {
+			batch.add(this.bufferedRecord);
+			this.bufferedRecord = null;
+		}
+
+		final RecordParser parser = this.parser;
+		final BadLineCollector badLines = this.badLines;
+
+		while (!batch.isFull()) {
+
+			final CharSequence line;
+			try {
+				line = readNextLine();
+			} catch (final NoSuchElementException e) {
+				break;
+			}
+
+			if (badLines == null) {
+				parser.parse(line, batch);
+				continue;
+			}
+
+			try {
+				parser.parse(line, batch);
+				this.unreportedGoodLineCount++;
+
+			} catch (final RuntimeException e) {
+				reportGoodLines();
+				badLines.badLine(this.sourceName, this.lineNumber, this.lineSource.lineOffset(), line, e);
+			}
+		}
+
+		return batch.size() - initialSize;
+	}
+
 	/**
 	 * Must never return null
 	 */
 	private Record readNextRecord() {
-		final String line = readNextLine();
-		final Record record = this.parser.parse(line);
+		final BadLineCollector badLines = this.badLines;
+
+		while (true) {
+			final CharSequence line = readNextLine();
+
+			if (badLines == null) {
+				final Record record = this.parser.parse(line);
+
+				assert record != null;
+
+				return record;
+			}
+
+			try {
+				final Record record = this.parser.parse(line);
+
+				assert record != null;
 
-		assert record != null;
+				this.unreportedGoodLineCount++;
 
-		return record;
+				return record;
+
+			} catch (final RuntimeException e) {
+				reportGoodLines();
+				badLines.badLine(this.sourceName, this.lineNumber, this.lineSource.lineOffset(), line, e);
+			}
+		}
 	}
 
-	private String readNextLine() {
-		final Scanner s = this.scanner;
+	private CharSequence readNextLine() {
+		final LineSource s = this.lineSource;
 
 		while (true) {
-			final String line = s.next();
+			final CharSequence line;
+			try {
+				line = s.next();
+			} catch (final NoSuchElementException e) {
+				reportGoodLines();
+				throw e;
+			}
+
+			this.lineNumber++;
 
 			if (!this.parser.isIgnore(line)) {
 				return line;
 			}
 		}
 	}
+
+	private void reportGoodLines() {
+		if ((this.badLines != null) && (this.unreportedGoodLineCount > 0)) {
+			this.badLines.goodLines(this.unreportedGoodLineCount);
+			this.unreportedGoodLineCount = 0;
+		}
+	}
+
+	private static interface LineSource {
+
+		/**
+		 * @throws NoSuchElementException
+		 *             if there are no more lines
+		 */
+		CharSequence next();
+
+		/**
+		 * @return byte offset of the line last returned by
+		 *         {@linkplain #next()}, or -1 if not known
+		 */
+		long lineOffset();
+
+		void close();
+	}
+
+	private static final class ScannerLineSource implements LineSource {
+
+		private final Scanner scanner;
+
+		ScannerLineSource(final Reader source) {
+			final Scanner s = new Scanner(source);
+			s.useDelimiter("\r\n|[\n\r\u2028\u2029\u0085]");
+
+			this.scanner = s;
+		}
+
+		@Override
+		public CharSequence next() {
+			return this.scanner.next();
+		}
+
+		@Override
+		public long lineOffset() {
+			return -1;
+		}
+
+		@Override
+		public void close() {
+			this.scanner.close();
+		}
+	}
+
+	private static final class ByteLineSource implements LineSource {
+
+		private final ByteLineReader reader;
+
+		ByteLineSource(final ByteLineReader reader) {
+			this.reader = reader;
+		}
+
+		@Override
+		public CharSequence next() {
+
+			final CharSequence line;
+			try {
+				line = this.reader.next();
+			} catch (final IOException e) {
+				throw new RuntimeException("Error while reading input", e);
+			}
+
+			if (line == null) {
+				throw new NoSuchElementException();
+			}
+
+			return line;
+		}
+
+		@Override
+		public long lineOffset() {
+			return this.reader.lineOffset();
+		}
+
+		@Override
+		public void close() {
+			try {
+				this.reader.close();
+			} catch (final IOException e) {
+				throw new RuntimeException("Error while closing input", e);
+			}
+		}
+	}
 }
@@ -0,0 +1,51 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+/**
+ * Thrown by a {@linkplain RecordParser} when a line can not be parsed.
+ *
+ * The reason is a short description of the kind of failure, for e.g.
+ * <code>Invalid timestamp</code>, that does not depend on the contents of the
+ * line. It is used to group bad lines by failure.
+ *
+ * @author Rahul Bakale
+ * @since Nov, 2014
+ */
+public final class RecordParseException extends RuntimeException {
+
+	private static final long serialVersionUID = -4629384113567202874L;
+
+	public static final String PATTERN_MISMATCH = "Pattern does not match";
+	public static final String TOO_FEW_COLUMNS = "Too few columns";
+	public static final String INVALID_TIMESTAMP = "Invalid timestamp";
+	public static final String INVALID_LATENCY = "Invalid latency";
+	public static final String MALFORMED_LINE = "Malformed line";
+	public static final String MISSING_FIELD = "Missing field";
+
+	private final String reason;
+
+	public RecordParseException(final CharSequence line, final String reason, final Throwable cause) {
+		super("Error while parsing line <" + line + ">. " + reason, cause);
+		this.reason = reason;
+	}
+
+	public String getReason() {
+		return this.reason;
+	}
+}
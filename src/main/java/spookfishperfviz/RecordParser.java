@@ -31,4 +31,51 @@ public abstract class RecordParser {
 
 	protected abstract Record parse(String line);
 
+	/**
+	 * Same as {@linkplain #isIgnore(String)}, but avoids creating a
+	 * {@linkplain String} for every line. <code>line</code> may be a re-usable
+	 * view that is valid only during this call and hence must not be retained.
+	 * 
+	 * The default implementation converts <code>line</code> to a String.
+	 * Sub-classes should override this method if they can do better.
+	 */
+	protected boolean isIgnore(final CharSequence line) {
+		return isIgnore(line.toString());
+	}
+
+	/**
+	 * Same as {@linkplain #parse(String)}, but avoids creating a
+	 * {@linkplain String} for every line. <code>line</code> may be a re-usable
+	 * view that is valid only during this call and hence must not be retained.
+	 * 
+	 * The default implementation converts <code>line</code> to a String.
+	 * Sub-classes should override this method if they can do better.
+	 */
+	protected Record parse(final CharSequence line) {
+		return parse(line.toString());
+	}
+
+	/**
+	 * Same as {@linkplain #parse(CharSequence)}, but adds the record to
+	 * <code>batch</code>, which is not full, instead of creating a
+	 * {@linkplain Record}. If the line can not be parsed, an exception is
+	 * thrown and nothing is added to the batch.
+	 * 
+	 * The default implementation adds the record returned by
+	 * {@linkplain #parse(CharSequence)}. Sub-classes should override this
+	 * method if they can do better.
+	 */
+	protected void parse(final CharSequence line, final RecordBatch batch) {
+		batch.add(parse(line));
+	}
+
+	/**
+	 * @return <code>true</code> if this parser can be called from several
+	 *         threads at the same time, in which case input may be parsed in
+	 *         parallel. The default implementation returns
+	 *         <code>false</code>.
+	 */
+	protected boolean isThreadSafe() {
+		return false;
+	}
 }
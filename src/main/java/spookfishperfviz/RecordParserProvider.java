@@ -0,0 +1,49 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+/**
+ * Creates the {@linkplain RecordParser} selected by option
+ * <code>parser</code>.
+ * 
+ * Providers are discovered with {@linkplain java.util.ServiceLoader}. Hence a
+ * parser can be added by putting on the class path a jar that has the
+ * provider and lists it in
+ * <code>META-INF/services/spookfishperfviz.RecordParserProvider</code>. The
+ * provider must be a public class with a public no-arg constructor.
+ * 
+ * @author Rahul Bakale
+ * @since Nov, 2014
+ */
+public interface RecordParserProvider {
+
+	/**
+	 * @return value of option <code>parser</code> that selects this provider
+	 */
+	String getName();
+
+	/**
+	 * @return names of the options read by
+	 *         {@linkplain #create(Options)}. These are the only options given
+	 *         to it. Records saved in a checkpoint are reused only if these
+	 *         options have not changed.
+	 */
+	String[] getOptionNames();
+
+	RecordParser create(Options options) throws BadOptionsException;
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.TreeMap;
+
+/**
+ * The {@linkplain RecordParserProvider}s found on the class path, by name.
+ * 
+ * @author Rahul Bakale
+ * @since Nov, 2014
+ */
+final class RecordParserRegistry {
+
+	private static final class Holder {
+
+		static final Map<String, RecordParserProvider> PROVIDERS = load();
+
+		private static Map<String, RecordParserProvider> load() {
+
+			final Map<String, RecordParserProvider> providers = new TreeMap<>();
+
+			for (final RecordParserProvider provider : ServiceLoader.load(RecordParserProvider.class)) {
+
+				final String name = provider.getName();
+				final RecordParserProvider existing = providers.get(name);
+
+				if (existing == null) {
+					providers.put(name, provider);
+				} else {
+					System.out.println("Parser <" + name + "> is provided by both <" + existing.getClass().getName() + "> and <" + provider.getClass().getName()
+							+ ">, hence the latter is ignored.");
+				}
+			}
+
+			return Collections.unmodifiableMap(providers);
+		}
+	}
+
+	static RecordParserProvider get(final String name) throws BadOptionsException {
+
+		final RecordParserProvider provider = Holder.PROVIDERS.get(name);
+
+		if (provider == null) {
+			throw BadOptionsException.illegalValue("parser", "<" + name + ">. Must be one of " + Holder.PROVIDERS.keySet() + ".", null);
+		}
+
+		return provider;
+	}
+
+	private RecordParserRegistry() {
+		//
+	}
+}
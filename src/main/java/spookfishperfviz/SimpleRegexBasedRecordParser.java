@@ -17,12 +17,12 @@
 
 package spookfishperfviz;
 
-import java.text.SimpleDateFormat;
 import java.util.TimeZone;
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
+ * Thread-safe.
+ * 
  * @author Rahul Bakale
  * @since Nov, 2014
  */
@@ -40,45 +40,254 @@ public final class SimpleRegexBasedRecordParser extends RecordParser {
 		return new SimpleRegexBasedRecordParser(ignorePattern, parsePattern, timestampPattern, timeZone);
 	}
 
-	private final String ignorePattern;
-	private final Pattern parsePatternObj;
-	private final SimpleDateFormat timestampDateFormat;
+	/**
+	 * Provides parser <code>regex</code>.
+	 */
+	public static final class Provider implements RecordParserProvider {
+
+		@Override
+		public String getName() {
+			return "regex";
+		}
+
+		@Override
+		public String[] getOptionNames() {
+			return new String[] { "ignorePattern", "parsePattern", "timestampPattern", "inputTimeZone" };
+		}
+
+		@Override
+		public RecordParser create(final Options options) throws BadOptionsException {
+
+			final String ignorePattern = options.getOptional("ignorePattern", String.class, null);
+			final String parsePattern = options.getMandatory("parsePattern", String.class);
+			final String timestampPattern = options.getMandatory("timestampPattern", String.class);
+			final TimeZone inputTimeZone = options.getOptional("inputTimeZone", TimeZone.class, TimeZone.getDefault());
+
+			return SimpleRegexBasedRecordParser.create(ignorePattern, parsePattern, timestampPattern, inputTimeZone);
+		}
+	}
+
+	private final PrefilteredPattern ignorePattern;
+	private final PrefilteredPattern parsePattern;
+	private final TimestampParser timestampParser;
+
+	/**
+	 * Index of the {@linkplain NamedGroup#Timestamp} group, or -1 if it could
+	 * not be determined.
+	 */
+	private final int timestampGroup;
+
+	/**
+	 * Index of the {@linkplain NamedGroup#EventName} group, or -1 if it could
+	 * not be determined.
+	 */
+	private final int eventNameGroup;
+
+	/**
+	 * Index of the {@linkplain NamedGroup#Latency} group, or -1 if it could
+	 * not be determined.
+	 */
+	private final int latencyGroup;
 
 	private SimpleRegexBasedRecordParser(final String ignorePattern, final String parsePattern, final String timestampPattern, final TimeZone timeZone) {
 		
-		this.ignorePattern = ignorePattern;
-		this.parsePatternObj = Pattern.compile(parsePattern);
-		
-		final SimpleDateFormat dateFormat = new SimpleDateFormat(timestampPattern);
-		dateFormat.setTimeZone(timeZone);
+		this.ignorePattern = ignorePattern == null ? null : PrefilteredPattern.compile(ignorePattern);
+		this.parsePattern = PrefilteredPattern.compile(parsePattern);
 		
-		this.timestampDateFormat = dateFormat;
+		this.timestampParser = TimestampParser.create(timestampPattern, timeZone);
+		this.timestampGroup = getGroupIndex(parsePattern, NamedGroup.Timestamp.name());
+		this.eventNameGroup = getGroupIndex(parsePattern, NamedGroup.EventName.name());
+		this.latencyGroup = getGroupIndex(parsePattern, NamedGroup.Latency.name());
+	}
+
+	/**
+	 * {@linkplain Matcher} does not provide start and end of a named group.
+	 * Hence the index of the group is determined by counting the capturing
+	 * groups that precede it in the regular expression.
+	 * 
+	 * @return index of the named group, or -1 if it could not be determined
+	 */
+	static int getGroupIndex(final String regex, final String groupName) {
+
+		final int len = regex.length();
+
+		int groupCount = 0;
+
+		for (int i = 0; i < len; i++) {
+
+			final char ch = regex.charAt(i);
+
+			if (ch == '\\') {
+
+				if (((i + 1) < len) && (regex.charAt(i + 1) == 'Q')) {
+					final int quoteEnd = regex.indexOf("\\E", i + 2);
+					if (quoteEnd < 0) {
+						break;
+					}
+					i = quoteEnd + 1;
+				} else {
+					i++;
+				}
+
+			} else if (ch == '[') {
+
+				i = skipCharacterClass(regex, i);
+
+			} else if (ch == '(') {
+
+				if (((i + 1) < len) && (regex.charAt(i + 1) == '?')) {
+
+					if (((i + 3) < len) && (regex.charAt(i + 2) == '<') && (regex.charAt(i + 3) != '=') && (regex.charAt(i + 3) != '!')) {
+
+						groupCount++;
+
+						final int nameEnd = regex.indexOf('>', i + 3);
+						if (nameEnd < 0) {
+							break;
+						}
+
+						if (groupName.equals(regex.substring(i + 3, nameEnd))) {
+							return groupCount;
+						}
+
+						i = nameEnd;
+
+					} else {
+
+						// In COMMENTS mode, parentheses may appear in comments
+						// and hence can not be counted reliably.
+						for (int k = i + 2; (k < len) && (Character.isLetter(regex.charAt(k)) || (regex.charAt(k) == '-')); k++) {
+							if (regex.charAt(k) == 'x') {
+								return -1;
+							}
+						}
+					}
+
+				} else {
+					groupCount++;
+				}
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * @return index of the <code>]</code> that closes the character class
+	 *         opened at <code>start</code>
+	 */
+	static int skipCharacterClass(final String regex, final int start) {
+
+		final int len = regex.length();
+
+		int i = start + 1;
+
+		if ((i < len) && (regex.charAt(i) == '^')) {
+			i++;
+		}
+
+		if ((i < len) && (regex.charAt(i) == ']')) {
+			i++; // literal ']'
+		}
+
+		int depth = 1;
+
+		for (; i < len; i++) {
+
+			final char ch = regex.charAt(i);
+
+			if (ch == '\\') {
+				i++;
+			} else if (ch == '[') {
+				depth++;
+			} else if (ch == ']') {
+				depth--;
+				if (depth == 0) {
+					return i;
+				}
+			}
+		}
+
+		return len;
 	}
 
 	@Override
 	protected final boolean isIgnore(final String line) {
-		final String pattern = this.ignorePattern;
-		return pattern != null && line.matches(pattern);
+		return isIgnore((CharSequence) line);
 	}
 
 	@Override
 	protected final Record parse(final String line) {
+		return parse((CharSequence) line);
+	}
+
+	@Override
+	protected final boolean isIgnore(final CharSequence line) {
+		final PrefilteredPattern pattern = this.ignorePattern;
+		return pattern != null && pattern.matches(line);
+	}
+
+	@Override
+	protected final Record parse(final CharSequence line) {
+		return RecordBatch.parseRecord(this, line);
+	}
+
+	@Override
+	protected final boolean isThreadSafe() {
+		return true;
+	}
 
+	@Override
+	protected final void parse(final CharSequence line, final RecordBatch batch) {
+
+		final Matcher matcher = this.parsePattern.match(line);
+
+		if (matcher == null) {
+			throw new RecordParseException(line, RecordParseException.PATTERN_MISMATCH, null);
+		}
+
+		final long timestamp;
 		try {
-			final Matcher matcher = this.parsePatternObj.matcher(line);
+			timestamp = parseTimestamp(matcher, line);
+		} catch (final RuntimeException e) {
+			throw new RecordParseException(line, RecordParseException.INVALID_TIMESTAMP, e);
+		}
 
-			if (!matcher.matches()) {
-				throw new RuntimeException("Pattern does not match");
-			}
+		final double latency;
+		try {
+			latency = RecordBatch.checkLatency(parseLatency(matcher, line));
+		} catch (final RuntimeException e) {
+			throw new RecordParseException(line, RecordParseException.INVALID_LATENCY, e);
+		}
+
+		final int group = this.eventNameGroup;
 
-			final long timestamp = this.timestampDateFormat.parse(matcher.group(NamedGroup.Timestamp.name())).getTime();
-			final String eventName = matcher.group(NamedGroup.EventName.name());
-			final double latency = Double.parseDouble(matcher.group(NamedGroup.Latency.name()));
+		if (group < 0) {
+			batch.add(matcher.group(NamedGroup.EventName.name()), timestamp, latency);
+		} else {
+			batch.add(line, matcher.start(group), matcher.end(group), timestamp, latency);
+		}
+	}
+
+	private double parseLatency(final Matcher matcher, final CharSequence line) {
+
+		final int group = this.latencyGroup;
+
+		if (group < 0) {
+			return Double.parseDouble(matcher.group(NamedGroup.Latency.name()));
+		}
+
+		return DecimalParser.parse(line, matcher.start(group), matcher.end(group));
+	}
 
-			return new Record(eventName, timestamp, latency);
+	private long parseTimestamp(final Matcher matcher, final CharSequence line) {
 
-		} catch (final Exception e) {
-			throw new RuntimeException("Error while parsing line <" + line + ">", e);
+		final int group = this.timestampGroup;
+
+		if (group < 0) {
+			return this.timestampParser.parse(matcher.group(NamedGroup.Timestamp.name()));
 		}
+
+		return this.timestampParser.parse(line, matcher.start(group), matcher.end(group));
 	}
 }
@@ -0,0 +1,78 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+/**
+ * Range of time from <code>from</code> (inclusive) to <code>to</code>
+ * (exclusive), in milliseconds since the epoch.
+ *
+ * @author Rahul Bakale
+ * @since Nov, 2014
+ */
+final class TimeRange {
+
+	final long from;
+	final long to;
+
+	/**
+	 * @param from
+	 *            <code>null</code> if the range has no lower bound
+	 * @param to
+	 *            <code>null</code> if the range has no upper bound
+	 */
+	static TimeRange create(final Long from, final Long to) {
+
+		final long f = (from == null) ? Long.MIN_VALUE : from.longValue();
+		final long t = (to == null) ? Long.MAX_VALUE : to.longValue();
+
+		if (f >= t) {
+			throw new IllegalArgumentException("Start of the range must be before its end");
+		}
+
+		return new TimeRange(f, t);
+	}
+
+	private TimeRange(final long from, final long to) {
+		this.from = from;
+		this.to = to;
+	}
+
+	boolean contains(final long timestamp) {
+		return (timestamp >= this.from) && (timestamp < this.to);
+	}
+
+	/**
+	 * @return this range, widened by <code>margin</code> on both sides
+	 */
+	TimeRange widen(final long margin) {
+		return new TimeRange(subtract(this.from, margin), add(this.to, margin));
+	}
+
+	private static long subtract(final long a, final long b) {
+		return (a < (Long.MIN_VALUE + b)) ? Long.MIN_VALUE : a - b;
+	}
+
+	private static long add(final long a, final long b) {
+		return (a > (Long.MAX_VALUE - b)) ? Long.MAX_VALUE : a + b;
+	}
+
+	@Override
+	public String toString() {
+		return "[" + this.from + ", " + this.to + ")";
+	}
+}
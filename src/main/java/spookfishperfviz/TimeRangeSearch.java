@@ -0,0 +1,190 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Finds, by binary search, the part of an uncompressed file that holds the
+ * records of a {@linkplain TimeRange}, so that the rest of the file need not be
+ * parsed.
+ *
+ * The records in the file are assumed to be ordered by timestamp, except for
+ * records that are out of order by at most <code>maxDisorderMillis</code>.
+ * The part found may contain records outside the time range, which must be
+ * filtered out by the caller. Records that are out of order by more than
+ * <code>maxDisorderMillis</code> may be missed.
+ *
+ * Each probe of the search reads a small window of the file and parses the
+ * first line in it that is not ignored and can be parsed. If there is no such
+ * line in the window, the search stops early with the bounds found so far,
+ * hence the part found is then bigger than needed, but never smaller.
+ *
+ * @author Rahul Bakale
+ * @since Nov, 2014
+ */
+final class TimeRangeSearch {
+
+	private static final int WINDOW_SIZE = 1 << 16; // 64 KB
+
+	/**
+	 * The search stops when the bounds are closer than this. Parsing the
+	 * remaining bytes costs about as much as a few more probes.
+	 */
+	private static final long MIN_SEARCH_SIZE = 1L << 16; // 64 KB
+
+	private static final byte LF = '\n';
+
+	/**
+	 * @return <code>{start, end}</code> byte range of the file, that begins at
+	 *         the start of a line and ends just after a line separator or at
+	 *         the end of the file.
+	 */
+	static long[] find(	final FileChannel channel,
+						final RecordParser parser,
+						final Charset charset,
+						final TimeRange timeRange,
+						final long maxDisorderMillis) throws IOException {
+
+		final long size = channel.size();
+		final TimeRange range = timeRange.widen(maxDisorderMillis);
+		final ByteBuffer window = ByteBuffer.allocate(WINDOW_SIZE);
+
+		final long start;
+		if (range.from == Long.MIN_VALUE) {
+			start = 0;
+		} else {
+			start = search(channel, size, parser, charset, range.from, window)[0];
+		}
+
+		final long end;
+		if (range.to == Long.MAX_VALUE) {
+			end = size;
+		} else {
+			final long hi = search(channel, size, parser, charset, range.to, window)[1];
+			end = (hi == 0) ? 0 : ParallelFileIngester.findLineEnd(channel, hi, size);
+		}
+
+		return new long[] { start, Math.max(start, end) };
+	}
+
+	/**
+	 * @return <code>{lo, hi}</code> such that the first line having a
+	 *         timestamp not before <code>time</code> starts at or after
+	 *         <code>lo</code> and at or before the first line start at or after
+	 *         <code>hi</code>. <code>lo</code> is the start of a line.
+	 */
+	private static long[] search(	final FileChannel channel,
+									final long size,
+									final RecordParser parser,
+									final Charset charset,
+									final long time,
+									final ByteBuffer window) throws IOException {
+
+		long lo = 0;
+		long hi = size;
+
+		while ((hi - lo) > MIN_SEARCH_SIZE) {
+
+			final long mid = lo + ((hi - lo) / 2);
+			final long lineStart = ParallelFileIngester.findLineEnd(channel, mid, hi);
+
+			if (lineStart >= hi) {
+				// no line starts between mid and hi
+				hi = mid;
+				continue;
+			}
+
+			final long[] probe = probe(channel, parser, charset, lineStart, hi, window);
+
+			if (probe == null) {
+				break;
+			}
+
+			if (probe[1] < time) {
+				lo = probe[0];
+			} else {
+				hi = lineStart;
+			}
+		}
+
+		return new long[] { lo, hi };
+	}
+
+	/**
+	 * @return <code>{offset, timestamp}</code> of the first line, starting at
+	 *         or after <code>from</code> and ending before <code>limit</code>,
+	 *         that is not ignored and can be parsed, or <code>null</code> if
+	 *         there is none in the window.
+	 */
+	private static long[] probe(final FileChannel channel,
+								final RecordParser parser,
+								final Charset charset,
+								final long from,
+								final long limit,
+								final ByteBuffer window) throws IOException {
+
+		window.clear();
+		window.limit((int) Math.min(window.capacity(), limit - from));
+
+		while (window.hasRemaining()) {
+			if (channel.read(window, from + window.position()) < 0) {
+				break;
+			}
+		}
+
+		window.flip();
+
+		// Only complete lines are parsed
+		int end = window.limit();
+		while ((end > 0) && (window.get(end - 1) != LF)) {
+			end--;
+		}
+		window.limit(end);
+
+		try (final ByteLineReader reader = ByteLineReader.create(window, charset);) {
+
+			CharSequence line;
+
+			while ((line = reader.next()) != null) {
+
+				if (parser.isIgnore(line)) {
+					continue;
+				}
+
+				final Record record;
+				try {
+					record = parser.parse(line);
+				} catch (final RuntimeException e) {
+					continue;
+				}
+
+				return new long[] { from + reader.lineOffset(), record.getTimestamp() };
+			}
+		}
+
+		return null;
+	}
+
+	private TimeRangeSearch() {
+		//
+	}
+}
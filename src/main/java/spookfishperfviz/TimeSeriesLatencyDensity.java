@@ -25,6 +25,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map.Entry;
 import java.util.NavigableSet;
 import java.util.Objects;
 import java.util.Set;
@@ -61,6 +62,11 @@ final class TimeSeriesLatencyDensity {
 		}
 	};
 
+	/**
+	 * Durations longer than this have coarser columns and every time label.
+	 */
+	private static final long TIME_LABEL_THRESHOLD = TimeUnit.HOURS.toMillis(5);
+
 	
 
 	
@@ -103,6 +109,20 @@ final class TimeSeriesLatencyDensity {
 		}
 	}
 
+	private static final class LongAddOperator implements UnaryOperator<Long> {
+
+		private final long addend;
+
+		LongAddOperator(final long addend) {
+			this.addend = addend;
+		}
+
+		@Override
+		public Long apply(final Long l) {
+			return Long.valueOf((l == null ? 0 : l.longValue()) + this.addend);
+		}
+	}
+
 	private static final class TimestampTooltipMaker implements Function<Long, String> {
 
 		private final SimpleDateFormat format;
@@ -121,34 +141,73 @@ final class TimeSeriesLatencyDensity {
 		}
 	}
 
-	static TimeSeriesLatencyDensity create(	final double[] latencies, 
-											final long[] timestamps, 
+	static TimeSeriesLatencyDensity create(	final List<LatencySamples> samples, 
 											final TimeZone outputTimeZone, 
 											final Integer maxIntervalPointsForLatencyDensity) {
 		
-		final double[] minMax = Utils.minMax(latencies);
+		final double[] minMax = LatencySamples.minMaxLatency(samples);
 		final double minIntervalPoint = minMax[0];
 		final double maxIntervalPoint = minMax[1];
 
-		return create0(latencies, timestamps, outputTimeZone, minIntervalPoint, maxIntervalPoint, maxIntervalPointsForLatencyDensity);
+		return create0(samples, outputTimeZone, createIntervalPoints(minIntervalPoint, maxIntervalPoint, maxIntervalPointsForLatencyDensity));
+	}
+
+	static TimeSeriesLatencyDensity create(	final List<LatencySamples> samples, 
+											final TimeZone outputTimeZone, 
+											final double minIntervalPointForLatencyDensity, 
+											final double maxIntervalPointForLatencyDensity, 
+											final Integer maxIntervalPointsForLatencyDensity) {
+		
+		final double[] minMax = LatencySamples.minMaxLatency(samples);
+
+		final double[] intervalPoints = 
+				createIntervalPoints(minMax[0], minMax[1], minIntervalPointForLatencyDensity, maxIntervalPointForLatencyDensity, maxIntervalPointsForLatencyDensity);
+
+		return create0(samples, outputTimeZone, intervalPoints);
 	}
 
-	static TimeSeriesLatencyDensity create(	final double[] latencies, 
-											final long[] timestamps, 
+	/**
+	 * Same as {@linkplain #create(List, TimeZone, Integer)}, but from the
+	 * histograms of the time slots of <code>buckets</code>. Hence the latencies
+	 * are placed in the rows within the relative error of those histograms.
+	 */
+	static TimeSeriesLatencyDensity create(	final LatencyBuckets buckets, 
+											final TimeZone outputTimeZone, 
+											final Integer maxIntervalPointsForLatencyDensity) {
+		
+		final ApproximateDistribution latencies = buckets.getLatencies();
+
+		return create0(buckets, outputTimeZone, createIntervalPoints(latencies.getMin(), latencies.getMax(), maxIntervalPointsForLatencyDensity));
+	}
+
+	/**
+	 * Same as {@linkplain #create(List, TimeZone, double, double, Integer)},
+	 * but from the histograms of the time slots of <code>buckets</code>.
+	 */
+	static TimeSeriesLatencyDensity create(	final LatencyBuckets buckets, 
 											final TimeZone outputTimeZone, 
 											final double minIntervalPointForLatencyDensity, 
 											final double maxIntervalPointForLatencyDensity, 
 											final Integer maxIntervalPointsForLatencyDensity) {
 		
+		final ApproximateDistribution latencies = buckets.getLatencies();
+
+		final double[] intervalPoints = 
+				createIntervalPoints(latencies.getMin(), latencies.getMax(), minIntervalPointForLatencyDensity, maxIntervalPointForLatencyDensity, maxIntervalPointsForLatencyDensity);
+
+		return create0(buckets, outputTimeZone, intervalPoints);
+	}
+
+	private static double[] createIntervalPoints(	final double minLatency, 
+													final double maxLatency, 
+													final double minIntervalPointForLatencyDensity, 
+													final double maxIntervalPointForLatencyDensity, 
+													final Integer maxIntervalPointsForLatencyDensity) {
 		
 		if (minIntervalPointForLatencyDensity > maxIntervalPointForLatencyDensity) {
 			throw new IllegalArgumentException("min = <" + minIntervalPointForLatencyDensity + ">, max = <" + maxIntervalPointForLatencyDensity + ">");
 		}
 
-		final double[] minMax = Utils.minMax(latencies);
-		final double minLatency = minMax[0];
-		final double maxLatency = minMax[1];
-
 		final double minIntervalPoint;
 		final double maxIntervalPoint;
 
@@ -160,13 +219,10 @@ final class TimeSeriesLatencyDensity {
 			maxIntervalPoint = Math.min(maxLatency, maxIntervalPointForLatencyDensity);
 		}
 
-		return create0(latencies, timestamps, outputTimeZone, minIntervalPoint, maxIntervalPoint, maxIntervalPointsForLatencyDensity);
+		return createIntervalPoints(minIntervalPoint, maxIntervalPoint, maxIntervalPointsForLatencyDensity);
 	}
 	
-	private static TimeSeriesLatencyDensity create0(final double[] latencies, 
-													final long[] timestamps, 
-													final TimeZone outputTimeZone, 
-													final double adjustedMinIntervalPointForLatencyDensity,
+	private static double[] createIntervalPoints(	final double adjustedMinIntervalPointForLatencyDensity,
 													final double adjustedMaxIntervalPointForLatencyDensity, 
 													final Integer maxIntervalPointsForLatencyDensity) {
 		
@@ -174,10 +230,7 @@ final class TimeSeriesLatencyDensity {
 				maxIntervalPointsForLatencyDensity == null ? 
 						DEFAULT_MAX_INTERBAL_POINTS_FOR_LATENCY_DENSITY : maxIntervalPointsForLatencyDensity.intValue();
 		
-		final double[] intervalPointsForLatencyDensity = 
-				createIntervalPoints(adjustedMinIntervalPointForLatencyDensity, adjustedMaxIntervalPointForLatencyDensity, maxIntervalPoints);
-		
-		return new TimeSeriesLatencyDensity(latencies, timestamps, outputTimeZone, intervalPointsForLatencyDensity);
+		return createIntervalPoints(adjustedMinIntervalPointForLatencyDensity, adjustedMaxIntervalPointForLatencyDensity, maxIntervalPoints);
 	}
 	
 	private static double[] createIntervalPoints(final double minIntervalPoint, final double maxIntervalPoint, final int maxIntervalPoints) {
@@ -197,62 +250,89 @@ final class TimeSeriesLatencyDensity {
 		return Utils.createIntervalPoints(adjustedMin, adjustedMax, nIntervalPoints);
 	}
 
-	
-	private final Density<Double, Long, Long> density;
-	private final int defaultTimeLabelSkipCount;
+	private static TimeSeriesLatencyDensity create0(final List<LatencySamples> samples, final TimeZone outputTimeZone, final double[] responseTimeIntervalPoints) {
+		
+		Objects.requireNonNull(samples);
 
-	
-	private final TimestampLabelMaker timestampLabelMaker;
-	private final TimestampTooltipMaker timestampTooltipMaker;
+		final long[] minMaxTime = LatencySamples.minMaxTimestamp(samples);
+		final long minTime = minMaxTime[0];
+		final long maxTime = minMaxTime[1];
+
+		final Density<Double, Long, Long> d = createDensity(minTime, maxTime, outputTimeZone, responseTimeIntervalPoints);
+
+		for (final LatencySamples part : samples) {
+			for (int chunk = 0, n = part.chunkCount(); chunk < n; chunk++) {
+
+				final double[] latencies = part.latencyChunk(chunk);
+				final long[] timestamps = part.timestampChunk(chunk);
+
+				for (int i = 0, len = part.chunkSize(chunk); i < len; i++) {
+					final Double row = Double.valueOf(latencies[i]);
+					final Long column = Long.valueOf(timestamps[i]);
+
+					d.apply(row, column, LONG_INC_OPERATOR);
+				}
+			}
+		}
 
-	private TimeSeriesLatencyDensity(final double[] latencies, final long[] timestamps, final TimeZone outputTimeZone, final double[] responseTimeIntervalPoints) {
-		this(latencies, timestamps, outputTimeZone, null, Utils.toHashSet(responseTimeIntervalPoints));
+		return new TimeSeriesLatencyDensity(d, minTime, maxTime, outputTimeZone);
 	}
 
-	private TimeSeriesLatencyDensity(final double[] latencies, 
-									 final long[] timestamps, 
-									 final TimeZone outputTimeZone, 
-									 final Set<Long> inputTimestampIntervalPoints, 
-									 final Set<Double> responseTimeIntervalPoints) {
+	private static TimeSeriesLatencyDensity create0(final LatencyBuckets buckets, final TimeZone outputTimeZone, final double[] responseTimeIntervalPoints) {
 		
-		Objects.requireNonNull(latencies);
-		Objects.requireNonNull(timestamps);
-		Objects.requireNonNull(outputTimeZone);
-		
-		this.timestampLabelMaker = new TimestampLabelMaker(outputTimeZone);
-		this.timestampTooltipMaker = new TimestampTooltipMaker(outputTimeZone);
+		final long minTime = buckets.getMinTimestamp();
+		final long maxTime = buckets.getMaxTimestamp();
 
-		if (latencies.length != timestamps.length) {
-			throw new IllegalArgumentException("Number of latencies must be same as number of timestamps");
-		}
+		final Density<Double, Long, Long> d = createDensity(minTime, maxTime, outputTimeZone, responseTimeIntervalPoints);
 
-		final long[] sortedTimestamps = Utils.sort(timestamps);
-		final long minTime = sortedTimestamps[0];
-		final long maxTime = sortedTimestamps[sortedTimestamps.length - 1];
-		final long duration = maxTime - minTime;
-		final long threshold = TimeUnit.HOURS.toMillis(5);
+		for (final Entry<Long, LogLinearHistogram> e : buckets.getLatenciesByTimeSlot().entrySet()) {
 
-		final int defaultTimeLabelSkipCount = (duration > threshold) ? 1 : 2;
+			// A column includes its end but not its start, hence a time slot is
+			// placed by its last millisecond, which is however kept within
+			// the columns.
+			final long slotEnd = (e.getKey().longValue() + LatencyBuckets.TIME_SLOT_MILLIS) - 1;
+			final Long column = Long.valueOf(Math.max(minTime, Math.min(maxTime, slotEnd)));
+			final LogLinearHistogram latencies = e.getValue();
 
-		final Set<Long> timestampIntervalPoints;
-		if (inputTimestampIntervalPoints == null) {
-			final long timeIntervalInMillis = (duration > threshold) ? TimeUnit.MINUTES.toMillis(30) : TimeUnit.MINUTES.toMillis(5);
-			timestampIntervalPoints = Utils.getTimestampIntervalPoints(timestamps, outputTimeZone, timeIntervalInMillis);
-		} else {
-			timestampIntervalPoints = inputTimestampIntervalPoints;
+			for (int bucket = 0, n = latencies.getBucketCount(); bucket < n; bucket++) {
+
+				final long count = latencies.getCount(bucket);
+
+				if (count != 0) {
+					d.apply(Double.valueOf(latencies.getValue(bucket)), column, new LongAddOperator(count));
+				}
+			}
 		}
 
-		final Density<Double, Long, Long> d = Density.create(responseTimeIntervalPoints, timestampIntervalPoints, Long.valueOf(0), Long.class);
+		return new TimeSeriesLatencyDensity(d, minTime, maxTime, outputTimeZone);
+	}
 
-		for (int i = 0; i < latencies.length; i++) {
-			final Double row = Double.valueOf(latencies[i]);
-			final Long column = Long.valueOf(timestamps[i]);
+	private static Density<Double, Long, Long> createDensity(final long minTime, final long maxTime, final TimeZone outputTimeZone, final double[] responseTimeIntervalPoints) {
 
-			d.apply(row, column, LONG_INC_OPERATOR);
-		}
+		final long duration = maxTime - minTime;
+		final long timeIntervalInMillis = (duration > TIME_LABEL_THRESHOLD) ? TimeUnit.MINUTES.toMillis(30) : TimeUnit.MINUTES.toMillis(5);
+		final Set<Long> timestampIntervalPoints = Utils.getTimestampIntervalPoints(minTime, maxTime, outputTimeZone, timeIntervalInMillis);
+
+		return Density.create(Utils.toHashSet(responseTimeIntervalPoints), timestampIntervalPoints, Long.valueOf(0), Long.class);
+	}
+
+	
+	private final Density<Double, Long, Long> density;
+	private final int defaultTimeLabelSkipCount;
+
+	
+	private final TimestampLabelMaker timestampLabelMaker;
+	private final TimestampTooltipMaker timestampTooltipMaker;
+
+	private TimeSeriesLatencyDensity(final Density<Double, Long, Long> density, final long minTime, final long maxTime, final TimeZone outputTimeZone) {
+		
+		Objects.requireNonNull(outputTimeZone);
+		
+		this.timestampLabelMaker = new TimestampLabelMaker(outputTimeZone);
+		this.timestampTooltipMaker = new TimestampTooltipMaker(outputTimeZone);
 
-		this.density = d;
-		this.defaultTimeLabelSkipCount = defaultTimeLabelSkipCount;
+		this.density = density;
+		this.defaultTimeLabelSkipCount = ((maxTime - minTime) > TIME_LABEL_THRESHOLD) ? 1 : 2;
 	}
 
 	HeatMapSVG getHeatMapSVG(final TimeUnit latencyUnit, final double heatMapSingleAreaWidth, final ColorRampScheme colorScheme) {
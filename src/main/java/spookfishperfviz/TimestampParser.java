@@ -0,0 +1,602 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Parses timestamps in the format specified by a {@linkplain SimpleDateFormat}
+ * pattern, and returns them as milliseconds since epoch.
+ *
+ * Log files have thousands of consecutive lines with timestamps that differ
+ * only in the sub-second part. So a parser remembers, per thread, the epoch
+ * value of the last date/time prefix it parsed and, when the next timestamp
+ * has the same prefix, computes only the sub-second part. The cache is kept
+ * per thread because parallel workers parse different parts of the input,
+ * and a shared cache would be overwritten by each of them in turn.
+ *
+ * Fixed-width patterns made only of <code>yyyy</code>, <code>MM</code>,
+ * <code>dd</code>, <code>HH</code>, <code>mm</code>, <code>ss</code>,
+ * <code>SSS</code> and non-letter separators (for e.g.
+ * <code>yyyy-MM-dd HH:mm:ss.SSS</code> or
+ * <code>yyyy-MM-dd'T'HH:mm:ss,SSS</code>) are parsed without
+ * {@linkplain SimpleDateFormat}. Other patterns, and timestamps that the fast
+ * path can not handle, are parsed by {@linkplain SimpleDateFormat}. In both
+ * cases the result is same as what {@linkplain SimpleDateFormat#parse(String)}
+ * returns.
+ *
+ * The special patterns <code>epochMillis</code>, <code>epochMicros</code> and
+ * <code>epochNanos</code> denote timestamps that are already written as a
+ * number of milli, micro or nano seconds since epoch. Such timestamps are
+ * parsed as plain numbers and truncated to milliseconds.
+ *
+ * Thread-safe.
+ *
+ * @author Rahul Bakale
+ * @since Nov, 2014
+ */
+abstract class TimestampParser {
+
+	static final String EPOCH_MILLIS = "epochMillis";
+	static final String EPOCH_MICROS = "epochMicros";
+	static final String EPOCH_NANOS = "epochNanos";
+
+	static TimestampParser create(final String pattern, final TimeZone timeZone) {
+
+		final TimestampParser epoch = EpochParser.create(pattern);
+		if (epoch != null) {
+			return epoch;
+		}
+
+		final TimestampParser general = new DateFormatParser(pattern, timeZone);
+		final TimestampParser fixedWidth = FixedWidthParser.create(pattern, timeZone, general);
+
+		return fixedWidth == null ? general : fixedWidth;
+	}
+
+	TimestampParser() {
+		//
+	}
+
+	final long parse(final CharSequence text) {
+		return parse(text, 0, text.length());
+	}
+
+	/**
+	 * @return milliseconds since epoch
+	 * @throws IllegalArgumentException
+	 *             if the text between <code>start</code> (inclusive) and
+	 *             <code>end</code> (exclusive) can not be parsed
+	 */
+	abstract long parse(CharSequence text, int start, int end);
+
+	/**
+	 * @return value of the digits, or -1 if any of the characters is not a
+	 *         digit
+	 */
+	static int parseDigits(final CharSequence text, final int start, final int end) {
+
+		int value = 0;
+
+		for (int i = start; i < end; i++) {
+
+			final int digit = text.charAt(i) - '0';
+
+			if ((digit < 0) || (digit > 9)) {
+				return -1;
+			}
+
+			value = (value * 10) + digit;
+		}
+
+		return value;
+	}
+
+	/**
+	 * @return number of days from 1970-01-01 to the date, in the proleptic
+	 *         Gregorian calendar
+	 */
+	static long daysSinceEpoch(final int year, final int month, final int day) {
+
+		// Counts years from March, so that the leap day is the last day of a year.
+		final long y = (month <= 2) ? year - 1 : year;
+		final long era = (y >= 0 ? y : y - 399) / 400;
+		final long yearOfEra = y - (era * 400);
+		final long dayOfYear = ((((153 * (month > 2 ? month - 3 : month + 9)) + 2) / 5) + day) - 1;
+		final long dayOfEra = ((yearOfEra * 365) + (yearOfEra / 4)) - (yearOfEra / 100) + dayOfYear;
+
+		return ((era * 146097) + dayOfEra) - 719468;
+	}
+
+	private static boolean regionEquals(final String s, final CharSequence text, final int start, final int end) {
+
+		final int len = s.length();
+
+		if (len != (end - start)) {
+			return false;
+		}
+
+		for (int i = 0; i < len; i++) {
+			if (s.charAt(i) != text.charAt(start + i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Parses numeric timestamps, for e.g. <code>1416220530123</code>, that
+	 * count time units since epoch.
+	 */
+	private static final class EpochParser extends TimestampParser {
+
+		/**
+		 * 19 digits are enough for any positive <code>long</code>.
+		 */
+		private static final int MAX_DIGITS = 19;
+
+		static EpochParser create(final String pattern) {
+
+			if (EPOCH_MILLIS.equals(pattern)) {
+				return new EpochParser(1);
+			}
+
+			if (EPOCH_MICROS.equals(pattern)) {
+				return new EpochParser(1000);
+			}
+
+			if (EPOCH_NANOS.equals(pattern)) {
+				return new EpochParser(1000000);
+			}
+
+			return null;
+		}
+
+		private final long unitsPerMilli;
+
+		private EpochParser(final long unitsPerMilli) {
+			this.unitsPerMilli = unitsPerMilli;
+		}
+
+		@Override
+		long parse(final CharSequence text, final int start, final int end) {
+
+			final boolean negative = (start < end) && (text.charAt(start) == '-');
+			final int digitsStart = negative ? start + 1 : start;
+			final int digitCount = end - digitsStart;
+
+			if ((digitCount < 1) || (digitCount > MAX_DIGITS)) {
+				throw newParseException(text, start, end);
+			}
+
+			long value = 0;
+
+			for (int i = digitsStart; i < end; i++) {
+
+				final int digit = text.charAt(i) - '0';
+
+				if ((digit < 0) || (digit > 9)) {
+					throw newParseException(text, start, end);
+				}
+
+				value = (value * 10) + digit;
+			}
+
+			if (value < 0) { // overflow
+				throw newParseException(text, start, end);
+			}
+
+			final long unitsPerMilli = this.unitsPerMilli;
+
+			if (negative) {
+				// round towards negative infinity, so that all the values in a millisecond map to it
+				return -((value + unitsPerMilli - 1) / unitsPerMilli);
+			}
+
+			return value / unitsPerMilli;
+		}
+
+		private static IllegalArgumentException newParseException(final CharSequence text, final int start, final int end) {
+			return new IllegalArgumentException("Unparseable timestamp <" + text.subSequence(start, end) + ">");
+		}
+	}
+
+	/**
+	 * Parses using {@linkplain SimpleDateFormat}.
+	 *
+	 * If the pattern ends with a milliseconds field preceded by a separator,
+	 * for e.g. <code>.SSS</code>, the part before the separator is parsed by
+	 * {@linkplain SimpleDateFormat} and cached, and the milliseconds are added
+	 * to it. Otherwise the cache holds the whole of the last parsed timestamp.
+	 */
+	private static final class DateFormatParser extends TimestampParser {
+
+		private final ThreadLocal<SimpleDateFormat> fullFormat;
+		private final ThreadLocal<SimpleDateFormat> prefixFormat;
+
+		/**
+		 * Character separating the milliseconds from the rest of the
+		 * timestamp, or <code>0</code> if the pattern does not end with
+		 * milliseconds.
+		 */
+		private final char millisSeparator;
+
+		private final ThreadLocal<PrefixCache> cache;
+
+		DateFormatParser(final String pattern, final TimeZone timeZone) {
+
+			// Fail fast if the pattern is invalid.
+			new SimpleDateFormat(pattern);
+
+			final int len = pattern.length();
+
+			int millisStart = len;
+			while ((millisStart > 0) && (pattern.charAt(millisStart - 1) == 'S')) {
+				millisStart--;
+			}
+
+			final char separator;
+			final String prefixPattern;
+
+			if ((millisStart < len) && (millisStart > 1) && !Character.isLetter(pattern.charAt(millisStart - 1))
+					&& (pattern.charAt(millisStart - 1) != '\'') && isOutsideQuotes(pattern, millisStart)) {
+
+				separator = pattern.charAt(millisStart - 1);
+				prefixPattern = pattern.substring(0, millisStart - 1);
+			} else {
+				separator = 0;
+				prefixPattern = pattern;
+			}
+
+			this.fullFormat = newDateFormat(pattern, timeZone);
+			this.prefixFormat = newDateFormat(prefixPattern, timeZone);
+			this.millisSeparator = separator;
+			this.cache = new ThreadLocal<PrefixCache>() {
+				@Override
+				protected PrefixCache initialValue() {
+					return new PrefixCache();
+				}
+			};
+		}
+
+		private static boolean isOutsideQuotes(final String pattern, final int index) {
+
+			boolean inQuotes = false;
+
+			for (int i = 0; i < index; i++) {
+				if (pattern.charAt(i) == '\'') {
+					inQuotes = !inQuotes;
+				}
+			}
+
+			return !inQuotes;
+		}
+
+		private static ThreadLocal<SimpleDateFormat> newDateFormat(final String pattern, final TimeZone timeZone) {
+
+			// SimpleDateFormat is not thread-safe, hence one instance per thread.
+			return new ThreadLocal<SimpleDateFormat>() {
+				@Override
+				protected SimpleDateFormat initialValue() {
+					final SimpleDateFormat dateFormat = new SimpleDateFormat(pattern);
+					dateFormat.setTimeZone(timeZone);
+					return dateFormat;
+				}
+			};
+		}
+
+		@Override
+		long parse(final CharSequence text, final int start, final int end) {
+
+			int prefixEnd = end;
+			int millis = 0;
+
+			final char separator = this.millisSeparator;
+
+			if (separator != 0) {
+
+				int sepIndex = -1;
+				for (int i = end - 1; i >= start; i--) {
+					if (text.charAt(i) == separator) {
+						sepIndex = i;
+						break;
+					}
+				}
+
+				final int digitCount = end - sepIndex - 1;
+
+				if ((sepIndex < 0) || (digitCount < 1) || (digitCount > 9) || ((millis = parseDigits(text, sepIndex + 1, end)) < 0)) {
+					return parse(this.fullFormat, text.subSequence(start, end).toString());
+				}
+
+				prefixEnd = sepIndex;
+			}
+
+			final PrefixCache c = this.cache.get();
+
+			if ((c.prefix != null) && regionEquals(c.prefix, text, start, prefixEnd)) {
+				return c.epochMillis + millis;
+			}
+
+			final String prefix = text.subSequence(start, prefixEnd).toString();
+			final long epochMillis = parse(this.prefixFormat, prefix);
+
+			c.prefix = prefix;
+			c.epochMillis = epochMillis;
+
+			return epochMillis + millis;
+		}
+
+		private static long parse(final ThreadLocal<SimpleDateFormat> format, final String text) {
+			try {
+				return format.get().parse(text).getTime();
+			} catch (final java.text.ParseException e) {
+				throw new IllegalArgumentException("Unparseable timestamp <" + text + ">", e);
+			}
+		}
+
+		/**
+		 * Not thread-safe, used by one thread only.
+		 */
+		private static final class PrefixCache {
+
+			String prefix;
+			long epochMillis;
+		}
+	}
+
+	/**
+	 * Fast path for fixed-width numeric patterns.
+	 *
+	 * The epoch value of the hour is computed using {@linkplain Calendar} and
+	 * cached. Minutes, seconds and milliseconds are then added arithmetically,
+	 * unless the UTC offset of the time zone changes within that hour.
+	 */
+	private static final class FixedWidthParser extends TimestampParser {
+
+		private static final int YEAR = 0;
+		private static final int MONTH = 1;
+		private static final int DAY = 2;
+		private static final int HOUR = 3;
+		private static final int MINUTE = 4;
+		private static final int SECOND = 5;
+		private static final int MILLIS = 6;
+
+		private static final String FIELD_LETTERS = "yMdHmsS";
+		private static final int[] FIELD_WIDTHS = { 4, 2, 2, 2, 2, 2, 3 };
+
+		private static final long MILLIS_IN_AN_HOUR = 3600000L;
+
+		/**
+		 * @return <code>null</code> if the fast path can not be used for the
+		 *         pattern
+		 */
+		static FixedWidthParser create(final String pattern, final TimeZone timeZone, final TimestampParser fallback) {
+
+			final int[] fieldOffsets = { -1, -1, -1, -1, -1, -1, -1 };
+			final StringBuilder template = new StringBuilder();
+
+			final int len = pattern.length();
+
+			for (int i = 0; i < len;) {
+
+				final char ch = pattern.charAt(i);
+
+				if (ch == '\'') {
+					final int close = pattern.indexOf('\'', i + 1);
+					if (close < 0) {
+						return null;
+					}
+
+					if (close == (i + 1)) {
+						template.append('\'');
+					} else {
+						template.append(pattern, i + 1, close);
+					}
+
+					i = close + 1;
+
+				} else if (Character.isLetter(ch)) {
+
+					final int field = FIELD_LETTERS.indexOf(ch);
+					if (field < 0) {
+						return null;
+					}
+
+					int runEnd = i;
+					while ((runEnd < len) && (pattern.charAt(runEnd) == ch)) {
+						runEnd++;
+					}
+
+					final int width = runEnd - i;
+
+					if ((width != FIELD_WIDTHS[field]) || (fieldOffsets[field] >= 0)) {
+						return null;
+					}
+
+					fieldOffsets[field] = template.length();
+
+					for (int k = 0; k < width; k++) {
+						template.append('\0');
+					}
+
+					i = runEnd;
+
+				} else {
+					template.append(ch);
+					i++;
+				}
+			}
+
+			if ((fieldOffsets[YEAR] < 0) || (fieldOffsets[MONTH] < 0) || (fieldOffsets[DAY] < 0)) {
+				return null;
+			}
+
+			// Fields finer than the coarsest missing one are not supported,
+			// for e.g. yyyy-MM-dd mm
+			for (int f = HOUR + 1; f <= MILLIS; f++) {
+				if ((fieldOffsets[f] >= 0) && (fieldOffsets[f - 1] < 0)) {
+					return null;
+				}
+			}
+
+			for (int i = 0; i < template.length(); i++) {
+				final char ch = template.charAt(i);
+				if ((ch != '\0') && Character.isDigit(ch)) {
+					return null; // digit literals make the field boundaries ambiguous
+				}
+			}
+
+			return new FixedWidthParser(template.toString(), fieldOffsets, timeZone, fallback);
+		}
+
+		private final String template;
+		private final int[] fieldOffsets;
+		private final TimeZone timeZone;
+		private final TimestampParser fallback;
+
+		private final ThreadLocal<SecondCache> cache;
+
+		private FixedWidthParser(final String template, final int[] fieldOffsets, final TimeZone timeZone, final TimestampParser fallback) {
+			this.template = template;
+			this.fieldOffsets = fieldOffsets;
+			this.timeZone = (TimeZone) timeZone.clone();
+			this.fallback = fallback;
+			this.cache = new ThreadLocal<SecondCache>() {
+				@Override
+				protected SecondCache initialValue() {
+					return new SecondCache();
+				}
+			};
+		}
+
+		@Override
+		long parse(final CharSequence text, final int start, final int end) {
+
+			final String template = this.template;
+			final int width = template.length();
+
+			if ((end - start) != width) {
+				return this.fallback.parse(text, start, end);
+			}
+
+			for (int i = 0; i < width; i++) {
+				final char ch = template.charAt(i);
+				if ((ch != '\0') && (ch != text.charAt(start + i))) {
+					return this.fallback.parse(text, start, end);
+				}
+			}
+
+			final int year = field(YEAR, text, start);
+			final int month = field(MONTH, text, start);
+			final int day = field(DAY, text, start);
+			final int hour = field(HOUR, text, start);
+			final int minute = field(MINUTE, text, start);
+			final int second = field(SECOND, text, start);
+			final int millis = field(MILLIS, text, start);
+
+			if ((year < 0) || (month < 1) || (month > 12) || (day < 1) || (day > 31) || (hour < 0) || (hour > 23) || (minute < 0) || (minute > 59)
+					|| (second < 0) || (second > 59) || (millis < 0)) {
+
+				// SimpleDateFormat is lenient about out-of-range values.
+				return this.fallback.parse(text, start, end);
+			}
+
+			final long hourKey = (((((long) year * 100) + month) * 100) + day) * 100 + hour;
+			final long secondKey = (((hourKey * 100) + minute) * 100) + second;
+
+			final SecondCache c = this.cache.get();
+
+			if (c.secondKey != secondKey) {
+
+				if ((c.hourKey != hourKey) || !c.uniformOffset) {
+					setHour(c, year, month, day, hour, hourKey);
+				}
+
+				c.secondEpochMillis =
+						c.uniformOffset ? c.hourEpochMillis + (minute * 60000L) + (second * 1000L) : toEpochMillis(year, month, day, hour, minute, second);
+				c.secondKey = secondKey;
+			}
+
+			return c.secondEpochMillis + millis;
+		}
+
+		/**
+		 * @return value of the field, or 0 if the pattern does not have the
+		 *         field, or -1 if the field is not numeric
+		 */
+		private int field(final int field, final CharSequence text, final int start) {
+
+			final int offset = this.fieldOffsets[field];
+
+			if (offset < 0) {
+				return 0;
+			}
+
+			final int s = start + offset;
+			return parseDigits(text, s, s + FIELD_WIDTHS[field]);
+		}
+
+		private void setHour(final SecondCache c, final int year, final int month, final int day, final int hour, final long hourKey) {
+
+			final long hourEpochMillis = toEpochMillis(year, month, day, hour, 0, 0);
+			final long lastSecondEpochMillis = toEpochMillis(year, month, day, hour, 59, 59);
+
+			final TimeZone tz = this.timeZone;
+
+			c.hourKey = hourKey;
+			c.hourEpochMillis = hourEpochMillis;
+
+			// The offset may change within the hour by less than an hour, for
+			// e.g. in Australia/Lord_Howe, in which case the local times of
+			// the hour do not map to consecutive instants.
+			c.uniformOffset = (tz.getOffset(hourEpochMillis) == tz.getOffset((hourEpochMillis + MILLIS_IN_AN_HOUR) - 1))
+					&& (lastSecondEpochMillis == ((hourEpochMillis + MILLIS_IN_AN_HOUR) - 1000));
+		}
+
+		private long toEpochMillis(final int year, final int month, final int day, final int hour, final int minute, final int second) {
+
+			// Same kind of calendar that SimpleDateFormat uses.
+			final Calendar calendar = Calendar.getInstance(this.timeZone);
+			calendar.clear();
+			calendar.set(year, month - 1, day, hour, minute, second);
+
+			return calendar.getTimeInMillis();
+		}
+
+		/**
+		 * Not thread-safe, used by one thread only.
+		 */
+		private static final class SecondCache {
+
+			long hourKey = Long.MIN_VALUE;
+			long hourEpochMillis;
+			long secondKey = Long.MIN_VALUE;
+			long secondEpochMillis;
+
+			/**
+			 * <code>true</code> if the UTC offset of the time zone is same
+			 * throughout the hour.
+			 */
+			boolean uniformOffset;
+		}
+	}
+}
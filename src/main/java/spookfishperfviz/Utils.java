@@ -169,25 +169,12 @@ final class Utils {
 	/**
 	 * TODO - check if this is the right place for this method
 	 */
-	static Set<Long> getTimestampIntervalPoints(final long[] timestamps, final TimeZone timeZone, final long timeIntervalInMillis) {
+	static Set<Long> getTimestampIntervalPoints(final long minTime, final long maxTime, final TimeZone timeZone, final long timeIntervalInMillis) {
 		
 		if (timeIntervalInMillis <= 0) {
 			throw new IllegalArgumentException("Invalid time interval: <" + timeIntervalInMillis + ">. Time interval must be a positive value");
 		}
 
-		long minTime = Long.MAX_VALUE;
-		long maxTime = Long.MIN_VALUE;
-
-		for (final long timestamp : timestamps) {
-			if (timestamp < minTime) {
-				minTime = timestamp;
-			}
-
-			if (timestamp > maxTime) {
-				maxTime = timestamp;
-			}
-		}
-
 		final long flooredMinTime = getStartOfHour(minTime, timeZone);
 
 		final Set<Long> timestampIntervalPoints = new HashSet<>();
@@ -281,15 +268,27 @@ final class Utils {
 	}
 
 	static double getMedian(final double[] sortedData) {
-		final int n = sortedData.length;
+		return getMedian(asSortedValues(sortedData));
+	}
+
+	/**
+	 * @return median of the values of the distribution, each of which is read
+	 *         within the error bound of the distribution
+	 */
+	static double getMedian(final ApproximateDistribution distribution) {
+		return getMedian(asSortedValues(distribution));
+	}
+
+	private static double getMedian(final SortedValues sortedData) {
+		final long n = sortedData.size();
 
 		final double median;
 		if ((n % 2) == 0) {
-			final int k = (n / 2);
-			median = (sortedData[k - 1] + sortedData[k]) / 2;
+			final long k = (n / 2);
+			median = (sortedData.get(k - 1) + sortedData.get(k)) / 2;
 		} else {
-			final int k = (n + 1) / 2;
-			median = sortedData[k - 1];
+			final long k = (n + 1) / 2;
+			median = sortedData.get(k - 1);
 		}
 		return median;
 	}
@@ -306,13 +305,140 @@ final class Utils {
 		return copy;
 	}
 
+	/**
+	 * K-way merge of arrays each sorted in ascending order, in O(n log k)
+	 * time, using a binary min-heap of the arrays ordered by their next
+	 * element.
+	 * 
+	 * @return new array having all the elements in ascending order
+	 */
+	static double[] mergeSorted(final List<double[]> sortedArrays) {
+
+		final int k = sortedArrays.size();
+		final double[][] arrays = sortedArrays.toArray(new double[k][]);
+		final int[] positions = new int[k];
+		final int[] heap = new int[k];
+
+		int total = 0;
+		int heapSize = 0;
+
+		for (int a = 0; a < k; a++) {
+			total += arrays[a].length;
+			if (arrays[a].length > 0) {
+				heap[heapSize++] = a;
+			}
+		}
+
+		for (int i = (heapSize / 2) - 1; i >= 0; i--) {
+			siftDown(heap, heapSize, i, arrays, positions);
+		}
+
+		final double[] merged = new double[total];
+
+		for (int m = 0; m < total; m++) {
+
+			final int a = heap[0];
+
+			merged[m] = arrays[a][positions[a]++];
+
+			if (positions[a] == arrays[a].length) {
+				heap[0] = heap[--heapSize];
+			}
+
+			siftDown(heap, heapSize, 0, arrays, positions);
+		}
+
+		return merged;
+	}
+
+	private static void siftDown(final int[] heap, final int heapSize, final int start, final double[][] arrays, final int[] positions) {
+
+		int i = start;
+
+		while (true) {
+			final int left = (2 * i) + 1;
+
+			if (left >= heapSize) {
+				return;
+			}
+
+			final int right = left + 1;
+			final int smaller = ((right < heapSize) && (compareHeads(heap[right], heap[left], arrays, positions) < 0)) ? right : left;
+
+			if (compareHeads(heap[smaller], heap[i], arrays, positions) >= 0) {
+				return;
+			}
+
+			final int tmp = heap[i];
+			heap[i] = heap[smaller];
+			heap[smaller] = tmp;
+
+			i = smaller;
+		}
+	}
+
+	private static int compareHeads(final int a, final int b, final double[][] arrays, final int[] positions) {
+		return Double.compare(arrays[a][positions[a]], arrays[b][positions[b]]);
+	}
+
 	static Percentiles getPercentiles(final double[] sortedData, final double[] keys, final String valueUnit) {
+		return getPercentiles(asSortedValues(sortedData), null, null, keys, valueUnit);
+	}
+
+	/**
+	 * Same as {@linkplain #getPercentiles(double[], double[], String)}, but
+	 * each value is read from the distribution, and is shown with the bounds
+	 * of the actual value, as per the error bound of the distribution.
+	 */
+	static Percentiles getPercentiles(final ApproximateDistribution distribution, final double[] keys, final String valueUnit) {
+
+		final SortedValues sortedData = asSortedValues(distribution);
+
+		final SortedValues lowerBounds = new SortedValues() {
+			@Override
+			public long size() {
+				return distribution.getTotalCount();
+			}
+
+			@Override
+			public double get(final long index) {
+				return distribution.getLowerBoundAtRank(index);
+			}
+		};
+
+		final SortedValues upperBounds = new SortedValues() {
+			@Override
+			public long size() {
+				return distribution.getTotalCount();
+			}
+
+			@Override
+			public double get(final long index) {
+				return distribution.getUpperBoundAtRank(index);
+			}
+		};
+
+		return getPercentiles(sortedData, lowerBounds, upperBounds, keys, valueUnit);
+	}
+
+	/**
+	 * @param lowerBounds
+	 *            <code>null</code> if the values are exact, in which case
+	 *            <code>upperBounds</code> must be <code>null</code> too
+	 */
+	private static Percentiles getPercentiles(	final SortedValues sortedData,
+												final SortedValues lowerBounds,
+												final SortedValues upperBounds,
+												final double[] keys,
+												final String valueUnit) {
 		
 		final double[] sortedKeys = Utils.sort(keys);
 
 		final int n = sortedKeys.length;
 
 		final double[] result = new double[n];
+		final double[] lowerResult = (lowerBounds == null) ? null : new double[n];
+		final double[] upperResult = (upperBounds == null) ? null : new double[n];
 		final double[] validKeys = new double[n];
 		int k = 0;
 
@@ -321,6 +447,11 @@ final class Utils {
 
 			try {
 				result[k] = Utils.getPthPercentile(sortedData, key);
+
+				if (lowerBounds != null) {
+					lowerResult[k] = Utils.getPthPercentile(lowerBounds, key);
+					upperResult[k] = Utils.getPthPercentile(upperBounds, key);
+				}
 			} catch (final IllegalPercentileKeyException e) {
 				continue; // ignore this key and proceed to other keys
 			}
@@ -329,7 +460,11 @@ final class Utils {
 			k++;
 		}
 
-		return new Percentiles(Arrays.copyOfRange(validKeys, 0, k), Arrays.copyOfRange(result, 0, k), valueUnit);
+		return new Percentiles(	Arrays.copyOfRange(validKeys, 0, k),
+								Arrays.copyOfRange(result, 0, k),
+								(lowerResult == null) ? null : Arrays.copyOfRange(lowerResult, 0, k),
+								(upperResult == null) ? null : Arrays.copyOfRange(upperResult, 0, k),
+								valueUnit);
 	}
 
 	/**
@@ -340,11 +475,15 @@ final class Utils {
 	 *             if percentile can not be calculated for <code>p</code>
 	 */
 	static double getPthPercentile(final double[] sortedData, final double p) {
-		final int n = sortedData.length;
+		return getPthPercentile(asSortedValues(sortedData), p);
+	}
+
+	private static double getPthPercentile(final SortedValues sortedData, final double p) {
+		final long n = sortedData.size();
 
 		final double pos = (n * (p / 100)) + 0.5; // TODO - check if this is the correct way
 		final double integerPart = Math.floor(pos);
-		final int index = ((int) integerPart) - 1; // array index begins at 0
+		final long index = ((long) integerPart) - 1; // array index begins at 0
 
 		if (index < 0) {
 			throw new IllegalPercentileKeyException(n, p);
@@ -352,7 +491,7 @@ final class Utils {
 
 		final double fraction = pos - integerPart;
 
-		final double x = sortedData[index];
+		final double x = sortedData.get(index);
 
 		final double result;
 
@@ -361,7 +500,7 @@ final class Utils {
 		} else {
 			// interpolate
 
-			final double y = sortedData[index + 1];
+			final double y = sortedData.get(index + 1);
 			final double diff = y - x;
 
 			result = x + (fraction * diff);
@@ -374,11 +513,48 @@ final class Utils {
 		
 		private static final long serialVersionUID = -2793561757886762344L;
 
-		IllegalPercentileKeyException(final int n, final double p) {
+		IllegalPercentileKeyException(final long n, final double p) {
 			super("n=" + n + ", p=" + p);
 		}
 	}
 
+	/**
+	 * Values in ascending order, read by their 0 based index.
+	 */
+	private static interface SortedValues {
+		long size();
+
+		double get(long index);
+	}
+
+	private static SortedValues asSortedValues(final double[] sortedData) {
+		return new SortedValues() {
+			@Override
+			public long size() {
+				return sortedData.length;
+			}
+
+			@Override
+			public double get(final long index) {
+				return sortedData[(int) index];
+			}
+		};
+	}
+
+	private static SortedValues asSortedValues(final ApproximateDistribution distribution) {
+		return new SortedValues() {
+			@Override
+			public long size() {
+				return distribution.getTotalCount();
+			}
+
+			@Override
+			public double get(final long index) {
+				return distribution.getValueAtRank(index);
+			}
+		};
+	}
+
 	/**
 	 * TODO implement this. 
 	 * See http://www.stanford.edu/class/archive/anthsci/anthsci192/anthsci192.1064/handouts/calculating%20percentiles.pdf
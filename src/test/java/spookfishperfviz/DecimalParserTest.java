@@ -0,0 +1,125 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks {@linkplain DecimalParser} against {@linkplain Double#parseDouble(String)}.
+ *
+ * @author Rahul Bakale
+ * @since Nov, 2014
+ */
+public final class DecimalParserTest {
+
+	@Test
+	public void edgeCases() {
+
+		final String[] values = {
+				"0", "-0", "+0", "0.0", "-0.0", "00000", "0.000000000000000000000", "5", "5.", ".5", "-.5", "+5.25",
+				"1", "9", "10", "0.1", "0.2", "0.3", "0.7", "1.1", "2.675", "1.005", "123.456", "-123.456",
+				"999999999999999", "99999999999999.9", "0.999999999999999", "9999999999999999", "12345678901234567890",
+				"0.1234567890123456789012", "0.00000000000000000000001", "1234567.0000000000000000000001",
+				"000000000000000000001.5", "1.50000000000000000000000000", "4503599627370497", "9007199254740993",
+				"1e3", "1E-3", "-2.5e+10", "1.7976931348623157e308", "4.9e-324", "NaN", "Infinity", "-Infinity",
+				" 5", "5 ", "5d", "5f", "0x1p3" };
+
+		for (final String value : values) {
+			check(value);
+		}
+	}
+
+	@Test
+	public void invalidNumbers() {
+
+		final String[] values = { "", "-", "+", ".", "-.", "1.2.3", "1,5", "abc", "--1", "1-", "1..2" };
+
+		for (final String value : values) {
+
+			try {
+				Double.parseDouble(value);
+				fail("Double.parseDouble accepted <" + value + ">");
+			} catch (final NumberFormatException e) {
+				// expected
+			}
+
+			try {
+				DecimalParser.parse(value, 0, value.length());
+				fail("DecimalParser accepted <" + value + ">");
+			} catch (final NumberFormatException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void randomNumbers() {
+
+		final Random random = new Random(42);
+		final StringBuilder buf = new StringBuilder();
+
+		for (int n = 0; n < 200000; n++) {
+
+			buf.setLength(0);
+
+			if (random.nextInt(4) == 0) {
+				buf.append('-');
+			}
+
+			final int intDigits = random.nextInt(12);
+			for (int i = 0; i < intDigits; i++) {
+				buf.append((char) ('0' + random.nextInt(10)));
+			}
+
+			final int fractionDigits = random.nextInt(intDigits == 0 ? 12 : 10) + (intDigits == 0 ? 1 : 0);
+			if (fractionDigits > 0) {
+				buf.append('.');
+				for (int i = 0; i < fractionDigits; i++) {
+					buf.append((char) ('0' + random.nextInt(10)));
+				}
+			}
+
+			check(buf.toString());
+		}
+	}
+
+	@Test
+	public void parsesOnlyTheGivenRange() {
+
+		final String line = "2014-11-17 10:15:30.123,getOrder,12.75,x";
+
+		assertEquals(12.75, DecimalParser.parse(line, 33, 38), 0);
+		assertEquals(123, DecimalParser.parse(line, 20, 23), 0);
+	}
+
+	private static void check(final String value) {
+
+		final double expected = Double.parseDouble(value);
+
+		// Surround the number, to check that only its range is read.
+		final String line = "a," + value + ",b";
+		final double actual = DecimalParser.parse(line, 2, 2 + value.length());
+
+		assertEquals("<" + value + ">", Double.doubleToRawLongBits(expected), Double.doubleToRawLongBits(actual));
+	}
+}
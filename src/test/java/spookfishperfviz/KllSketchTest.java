@@ -0,0 +1,303 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author Rahul Bakale
+ * @since Nov, 2014
+ */
+public final class KllSketchTest {
+
+	private static final int COUNT = 300000;
+
+	@Test
+	public void exactUntilFirstCompaction() {
+
+		final Random random = new Random(3);
+		final int k = 50;
+
+		final KllSketch sketch = new KllSketch(k);
+		final double[] values = new double[k - 1];
+
+		for (int i = 0; i < values.length; i++) {
+			values[i] = random.nextDouble();
+			sketch.record(values[i]);
+		}
+
+		Arrays.sort(values);
+
+		assertEquals(0, sketch.getNormalizedRankError(), 0);
+		assertEquals(values.length, sketch.getBucketCount());
+
+		for (int rank = 0; rank < values.length; rank++) {
+			assertEquals(values[rank], sketch.getValueAtRank(rank), 0);
+			assertEquals(values[rank], sketch.getLowerBoundAtRank(rank), 0);
+			assertEquals(values[rank], sketch.getUpperBoundAtRank(rank), 0);
+		}
+	}
+
+	@Test
+	public void rankErrorIsWithinTheBound() {
+
+		final Random random = new Random(42);
+
+		final double[] uniform = new double[COUNT];
+		final double[] skewed = new double[COUNT];
+		final double[] ascending = new double[COUNT];
+		final double[] fewDistinct = new double[COUNT];
+
+		for (int i = 0; i < COUNT; i++) {
+			uniform[i] = random.nextDouble() * 1000;
+			skewed[i] = -Math.log(1 - random.nextDouble()) * 20;
+			ascending[i] = i;
+			fewDistinct[i] = random.nextInt(5);
+		}
+
+		for (final int k : new int[] { KllSketch.MIN_K, 64, KllSketch.DEFAULT_K, 1000 }) {
+			for (final double[] values : new double[][] { uniform, skewed, ascending, fewDistinct }) {
+
+				final KllSketch sketch = new KllSketch(k);
+				for (final double value : values) {
+					sketch.record(value);
+				}
+
+				checkRankError(values, sketch);
+			}
+		}
+	}
+
+	@Test
+	public void mergedSketchIsWithinTheBound() {
+
+		final Random random = new Random(5);
+
+		final double[] values = new double[COUNT];
+		final KllSketch[] parts = new KllSketch[7];
+
+		for (int p = 0; p < parts.length; p++) {
+			parts[p] = new KllSketch(KllSketch.DEFAULT_K);
+		}
+
+		for (int i = 0; i < COUNT; i++) {
+
+			// The parts have different sizes and ranges of values.
+			final int part = (int) Math.sqrt(random.nextInt(parts.length * parts.length));
+			values[i] = (part * 100) + (random.nextDouble() * 300);
+			parts[part].record(values[i]);
+		}
+
+		final KllSketch merged = new KllSketch(KllSketch.DEFAULT_K);
+
+		for (final KllSketch part : parts) {
+			merged.add(part);
+		}
+
+		merged.add(new KllSketch(KllSketch.DEFAULT_K));
+
+		checkRankError(values, merged);
+
+		// Merging into a non-empty sketch
+		final KllSketch mergedIntoPart = parts[parts.length - 1];
+
+		for (int p = 0; p < (parts.length - 1); p++) {
+			mergedIntoPart.add(parts[p]);
+		}
+
+		checkRankError(values, mergedIntoPart);
+	}
+
+	@Test
+	public void writtenSketchIsReadBack() throws IOException {
+
+		final Random random = new Random(9);
+
+		final KllSketch sketch = new KllSketch(100);
+
+		for (int i = 0; i < 100000; i++) {
+			sketch.record(random.nextGaussian());
+		}
+
+		assertSame(sketch, writeAndRead(sketch));
+
+		final KllSketch small = new KllSketch(100);
+		small.record(1);
+		small.record(-1);
+
+		assertSame(small, writeAndRead(small));
+		assertSame(new KllSketch(100), writeAndRead(new KllSketch(100)));
+
+		// A sketch that is read back can be merged.
+		final KllSketch read = writeAndRead(sketch);
+		read.add(sketch);
+
+		assertEquals(2 * sketch.getTotalCount(), read.getTotalCount());
+	}
+
+	@Test
+	public void badDataIsRejected() throws IOException {
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try (final DataOutputStream out = new DataOutputStream(bytes);) {
+			out.writeInt(3);
+			out.writeLong(1);
+		}
+
+		try {
+			KllSketch.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+			fail();
+		} catch (final IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void badValuesAreRejected() {
+
+		final KllSketch sketch = new KllSketch(KllSketch.DEFAULT_K);
+
+		for (final double value : new double[] { Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY }) {
+			try {
+				sketch.record(value);
+				fail("Recorded <" + value + ">");
+			} catch (final IllegalArgumentException e) {
+				// expected
+			}
+		}
+
+		assertEquals(0, sketch.getTotalCount());
+
+		try {
+			sketch.add(new KllSketch(KllSketch.DEFAULT_K + 1));
+			fail();
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Checks that, at every percentile, the actual ranks of the value read
+	 * from the sketch are within the normalized rank error of the rank asked
+	 * for, and that the lower and upper bounds hold the actual value.
+	 */
+	private static void checkRankError(final double[] unsortedValues, final KllSketch sketch) {
+
+		final double[] values = unsortedValues.clone();
+		Arrays.sort(values);
+
+		final int count = values.length;
+
+		assertEquals(count, sketch.getTotalCount());
+		assertEquals(values[0], sketch.getMin(), 0);
+		assertEquals(values[count - 1], sketch.getMax(), 0);
+
+		long weight = 0;
+		for (int bucket = 0; bucket < sketch.getBucketCount(); bucket++) {
+			weight += sketch.getCount(bucket);
+		}
+
+		assertEquals(count, weight);
+
+		final double maxError = sketch.getNormalizedRankError();
+
+		assertTrue(maxError > 0);
+
+		for (int i = 0; i <= 1000; i++) {
+
+			final long rank = Math.min(count - 1, (long) ((i / 1000.0) * count));
+			final double value = sketch.getValueAtRank(rank);
+
+			// ranks of the values equal to the one read
+			final int lowRank = lowerBound(values, value);
+			final int highRank = lowerBound(values, Math.nextUp(value)) - 1;
+
+			assertTrue("k = " + sketch.getK() + ", rank = " + rank + ", value = " + value, highRank >= lowRank);
+
+			final long error = (rank < lowRank) ? lowRank - rank : (rank > highRank) ? rank - highRank : 0;
+
+			assertTrue("k = " + sketch.getK() + ", rank = " + rank + ", error = " + ((double) error / count) + ", bound = " + maxError,
+					error <= (maxError * count));
+
+			assertTrue(sketch.getLowerBoundAtRank(rank) <= values[(int) rank]);
+			assertTrue(sketch.getUpperBoundAtRank(rank) >= values[(int) rank]);
+		}
+	}
+
+	/**
+	 * @return index of the first element not less than <code>value</code>
+	 */
+	private static int lowerBound(final double[] sorted, final double value) {
+
+		int low = 0;
+		int high = sorted.length;
+
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (sorted[mid] < value) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		return low;
+	}
+
+	private static KllSketch writeAndRead(final KllSketch sketch) throws IOException {
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try (final DataOutputStream out = new DataOutputStream(bytes);) {
+			sketch.writeTo(out);
+		}
+
+		return KllSketch.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+	}
+
+	private static void assertSame(final KllSketch expected, final KllSketch actual) {
+
+		assertEquals(expected.getK(), actual.getK());
+		assertEquals(expected.getTotalCount(), actual.getTotalCount());
+		assertEquals(expected.getMin(), actual.getMin(), 0);
+		assertEquals(expected.getMax(), actual.getMax(), 0);
+		assertEquals(expected.getBucketCount(), actual.getBucketCount());
+
+		for (int bucket = 0; bucket < expected.getBucketCount(); bucket++) {
+			assertEquals(expected.getValue(bucket), actual.getValue(bucket), 0);
+			assertEquals(expected.getCount(bucket), actual.getCount(bucket));
+		}
+
+		for (long rank = 0; rank < expected.getTotalCount(); rank += Math.max(1, expected.getTotalCount() / 100)) {
+			assertEquals(expected.getValueAtRank(rank), actual.getValueAtRank(rank), 0);
+		}
+	}
+}
@@ -0,0 +1,212 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author Rahul Bakale
+ * @since Nov, 2014
+ */
+public final class LogLinearHistogramTest {
+
+	@Test
+	public void valuesAreWithinTheRelativeError() {
+
+		final Random random = new Random(42);
+
+		for (int digits = 1; digits <= LogLinearHistogram.MAX_SIGNIFICANT_DIGITS; digits++) {
+
+			final double[] values = new double[20000];
+
+			for (int i = 0; i < values.length; i++) {
+				// from 1 micro second to about 3 hours, in milli seconds
+				values[i] = Math.pow(10, (random.nextDouble() * 10) - 3);
+			}
+
+			values[7] = 0;
+			values[11] = 0;
+
+			final LogLinearHistogram histogram = new LogLinearHistogram(digits);
+			for (final double value : values) {
+				histogram.record(value);
+			}
+
+			Arrays.sort(values);
+
+			assertEquals(values.length, histogram.getTotalCount());
+			assertEquals(values[0], histogram.getMin(), 0);
+			assertEquals(values[values.length - 1], histogram.getMax(), 0);
+
+			final double relativeError = histogram.getRelativeError();
+
+			assertTrue(relativeError <= (0.5 * Math.pow(10, -digits)));
+
+			for (int rank = 0; rank < values.length; rank = nextRank(rank, values.length)) {
+
+				final double expected = values[rank];
+
+				assertEquals("digits = " + digits + ", rank = " + rank, expected, histogram.getValueAtRank(rank), expected * relativeError);
+				assertTrue(histogram.getLowerBoundAtRank(rank) <= expected);
+				assertTrue(histogram.getUpperBoundAtRank(rank) >= expected);
+			}
+		}
+	}
+
+	@Test
+	public void mergedHistogramEqualsHistogramOfAllValues() {
+
+		final Random random = new Random(7);
+
+		final LogLinearHistogram all = new LogLinearHistogram(3);
+		final LogLinearHistogram[] parts = { new LogLinearHistogram(3), new LogLinearHistogram(3), new LogLinearHistogram(3), new LogLinearHistogram(3) };
+
+		for (int i = 0; i < 50000; i++) {
+
+			// The parts cover different ranges, so that merging has to grow
+			// the range of exponents at both ends.
+			final int part = random.nextInt(parts.length);
+			final double value = Math.pow(10, part - 2) * (1 + (random.nextDouble() * 9));
+
+			all.record(value);
+			parts[part].record(value);
+		}
+
+		final LogLinearHistogram merged = new LogLinearHistogram(3);
+
+		merged.add(parts[2]);
+		merged.add(parts[0]);
+		merged.add(new LogLinearHistogram(3));
+		merged.add(parts[3]);
+		merged.add(parts[1]);
+
+		assertSame(all, merged);
+	}
+
+	@Test
+	public void writtenHistogramIsReadBack() throws IOException {
+
+		final Random random = new Random(11);
+
+		final LogLinearHistogram histogram = new LogLinearHistogram(2);
+
+		for (int i = 0; i < 10000; i++) {
+			histogram.record(random.nextInt(10) == 0 ? 0 : random.nextDouble() * 1000);
+		}
+
+		assertSame(histogram, writeAndRead(histogram));
+		assertSame(new LogLinearHistogram(4), writeAndRead(new LogLinearHistogram(4)));
+	}
+
+	@Test
+	public void badDataIsRejected() throws IOException {
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try (final DataOutputStream out = new DataOutputStream(bytes);) {
+			out.writeInt(9);
+			out.writeLong(1);
+		}
+
+		try {
+			LogLinearHistogram.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+			fail();
+		} catch (final IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void badValuesAreRejected() {
+
+		final LogLinearHistogram histogram = new LogLinearHistogram(3);
+
+		for (final double value : new double[] { -1, -Double.MIN_VALUE, Double.NaN, Double.POSITIVE_INFINITY }) {
+			try {
+				histogram.record(value);
+				fail("Recorded <" + value + ">");
+			} catch (final IllegalArgumentException e) {
+				// expected
+			}
+		}
+
+		assertEquals(0, histogram.getTotalCount());
+
+		try {
+			histogram.add(new LogLinearHistogram(2));
+			fail();
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Finding the value at a rank scans the buckets, hence only some of the
+	 * ranks, including the first and the last, are checked.
+	 */
+	private static int nextRank(final int rank, final int count) {
+
+		final int next = rank + Math.max(1, count / 64);
+
+		return ((next < count) || (rank == (count - 1))) ? next : count - 1;
+	}
+
+	private static LogLinearHistogram writeAndRead(final LogLinearHistogram histogram) throws IOException {
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try (final DataOutputStream out = new DataOutputStream(bytes);) {
+			histogram.writeTo(out);
+		}
+
+		return LogLinearHistogram.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+	}
+
+	private static void assertSame(final LogLinearHistogram expected, final LogLinearHistogram actual) {
+
+		assertEquals(expected.getSignificantDigits(), actual.getSignificantDigits());
+		assertEquals(expected.getTotalCount(), actual.getTotalCount());
+		assertEquals(expected.getMin(), actual.getMin(), 0);
+		assertEquals(expected.getMax(), actual.getMax(), 0);
+
+		final int totalCount = (int) expected.getTotalCount();
+
+		for (int rank = 0; rank < totalCount; rank = nextRank(rank, totalCount)) {
+			assertEquals(expected.getValueAtRank(rank), actual.getValueAtRank(rank), 0);
+		}
+
+		long count = 0;
+		for (int bucket = 0; bucket < actual.getBucketCount(); bucket++) {
+			count += actual.getCount(bucket);
+		}
+
+		assertEquals(expected.getTotalCount(), count);
+	}
+}
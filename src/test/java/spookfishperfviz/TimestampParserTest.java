@@ -0,0 +1,304 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * Checks {@linkplain TimestampParser} against {@linkplain SimpleDateFormat}.
+ *
+ * @author Rahul Bakale
+ * @since Nov, 2014
+ */
+public final class TimestampParserTest {
+
+	/**
+	 * Patterns of the fixed-width fast path, and a few that are parsed by
+	 * {@linkplain SimpleDateFormat}.
+	 */
+	private static final String[] PATTERNS = {
+			"yyyy-MM-dd HH:mm:ss.SSS", "yyyy-MM-dd'T'HH:mm:ss,SSS", "yyyy/MM/dd HH:mm:ss", "dd-MM-yyyy HH:mm", "yyyyMMdd'T'HHmmss",
+			"dd MMM yyyy HH:mm:ss.SSS", "yyyy-MM-dd hh:mm:ss a" };
+
+	/**
+	 * Include time zones that have daylight saving time, and offsets that are
+	 * not whole hours.
+	 */
+	private static final String[] TIME_ZONES = { "UTC", "America/New_York", "Europe/London", "Asia/Kolkata", "Australia/Lord_Howe", "Asia/Kathmandu" };
+
+	private static final long FROM = 788918400000L; // 1995-01-01
+	private static final long TO = 2051222400000L; // 2035-01-01
+
+	@Test
+	public void randomTimestamps() throws ParseException {
+
+		final Random random = new Random(42);
+
+		for (final String pattern : PATTERNS) {
+			for (final String tzId : TIME_ZONES) {
+
+				final TimeZone tz = TimeZone.getTimeZone(tzId);
+				final SimpleDateFormat format = newDateFormat(pattern, tz);
+				final TimestampParser parser = TimestampParser.create(pattern, tz);
+
+				for (int i = 0; i < 5000; i++) {
+					final long epochMillis = FROM + (long) (random.nextDouble() * (TO - FROM));
+					check(format, parser, format.format(epochMillis));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Consecutive timestamps, as in a log file, which are mostly parsed from
+	 * the cache, across the daylight saving time changes of 2014.
+	 */
+	@Test
+	public void consecutiveTimestampsAcrossOffsetChanges() throws ParseException {
+
+		final Random random = new Random(7);
+
+		for (final String pattern : PATTERNS) {
+			for (final String tzId : TIME_ZONES) {
+
+				final TimeZone tz = TimeZone.getTimeZone(tzId);
+				final SimpleDateFormat format = newDateFormat(pattern, tz);
+				final TimestampParser parser = TimestampParser.create(pattern, tz);
+
+				for (final long change : offsetChanges(tz, 1388534400000L, 1420070400000L)) {
+
+					long epochMillis = change - (3 * 3600000L);
+
+					for (int i = 0; i < 11000; i++) {
+						epochMillis += random.nextInt(4000);
+						check(format, parser, format.format(epochMillis));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Local times that do not exist, or exist twice, because of daylight
+	 * saving time, and out-of-range values that {@linkplain SimpleDateFormat}
+	 * accepts since it is lenient.
+	 */
+	@Test
+	public void unusualTimestamps() throws ParseException {
+
+		final String pattern = "yyyy-MM-dd HH:mm:ss.SSS";
+
+		final String[] texts = {
+				"2014-03-09 02:30:00.000", "2014-11-02 01:30:00.000", "2014-03-30 01:30:00.500", "2014-10-26 01:59:59.999",
+				"2014-02-30 10:00:00.000", "2014-13-01 10:00:00.000", "2014-01-01 24:00:00.000", "2014-01-01 23:60:00.000",
+				"2014-01-01 23:59:60.000", "2016-02-29 12:00:00.000", "1969-12-31 23:59:59.999", "0001-01-01 00:00:00.000" };
+
+		for (final String tzId : TIME_ZONES) {
+
+			final TimeZone tz = TimeZone.getTimeZone(tzId);
+			final SimpleDateFormat format = newDateFormat(pattern, tz);
+			final TimestampParser parser = TimestampParser.create(pattern, tz);
+
+			for (final String text : texts) {
+				check(format, parser, text);
+			}
+		}
+	}
+
+	@Test
+	public void invalidTimestamps() {
+
+		final TimestampParser parser = TimestampParser.create("yyyy-MM-dd HH:mm:ss.SSS", TimeZone.getTimeZone("UTC"));
+
+		final String[] texts = { "", "2014", "yyyy-MM-dd HH:mm:ss.SSS", "2014/11/17 10:15:30.123" };
+
+		for (final String text : texts) {
+			try {
+				parser.parse(text);
+				fail("Parsed <" + text + ">");
+			} catch (final IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	/**
+	 * Threads that share a parser, and parse timestamps of different hours,
+	 * get the same results as when parsing alone.
+	 */
+	@Test
+	public void sharedByThreads() throws Exception {
+
+		final String pattern = "yyyy-MM-dd HH:mm:ss.SSS";
+		final TimeZone tz = TimeZone.getTimeZone("America/New_York");
+
+		final TimestampParser[] parsers = { TimestampParser.create(pattern, tz), TimestampParser.create("dd MMM yyyy HH:mm:ss.SSS", tz) };
+		final String[] patterns = { pattern, "dd MMM yyyy HH:mm:ss.SSS" };
+
+		final int threadCount = 4;
+		final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+
+		try {
+			for (int p = 0; p < parsers.length; p++) {
+
+				final TimestampParser parser = parsers[p];
+				final String threadPattern = patterns[p];
+
+				final List<Future<Void>> futures = new ArrayList<>();
+
+				for (int t = 0; t < threadCount; t++) {
+
+					final long start = 1414904400000L + (t * 7200000L);
+
+					futures.add(executor.submit(new Callable<Void>() {
+						@Override
+						public Void call() throws ParseException {
+
+							final SimpleDateFormat format = newDateFormat(threadPattern, tz);
+							final Random random = new Random(start);
+
+							long epochMillis = start;
+
+							for (int i = 0; i < 50000; i++) {
+								epochMillis += random.nextInt(200);
+								check(format, parser, format.format(epochMillis));
+							}
+
+							return null;
+						}
+					}));
+				}
+
+				for (final Future<Void> future : futures) {
+					future.get();
+				}
+			}
+
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void epochTimestamps() {
+
+		final TimeZone tz = TimeZone.getTimeZone("UTC");
+
+		final TimestampParser millis = TimestampParser.create(TimestampParser.EPOCH_MILLIS, tz);
+		final TimestampParser micros = TimestampParser.create(TimestampParser.EPOCH_MICROS, tz);
+		final TimestampParser nanos = TimestampParser.create(TimestampParser.EPOCH_NANOS, tz);
+
+		assertEquals(1416220530123L, millis.parse("1416220530123"));
+		assertEquals(0L, millis.parse("0"));
+		assertEquals(-1L, millis.parse("-1"));
+		assertEquals(Long.MAX_VALUE, millis.parse(Long.toString(Long.MAX_VALUE)));
+
+		assertEquals(1416220530123L, micros.parse("1416220530123456"));
+		assertEquals(1416220530123L, micros.parse("1416220530123999"));
+		assertEquals(1416220530123L, nanos.parse("1416220530123456789"));
+
+		// Truncated towards negative infinity, same as for positive values.
+		assertEquals(-1L, micros.parse("-1"));
+		assertEquals(-1L, micros.parse("-1000"));
+		assertEquals(-2L, micros.parse("-1001"));
+		assertEquals(-2L, nanos.parse("-1000001"));
+
+		final Random random = new Random(42);
+
+		for (int i = 0; i < 100000; i++) {
+
+			final long value = random.nextLong() / (random.nextInt(1000) + 1);
+			final String text = Long.toString(value);
+
+			assertEquals(text, value, millis.parse(text));
+			assertEquals(text, floorDiv(value, 1000L), micros.parse(text));
+			assertEquals(text, floorDiv(value, 1000000L), nanos.parse(text));
+		}
+
+		final String line = "x,1416220530123,y";
+		assertEquals(1416220530123L, millis.parse(line, 2, 15));
+
+		final String[] invalid = { "", "-", "12a", "1.5", "+5", "99999999999999999999", "9999999999999999999" };
+
+		for (final String text : invalid) {
+			try {
+				millis.parse(text);
+				fail("Parsed <" + text + ">");
+			} catch (final IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	/**
+	 * Same as <code>Math.floorDiv</code> of Java 8.
+	 */
+	private static long floorDiv(final long x, final long y) {
+
+		final long q = x / y;
+
+		return ((x % y) != 0) && ((x < 0) != (y < 0)) ? q - 1 : q;
+	}
+
+	/**
+	 * @return instants, to the minute, at which the offset of the time zone
+	 *         changes between <code>from</code> and <code>to</code>
+	 */
+	private static List<Long> offsetChanges(final TimeZone tz, final long from, final long to) {
+
+		final List<Long> changes = new ArrayList<>();
+
+		for (long t = from + 60000L; t < to; t += 60000L) {
+			if (tz.getOffset(t) != tz.getOffset(t - 60000L)) {
+				changes.add(Long.valueOf(t));
+			}
+		}
+
+		return changes;
+	}
+
+	private static void check(final SimpleDateFormat format, final TimestampParser parser, final String text) throws ParseException {
+
+		final long expected = format.parse(text).getTime();
+
+		// Surround the timestamp, to check that only its range is read.
+		final String line = "[" + text + "] event";
+
+		assertEquals(text, expected, parser.parse(line, 1, 1 + text.length()));
+	}
+
+	private static SimpleDateFormat newDateFormat(final String pattern, final TimeZone tz) {
+		final SimpleDateFormat format = new SimpleDateFormat(pattern);
+		format.setTimeZone(tz);
+		return format;
+	}
+}